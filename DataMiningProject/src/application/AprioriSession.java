@@ -6,33 +6,104 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashSet;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.regex.Pattern;
 import static java.lang.System.*;
 
 import domain.apriori.Apriori;
+import domain.apriori.AssociationRule;
+import domain.apriori.CandidateStore;
+import domain.apriori.Eclat;
+import domain.apriori.FPGrowth;
+import domain.apriori.FrequentItemSetMiner;
 import domain.apriori.HashTree;
 import domain.apriori.IntegerItem;
+import domain.apriori.Item;
 import domain.apriori.ItemSet;
+import domain.apriori.LevelProfile;
+import domain.apriori.PartitionMiner;
+import domain.apriori.RuleGenerator;
+import domain.apriori.SamplingMiner;
+import domain.apriori.StreamMiner;
 import domain.apriori.StringItem;
+import domain.apriori.TopKMiner;
+import domain.apriori.TransactionDatabase;
+import domain.apriori.TransactionSpill;
 
 public class AprioriSession {
     
+    public static final String ENGINE_APRIORI = "apriori";
+    public static final String ENGINE_FP_GROWTH = "fpgrowth";
+    public static final String ENGINE_ECLAT = "eclat";
+    public static final String ENGINE_PARTITION = "partition";
+    public static final String ENGINE_SAMPLING = "sampling";
+    public static final String ENGINE_TOP_K = "topk";
+    public static final String ENGINE_STREAM = "stream";
+    public static final String FORMAT_TREE = "tree"; // a drawing of each hash tree of frequent itemsets
+    public static final String FORMAT_FLAT = "flat"; // a line per itemset: its items, a tab and its support
+    public static final String FORMAT_BINARY = "binary"; // records of items and itemsets, see ItemSetFileWriter
+    
     private static final String DELIMITER_DEFAULT = "\\s+";
     private static final String OUTPUT_FILENAME_DEFAULT = "output_apriori.txt";
+    private static final String RULES_FILENAME_DEFAULT = "output_rules.txt";
+    private static final String LOOKUP_FILENAME_DEFAULT = "output_lookup.txt";
+    private static final double MIN_CONFIDENCE_DEFAULT = 0.5;
     private static final int MAX_BUCKET_SIZE_DEFAULT = 5;
     private static final int CHILDREN_DEFAULT = 3;
+    private static final int THREADS_DEFAULT = 1;
+    private static final int PARTITIONS_DEFAULT = 4;
+    private static final int SAMPLE_SIZE_DEFAULT = 26492; // see SamplingMiner
+    private static final double SUPPORT_SLACK_DEFAULT = 0.2;
+    private static final int TOP_K_DEFAULT = 100;
+    private static final int WINDOW_SIZE_DEFAULT = 10000;
+    private static final int WINDOW_PANES = 10;
+    private static final double STREAM_ERROR_DEFAULT = 0.001;
+    private static final int STREAM_MAX_LENGTH_DEFAULT = 3;
+    private static final String STANDARD_INPUT = "-"; // the input file name that streams baskets from standard input
+    private static final int SCANNED_TRANSACTIONS_PER_SPILL = 1 << 16; // scanned transactions are spilled in batches this large
     
     private static AprioriSession aprioriSession; // singleton
     
-    private Set<ItemSet> transactions;
+    private TransactionDatabase transactions;
     private String inputFile;
     private String outputFile;
     private String delimiter;
     private int minSup;
     private int maxBucketSize;
     private int childrenPerNode;
+    private int threads = THREADS_DEFAULT;
+    private String engine = ENGINE_APRIORI;
+    private boolean diffsets = false;
+    private String itemSetMode = Eclat.ITEMSETS_ALL;
+    private String countingMode = Apriori.COUNTING_SCAN;
+    private String candidateStore = Apriori.STORE_HASH_TREE;
+    private boolean outOfCore = false;
+    private int partitions = PARTITIONS_DEFAULT;
+    private int sampleSize = SAMPLE_SIZE_DEFAULT;
+    private double supportSlack = SUPPORT_SLACK_DEFAULT;
+    private int topK = TOP_K_DEFAULT;
+    private int maxLength = 0; // 0 for no maximum
+    private int windowSize = WINDOW_SIZE_DEFAULT;
+    private double streamError = STREAM_ERROR_DEFAULT;
+    private int reportInterval = 0; // the number of baskets between the stream engine's reports, or 0 to report only at the end
+    private long candidateMemoryBudget = 0; // in bytes; 0 lets Apriori use a share of the free heap
+    private String outputFormat = FORMAT_TREE;
+    private String profileFile = null; // where to write the metrics of each level, or null not to
+    private String rulesFile = null; // where to write association rules, or null not to generate them
+    private double minConfidence = MIN_CONFIDENCE_DEFAULT;
+    private String stateFile = null; // where to save the Apriori results for later updates, or null not to
+    private String updatedStateFile = null; // the saved results to update with the input, or null to mine the input
+    private String historyFile = null; // the transactions the saved results were found in
+    private String modelFile = null; // where to write a memory-mappable model of the frequent itemsets, or null not to
+    private int numOfTransactions; // the total number of transactions read, which the lift of a rule is relative to
+    private FrequentItemSetMiner miner;
 
     private AprioriSession() {
     }
@@ -44,42 +115,408 @@ public class AprioriSession {
         return aprioriSession;
     }
     
+    /** Sets the number of threads used to count candidates. If null, a default value is used.
+     * @param threads The number of threads. Must be a positive integer. **/
+    public void setThreads(String threads) {
+        this.threads = (threads == null) ? THREADS_DEFAULT : parsePositiveInt(threads, "number of threads");
+    }
+    
+    /** Sets the algorithm used to find the frequent itemsets. If null, the Apriori algorithm is used.
+     * @param engine ENGINE_APRIORI, ENGINE_FP_GROWTH, ENGINE_ECLAT, ENGINE_PARTITION, ENGINE_SAMPLING, ENGINE_TOP_K or ENGINE_STREAM. **/
+    public void setEngine(String engine) {
+        if (engine == null)
+            this.engine = ENGINE_APRIORI;
+        else if (engine.equals(ENGINE_APRIORI) || engine.equals(ENGINE_FP_GROWTH) || engine.equals(ENGINE_ECLAT)
+                || engine.equals(ENGINE_PARTITION) || engine.equals(ENGINE_SAMPLING) || engine.equals(ENGINE_TOP_K)
+                || engine.equals(ENGINE_STREAM))
+            this.engine = engine;
+        else {
+            err.println("Unrecognized frequent itemset engine: " + engine);
+            exit(1);
+        }
+    }
+    
+    /** Sets whether the Eclat engine uses diffsets instead of tid-lists. **/
+    public void setDiffsets(boolean diffsets) {
+        this.diffsets = diffsets;
+    }
+    
+    /** Sets which frequent itemsets the Eclat engine mines. If null, every frequent itemset is mined.
+     * @param itemSetMode Eclat.ITEMSETS_ALL, Eclat.ITEMSETS_CLOSED or Eclat.ITEMSETS_MAXIMAL. **/
+    public void setItemSetMode(String itemSetMode) {
+        if (itemSetMode == null)
+            this.itemSetMode = Eclat.ITEMSETS_ALL;
+        else if (itemSetMode.equals(Eclat.ITEMSETS_ALL) || itemSetMode.equals(Eclat.ITEMSETS_CLOSED)
+                || itemSetMode.equals(Eclat.ITEMSETS_MAXIMAL))
+            this.itemSetMode = itemSetMode;
+        else {
+            err.println("Unrecognized itemset mode: " + itemSetMode);
+            exit(1);
+        }
+    }
+    
+    /** Sets how the Apriori engine counts candidates. If null, every level is counted by scanning the transactions.
+     * @param countingMode Apriori.COUNTING_SCAN, Apriori.COUNTING_TID or Apriori.COUNTING_HYBRID. **/
+    public void setCountingMode(String countingMode) {
+        if (countingMode == null)
+            this.countingMode = Apriori.COUNTING_SCAN;
+        else if (countingMode.equals(Apriori.COUNTING_SCAN) || countingMode.equals(Apriori.COUNTING_TID)
+                || countingMode.equals(Apriori.COUNTING_HYBRID))
+            this.countingMode = countingMode;
+        else {
+            err.println("Unrecognized counting mode: " + countingMode);
+            exit(1);
+        }
+    }
+    
+    /** Sets the structure the Apriori engine generates, counts and keeps itemsets in. If null, they are kept in hash trees.
+     * @param candidateStore Apriori.STORE_HASH_TREE or Apriori.STORE_TRIE. **/
+    public void setCandidateStore(String candidateStore) {
+        if (candidateStore == null)
+            this.candidateStore = Apriori.STORE_HASH_TREE;
+        else if (candidateStore.equals(Apriori.STORE_HASH_TREE) || candidateStore.equals(Apriori.STORE_TRIE))
+            this.candidateStore = candidateStore;
+        else {
+            err.println("Unrecognized candidate store: " + candidateStore);
+            exit(1);
+        }
+    }
+    
+    /** Sets the number of partitions the partition engine splits the transactions into. If null, a default value is used.
+     * @param partitions The number of partitions. Must be a positive integer. **/
+    public void setPartitions(String partitions) {
+        this.partitions = (partitions == null) ? PARTITIONS_DEFAULT : parsePositiveInt(partitions, "number of partitions");
+    }
+    
+    /** Sets the number of transactions the sampling engine mines. If null, a default value is used.
+     * @param sampleSize The number of transactions. Must be a positive integer. **/
+    public void setSampleSize(String sampleSize) {
+        this.sampleSize = (sampleSize == null) ? SAMPLE_SIZE_DEFAULT : parsePositiveInt(sampleSize, "sample size");
+    }
+    
+    /** Sets how many of the most frequent itemsets the top-k engine finds, and their maximum length. If either is null,
+     * a default value is used; by default there is no maximum length, except for the stream engine, which counts
+     * itemsets of at most STREAM_MAX_LENGTH_DEFAULT items.
+     * @param k The number of itemsets. Must be a positive integer.
+     * @param maxLength The maximum number of items in an itemset. Must be a positive integer. **/
+    public void setTopK(String k, String maxLength) {
+        this.topK = (k == null) ? TOP_K_DEFAULT : parsePositiveInt(k, "number of itemsets");
+        this.maxLength = (maxLength == null) ? 0 : parsePositiveInt(maxLength, "maximum length");
+    }
+    
+    /** Sets the sliding window of the stream engine and how often it reports the window's frequent itemsets. If any is null,
+     * a default value is used; by default the frequent itemsets are only reported once the stream ends.
+     * @param windowSize The number of most recent baskets the window holds. Must be a positive integer.
+     * @param error The fraction of the window size by which counts may be underestimated. Must be between 0 and 1.
+     * @param reportInterval The number of baskets after which the output file is rewritten with the window's frequent
+     *                       itemsets. Must be a positive integer. **/
+    public void setStream(String windowSize, String error, String reportInterval) {
+        this.windowSize = (windowSize == null) ? WINDOW_SIZE_DEFAULT : parsePositiveInt(windowSize, "window size");
+        this.reportInterval = (reportInterval == null) ? 0 : parsePositiveInt(reportInterval, "report interval");
+        if (error == null) {
+            this.streamError = STREAM_ERROR_DEFAULT;
+            return;
+        }
+        try {
+            this.streamError = Double.parseDouble(error);
+        }
+        catch (NumberFormatException e) {
+            err.println("Unable to parse the error. Make sure it is a valid number.");
+            exit(1);
+        }
+        if (this.streamError <= 0 || this.streamError >= 1) {
+            err.println("The error must be between 0 and 1.");
+            exit(1);
+        }
+    }
+    
+    /** Sets how much memory the candidates of a level may take before the Apriori engine counts them in chunks.
+     * If null, the budget is a share of the free heap.
+     * @param megabytes The budget, in megabytes. Must be a positive integer. **/
+    public void setCandidateMemoryBudget(String megabytes) {
+        this.candidateMemoryBudget = (megabytes == null) ? 0 : parsePositiveInt(megabytes, "candidate memory budget") * (1L << 20);
+    }
+    
+    /** Sets the fraction by which the sampling engine lowers the minimum support it mines its sample at. If null, a default value is used.
+     * @param supportSlack The fraction. Must be at least 0 and less than 1. **/
+    public void setSupportSlack(String supportSlack) {
+        if (supportSlack == null) {
+            this.supportSlack = SUPPORT_SLACK_DEFAULT;
+            return;
+        }
+        try {
+            this.supportSlack = Double.parseDouble(supportSlack);
+        }
+        catch (NumberFormatException e) {
+            err.println("Unable to parse the support slack. Make sure it is a valid number.");
+            exit(1);
+        }
+        if (this.supportSlack < 0 || this.supportSlack >= 1) {
+            err.println("The support slack must be at least 0 and less than 1.");
+            exit(1);
+        }
+    }
+    
+    /** Sets whether the Apriori or partition engine runs out of core: the input is spilled to a binary file on disk instead
+     * of being loaded into memory, and the spill is streamed back for every scan, so memory use does not depend on the input size. **/
+    public void setOutOfCore(boolean outOfCore) {
+        this.outOfCore = outOfCore;
+    }
+    
+    /** Sets the format the frequent itemsets are written to the output file in. If null, the hash trees are drawn.
+     * @param outputFormat FORMAT_TREE, FORMAT_FLAT or FORMAT_BINARY. **/
+    public void setOutputFormat(String outputFormat) {
+        if (outputFormat == null)
+            this.outputFormat = FORMAT_TREE;
+        else if (outputFormat.equals(FORMAT_TREE) || outputFormat.equals(FORMAT_FLAT) || outputFormat.equals(FORMAT_BINARY))
+            this.outputFormat = outputFormat;
+        else {
+            err.println("Unrecognized output format: " + outputFormat);
+            exit(1);
+        }
+    }
+    
+    /** Sets whether association rules are derived from the frequent itemsets found, and the file they are written to,
+     * one per line. If both are null, no rules are generated; otherwise a default value is used for the one that is null.
+     * @param rulesFile The file to write the rules to.
+     * @param minConfidence The minimum confidence of a rule. Must be from 0 to 1. **/
+    public void setRules(String rulesFile, String minConfidence) {
+        if (rulesFile == null && minConfidence == null) {
+            this.rulesFile = null;
+            return;
+        }
+        this.rulesFile = (rulesFile == null) ? RULES_FILENAME_DEFAULT : rulesFile;
+        this.minConfidence = MIN_CONFIDENCE_DEFAULT;
+        if (minConfidence == null)
+            return;
+        
+        try {
+            this.minConfidence = Double.parseDouble(minConfidence);
+        }
+        catch (NumberFormatException e) {
+            err.println("Unable to parse the minimum confidence. Make sure it is a valid number.");
+            exit(1);
+        }
+        if (this.minConfidence < 0 || this.minConfidence > 1) {
+            err.println("The minimum confidence must be from 0 to 1.");
+            exit(1);
+        }
+    }
+    
+    /** Sets the file the Apriori engine saves its results to, so that a later session can update them for appended
+     * transactions. If null, the results are not saved. **/
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+    
+    /** Sets whether the Apriori engine updates saved results instead of mining the input: the input file then holds only
+     * the transactions appended since. If both are null, the input is mined.
+     * @param updatedStateFile The file the results were saved to.
+     * @param historyFile The file of the transactions the results were found in, which is only read if some itemsets
+     *        that were not frequent in it may have become frequent. **/
+    public void setUpdate(String updatedStateFile, String historyFile) {
+        if ((updatedStateFile == null) != (historyFile == null)) {
+            err.println("Updating saved results needs both the state file and the history file.");
+            exit(1);
+        }
+        this.updatedStateFile = updatedStateFile;
+        this.historyFile = historyFile;
+    }
+    
+    /** Sets the file to write a binary model of the frequent itemsets to, which ItemSetModel maps into memory to look up
+     * the support of an itemset without reading the rest. If null, no model is written. **/
+    public void setModelFile(String modelFile) {
+        this.modelFile = modelFile;
+    }
+    
+    /** Sets the file the Apriori engine writes the metrics of each level of its run to, as JSON if its name ends in
+     * ".json" or as CSV if it ends in ".csv". If null, no metrics are written. **/
+    public void setProfileFile(String profileFile) {
+        String name = (profileFile == null) ? null : profileFile.toLowerCase(Locale.ROOT);
+        if (name != null && !name.endsWith(".json") && !name.endsWith(".csv")) {
+            err.println("The profile file must end in .json or .csv.");
+            exit(1);
+        }
+        this.profileFile = profileFile;
+    }
+    
     /** Runs the apriori algorithm with the specified parameters.
      * Default values can be used for everything except the input file and minimum support.
      * @param inFile The input file containing the data the apriori algorithm will be run on.
      * @param delimiter The delimiter used in the input file to separate attributes. If null, a default value is used.
      * @param outFile The file to write the algorithm's output to. If null, a default value is used.
-     * @param minSup The absolute minimum support required for an itemset to be considered frequent.
+     * @param minSup The absolute minimum support required for an itemset to be considered frequent. Only the top-k engine
+     *               does without it, and then uses it only as a floor under the support of the itemsets it finds. An
+     *               update scales the one it was saved with instead.
      * @param maxBucketSize The maximum bucket size of bucket nodes in the generated hash trees. If null, a default value is used.
      * @param children The number of children per node in the generated hash trees. If null, a default value is used.
      */
     public void run(String inFile, String delimiter, String outFile, String minSup, String maxBucketSize, String children) {
-        if (minSup == null) {
+        if (minSup == null && !engine.equals(ENGINE_TOP_K) && updatedStateFile == null) {
             err.println("Minimum support must be specified for the Apriori algorithm.");
             exit(1);
         }
+        if (updatedStateFile != null && (minSup != null || !engine.equals(ENGINE_APRIORI) || outOfCore || profileFile != null)) {
+            err.println("Saved results are updated by the in-memory Apriori engine, with the minimum support they were saved with scaled.");
+            exit(1);
+        }
+        if (stateFile != null && !engine.equals(ENGINE_APRIORI)) {
+            err.println("Only the Apriori engine can save its results for updates.");
+            exit(1);
+        }
+        if (outOfCore && !engine.equals(ENGINE_APRIORI) && !engine.equals(ENGINE_PARTITION)) {
+            err.println("Only the Apriori and partition engines can run out of core.");
+            exit(1);
+        }
+        if (profileFile != null && !engine.equals(ENGINE_APRIORI)) {
+            err.println("Only the Apriori engine can write a profile.");
+            exit(1);
+        }
+        if (candidateStore.equals(Apriori.STORE_TRIE) && !engine.equals(ENGINE_APRIORI)) {
+            err.println("Only the Apriori engine can count candidates in a trie.");
+            exit(1);
+        }
+        if (!itemSetMode.equals(Eclat.ITEMSETS_ALL) && !engine.equals(ENGINE_ECLAT)) {
+            err.println("Only the Eclat engine can mine closed or maximal itemsets.");
+            exit(1);
+        }
+        if (engine.equals(ENGINE_STREAM) && rulesFile != null) {
+            err.println("Rules are not derived from the approximate counts of the stream engine.");
+            exit(1);
+        }
+        if (engine.equals(ENGINE_STREAM) && this.windowSize < WINDOW_PANES) {
+            err.println("The window must hold at least " + WINDOW_PANES + " baskets.");
+            exit(1);
+        }
+        if (!itemSetMode.equals(Eclat.ITEMSETS_ALL) && rulesFile != null) {
+            err.println("Rules can only be derived when every frequent itemset is mined.");
+            exit(1);
+        }
+        if (!itemSetMode.equals(Eclat.ITEMSETS_ALL) && modelFile != null) {
+            err.println("A model can only be written when every frequent itemset is mined.");
+            exit(1);
+        }
         
         try {
-            this.minSup = Integer.parseInt(minSup);
+            this.minSup = (minSup == null) ? 0 : Integer.parseInt(minSup);
             this.inputFile = inFile;
             this.delimiter = whichDelimiter(delimiter);
             this.outputFile = (outFile == null) ? OUTPUT_FILENAME_DEFAULT : outFile;
             this.maxBucketSize = (maxBucketSize == null) ? MAX_BUCKET_SIZE_DEFAULT : Integer.parseInt(maxBucketSize);
             this.childrenPerNode = (children == null) ? CHILDREN_DEFAULT : Integer.parseInt(children);
             
-            out.println("\nAPRIORI\n");
-            
-            out.print("Reading input... ");
-            this.readAprioriInput();
-            out.println("Done.");
+            out.println("\n" + engineTitle() + "\n");
             
-            out.println("Running Apriori algorithm...\n");
-            Apriori.getApriori().run(this.transactions, this.minSup, this.maxBucketSize, this.childrenPerNode);
-            out.println("...algorithm finished.");
+            if (outOfCore) {
+                out.print("Spilling input to disk... ");
+                TransactionSpill spill = this.spillAprioriInput();
+                this.numOfTransactions = spill.size();
+                out.println("Done.");
+                
+                out.println("Running " + engineName() + " algorithm out of core...\n");
+                this.miner = whichMiner();
+                try {
+                    if (this.miner instanceof PartitionMiner)
+                        ((PartitionMiner)this.miner).run(spill, this.minSup);
+                    else
+                        ((Apriori)this.miner).run(spill, this.minSup);
+                }
+                finally {
+                    spill.delete();
+                }
+                out.println("...algorithm finished.");
+                if (this.miner instanceof PartitionMiner)
+                    out.println(reportOf((PartitionMiner)this.miner));
+            } else if (engine.equals(ENGINE_STREAM)) {
+                out.println("Streaming baskets from " + (inputFile.equals(STANDARD_INPUT) ? "standard input" : "\"" + inputFile + "\"")
+                    + " through " + engineName() + " engine...\n");
+                StreamMiner streamMiner = (StreamMiner)whichMiner();
+                this.miner = streamMiner;
+                this.streamAprioriInput(streamMiner);
+                streamMiner.findFrequentItemSets(this.minSup);
+                this.numOfTransactions = streamMiner.getWindowSize();
+                out.println("...stream ended after " + streamMiner.getNumberOfBaskets() + " baskets.");
+                out.println(reportOf(streamMiner));
+            } else if (updatedStateFile != null) {
+                out.print("Reading saved results... ");
+                AprioriStateFile state = new AprioriStateFile(updatedStateFile);
+                out.println("Done.");
+                
+                out.print("Reading appended transactions... ");
+                this.readAprioriInput();
+                out.println("Done.");
+                
+                out.println("Updating " + engineName() + " results...\n");
+                Apriori apriori = (Apriori)whichMiner();
+                this.miner = apriori;
+                apriori.restore(state.getItemSets(), state.getNumberOfTransactions(), state.getMinimumSupport());
+                try {
+                    apriori.update(this.transactions, () -> {
+                        try {
+                            return readTransactions(historyFile);
+                        }
+                        catch (IOException e) { throw new UncheckedIOException(e); }
+                    });
+                }
+                catch (UncheckedIOException e) { throw e.getCause(); }
+                this.numOfTransactions = apriori.getNumberOfTransactions();
+                this.minSup = apriori.getMinimumSupport();
+                out.println("...update finished. The minimum support is now " + this.minSup + ", and the history was scanned "
+                    + apriori.getOriginalScans() + " times.");
+            } else {
+                out.print("Reading input... ");
+                this.readAprioriInput();
+                this.numOfTransactions = this.transactions.getTotalWeight();
+                out.println("Done.");
+                
+                out.println("Running " + engineName() + " algorithm...\n");
+                this.miner = whichMiner();
+                this.miner.run(this.transactions, this.minSup);
+                out.println("...algorithm finished.");
+                if (this.miner instanceof PartitionMiner)
+                    out.println(reportOf((PartitionMiner)this.miner));
+                if (this.miner instanceof SamplingMiner)
+                    out.println(reportOf((SamplingMiner)this.miner, this.transactions.getTotalWeight()));
+                if (this.miner instanceof TopKMiner)
+                    out.println("The least frequent itemset found has a support of " + ((TopKMiner)this.miner).getMinimumSupport() + ".");
+            }
             
             out.print("Writing to output file \"" + this.outputFile + "\"... ");
             this.writeOutput();
             out.println("Done.");
+            
+            if (this.modelFile != null) {
+                out.print("Writing model to \"" + this.modelFile + "\"... ");
+                int modelMinSup = (this.miner instanceof TopKMiner) ? ((TopKMiner)this.miner).getMinimumSupport() : this.minSup;
+                ItemSetModel.write(this.modelFile, this.miner.getAllFrequentItemSets(), this.numOfTransactions, modelMinSup);
+                out.println("Done.");
+            }
+            
+            if (this.stateFile != null) {
+                out.print("Saving results to \"" + this.stateFile + "\"... ");
+                Apriori apriori = (Apriori)this.miner;
+                AprioriStateFile.write(this.stateFile, apriori.getAllFrequentItemSets(), apriori.getNumberOfTransactions(), apriori.getMinimumSupport());
+                out.println("Done.");
+            }
+            
+            if (this.profileFile != null) {
+                out.print("Writing profile to \"" + this.profileFile + "\"... ");
+                this.writeProfile();
+                out.println("Done.");
+            }
+            
+            if (this.rulesFile != null) {
+                out.print("Generating association rules... ");
+                RuleGenerator ruleGenerator = RuleGenerator.getRuleGenerator();
+                ruleGenerator.setMinimumConfidence(this.minConfidence);
+                ruleGenerator.setNumberOfThreads(this.threads);
+                List<AssociationRule> rules = ruleGenerator.generate(this.miner.getAllFrequentItemSets(), this.numOfTransactions);
+                out.println(rules.size() + " rules.");
+                
+                out.print("Writing rules to \"" + this.rulesFile + "\"... ");
+                this.writeRules(rules);
+                out.println("Done.");
+            }
         }
         catch (NumberFormatException e) {
             err.println("Unable to parse integer. Make sure integer arguments are valid integers.");
@@ -95,36 +532,238 @@ public class AprioriSession {
         }
     }
     
-    /** Attempts to read from this.inputFile and generate the list of this.transactions.
+    /** Looks up the support of itemsets in the model of this.modelFile, which an earlier run wrote.
+     * @param inFile The file of the itemsets to look up, one per line, with items as in the input of a run.
+     * @param delimiter The delimiter used in the file to separate items. If null, a default value is used.
+     * @param outFile The file to write each itemset to, followed by a tab and its support, or by -1 if it is not among the
+     *                frequent itemsets of the model. If null, a default value is used.
+     */
+    public void lookUp(String inFile, String delimiter, String outFile) {
+        if (modelFile == null) {
+            err.println("Itemsets can only be looked up in a model file.");
+            exit(1);
+        }
+        
+        this.inputFile = inFile;
+        this.delimiter = whichDelimiter(delimiter);
+        this.outputFile = (outFile == null) ? LOOKUP_FILENAME_DEFAULT : outFile;
+        
+        try {
+            out.println("\nItemset Model Lookup\n");
+            
+            out.print("Mapping model \"" + this.modelFile + "\"... ");
+            ItemSetModel model = new ItemSetModel(this.modelFile);
+            out.println("Done. It holds the itemsets with a support of at least " + model.getMinimumSupport() + " in "
+                + model.getNumberOfTransactions() + " transactions.");
+            
+            out.print("Looking up itemsets of \"" + this.inputFile + "\"... ");
+            int[] found = this.lookUpItemSets(model);
+            out.println(found[1] + " of " + found[0] + " are frequent.");
+            out.println("Supports written to \"" + this.outputFile + "\".");
+        }
+        catch (FileNotFoundException e) {
+            err.println(e.getMessage());
+            exit(1);
+        }
+        catch (IOException e) {
+            err.println(e.getMessage());
+            exit(1);
+        }
+    }
+    
+    /** Writes each itemset of this.inputFile to this.outputFile with its support in the given model.
+     * @return The number of itemsets looked up, and the number of them that are frequent.
+     * @throws FileNotFoundException When this.inputFile cannot be found (invalid filename specified).
+     * @throws IOException When the output file cannot be written to for some reason. **/
+    private int[] lookUpItemSets(ItemSetModel model) throws IOException {
+        int[] found = new int[2];
+        Scanner fileScan;
+        BufferedWriter writer = null;
+        
+        try { fileScan = new Scanner(new BufferedReader(new FileReader(inputFile))); }
+        catch (FileNotFoundException e) { throw new FileNotFoundException(("Input file \"" + inputFile + "\" not found")); }
+        
+        try {
+            writer = new BufferedWriter(new FileWriter(outputFile));
+            
+            while (fileScan.hasNextLine()) {
+                List<Item> items = new ArrayList<Item>();
+                try (Scanner lineScan = new Scanner(fileScan.nextLine())) {
+                    lineScan.useDelimiter(delimiter);
+                    while (lineScan.hasNext()) {
+                        if (lineScan.hasNextInt())
+                            items.add(new IntegerItem(lineScan.nextInt()));
+                        else
+                            items.add(new StringItem(lineScan.next()));
+                    }
+                }
+                if (items.isEmpty())
+                    continue;
+                
+                int support = model.supportOf(items);
+                found[0]++;
+                if (support >= 0)
+                    found[1]++;
+                for (int i = 0; i < items.size(); i++) {
+                    if (i > 0)
+                        writer.write(' ');
+                    writer.write(items.get(i).toString());
+                }
+                writer.write('\t');
+                writer.write(Integer.toString(support));
+                writer.newLine();
+            }
+            return found;
+        }
+        catch (IOException e) { throw new IOException("Unable to write to output file \"" + outputFile + "\""); }
+        finally {
+            fileScan.close();
+            try { if (writer != null) writer.close(); }
+            catch (IOException e) { }
+        }
+    }
+    
+    /** Attempts to read from this.inputFile and generate this.transactions, encoding each item as it is read.
      * If the input file cannot be found, an exception is thrown.
-     * @throws FileNotFoundException When this.inputFile cannot be found (invalid filename specified).**/
-    private void readAprioriInput() throws FileNotFoundException {
+     * @throws FileNotFoundException When this.inputFile cannot be found (invalid filename specified).
+     * @throws IOException When this.inputFile cannot be read. **/
+    private void readAprioriInput() throws IOException {
+        transactions = readTransactions(inputFile);
+    }
+    
+    /** Attempts to read the transactions of the given file, encoding each item as it is read.
+     * Files with one of the common delimiters are memory-mapped and tokenized directly, on this.threads threads;
+     * only other (regular expression) delimiters are read with a Scanner.
+     * @throws FileNotFoundException When the file cannot be found (invalid filename specified).
+     * @throws IOException When the file cannot be read. **/
+    private TransactionDatabase readTransactions(String file) throws IOException {
+        TransactionFileReader reader = TransactionFileReader.forDelimiter(delimiter);
+        if (reader != null)
+            return reader.read(file, threads);
+        return scanAprioriInput(file, null);
+    }
+    
+    /** Reads the baskets of this.inputFile (or of standard input, if it is STANDARD_INPUT) one line at a time, splitting each
+     * line with the this.delimiter regular expression, and adds them to the given stream miner as they are read. Every
+     * this.reportInterval baskets, if it is not 0, the output file is rewritten with the frequent itemsets of the window.
+     * @throws FileNotFoundException When this.inputFile cannot be found (invalid filename specified).
+     * @throws IOException When the input cannot be read or the output file cannot be written. **/
+    private void streamAprioriInput(StreamMiner streamMiner) throws IOException {
+        Pattern splitter = Pattern.compile(delimiter);
+        BufferedReader reader = null;
+        
+        try {
+            reader = inputFile.equals(STANDARD_INPUT) ? new BufferedReader(new InputStreamReader(in))
+                : new BufferedReader(new FileReader(inputFile));
+            
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ItemSet items = new ItemSet();
+                for (String token : splitter.split(line)) {
+                    if (token.isEmpty())
+                        continue;
+                    try {
+                        items.add(new IntegerItem(Integer.parseInt(token)));
+                    }
+                    catch (NumberFormatException e) { items.add(new StringItem(token)); }
+                }
+                streamMiner.addBasket(items);
+                
+                if (reportInterval > 0 && streamMiner.getNumberOfBaskets() % reportInterval == 0) {
+                    streamMiner.findFrequentItemSets(this.minSup);
+                    this.writeOutput();
+                    out.println("After " + streamMiner.getNumberOfBaskets() + " baskets: " + reportOf(streamMiner));
+                }
+            }
+        }
+        catch (FileNotFoundException e) { throw new FileNotFoundException(("Input file \"" + inputFile + "\" not found")); }
+        finally {
+            if (reader != null)
+                reader.close();
+        }
+    }
+    
+    /** @return A summary of the frequent itemsets last found by the given stream miner, and of how far their counts may be off. **/
+    private static String reportOf(StreamMiner streamMiner) {
+        return streamMiner.getAllFrequentItemSets().size() + " frequent itemsets in a window of " + streamMiner.getWindowSize()
+            + " baskets, with counts at most " + streamMiner.getMaximumError() + " too low.";
+    }
+    
+    /** @return A summary of the global candidates the partitions of the given partition engine's last run gave. **/
+    private static String reportOf(PartitionMiner partitionMiner) {
+        return "Mined " + partitionMiner.getNumberOfPartitionsMined() + " partitions: " + partitionMiner.getNumberOfGlobalCandidates()
+            + " global candidates of up to " + partitionMiner.getMaxCandidateLength() + " items.";
+    }
+    
+    /** @return A summary of the sample of the given sampling engine's last run, out of the given number of transactions,
+     * and of whether its result is exact. **/
+    private static String reportOf(SamplingMiner samplingMiner, int numOfTransactions) {
+        String report = "Sampled " + samplingMiner.getNumberOfSampledTransactions() + " of " + numOfTransactions
+            + " transactions at a support of " + samplingMiner.getSampleMinimumSupport() + ": "
+            + samplingMiner.getNumberOfFrequentInSample() + " itemsets frequent in the sample, "
+            + samplingMiner.getNumberOfBorderItemSets() + " in their negative border.\n";
+        if (samplingMiner.isExact())
+            return report + "The result is exact: no itemset of the negative border is frequent.";
+        return report + "The result may be incomplete: " + samplingMiner.getMissedItemSets().size()
+            + " itemsets of the negative border are frequent, so a second pass is needed.";
+    }
+    
+    /** Attempts to read from this.inputFile and write its transactions to a spill file, without holding them all in memory.
+     * @return The spilled transactions.
+     * @throws FileNotFoundException When this.inputFile cannot be found (invalid filename specified).
+     * @throws IOException When this.inputFile cannot be read or the spill file cannot be written. **/
+    private TransactionSpill spillAprioriInput() throws IOException {
+        TransactionSpill.Writer writer = new TransactionSpill.Writer();
+        TransactionFileReader reader = TransactionFileReader.forDelimiter(delimiter);
+        if (reader != null)
+            reader.spill(inputFile, writer, threads);
+        else
+            scanAprioriInput(inputFile, writer);
+        return writer.finish();
+    }
+    
+    /** Reads the given file with a Scanner, splitting each line with the this.delimiter regular expression.
+     * @param spill If null, the transactions read are returned. Otherwise, they are written to this spill in batches,
+     *        as they are read, and null is returned.
+     * @throws FileNotFoundException When the file cannot be found (invalid filename specified).
+     * @throws IOException When the transactions cannot be written to the spill. **/
+    private TransactionDatabase scanAprioriInput(String file, TransactionSpill.Writer spill) throws IOException {
         Scanner fileScan = null;
         Scanner lineScan = null;
-        ItemSet itemSet;
+        TransactionDatabase.Builder builder;
         
         try {
         
-            transactions = new HashSet<ItemSet>();
-            fileScan = new Scanner(new BufferedReader(new FileReader(inputFile)));
+            builder = new TransactionDatabase.Builder();
+            fileScan = new Scanner(new BufferedReader(new FileReader(file)));
             
             while (fileScan.hasNextLine()) {
-                itemSet = new ItemSet();
                 lineScan = new Scanner(fileScan.nextLine());
                 lineScan.useDelimiter(delimiter);
                 
                 while (lineScan.hasNext()) {
                     if (lineScan.hasNextInt())
-                        itemSet.add(new IntegerItem(lineScan.nextInt()));
+                        builder.addItem(new IntegerItem(lineScan.nextInt()));
                     else
-                        itemSet.add(new StringItem(lineScan.next()));
+                        builder.addItem(new StringItem(lineScan.next()));
                 }
                 
-                transactions.add(itemSet);
+                builder.endTransaction();
                 lineScan.close();
+                
+                if (spill != null && builder.size() == SCANNED_TRANSACTIONS_PER_SPILL) {
+                    spill.addTransactions(builder);
+                    builder = new TransactionDatabase.Builder();
+                }
             }
+            
+            if (spill != null) {
+                spill.addTransactions(builder);
+                return null;
+            }
+            return builder.build();
         }
-        catch (FileNotFoundException e) { throw new FileNotFoundException(("Input file \"" + inputFile + "\" not found")); }
+        catch (FileNotFoundException e) { throw new FileNotFoundException(("Input file \"" + file + "\" not found")); }
         finally {
             if (fileScan != null)
                 fileScan.close();
@@ -133,28 +772,228 @@ public class AprioriSession {
         }
     }
 
-    /** Attempts to write the algorithm's output to this.outputFile.
+    /** Attempts to write the algorithm's output to this.outputFile, in this.outputFormat. The itemsets are written as
+     * the hash trees or prefix tries holding them are traversed.
      * @throws IOException When the output file cannot be written to for some reason. **/
     private void writeOutput() throws IOException {
-        BufferedWriter writer = null;
+        ItemSetFileWriter writer = null;
         try {
-            writer = new BufferedWriter(new FileWriter(outputFile));
-            writer.write(String.format("APRIORI"));
-            writer.newLine();
-            writer.newLine();
+            writer = new ItemSetFileWriter(outputFile, outputFormat);
+            writer.writeTitle(engineTitle());
             
-            for (HashTree tree : Apriori.getApriori().getHashTrees()) {
-                writer.write(tree.toString());
+            for (CandidateStore level : outputLevels())
+                writer.write(level);
+        }
+        catch (IOException e) { throw new IOException("Unable to write to output file \"" + outputFile + "\""); }
+        finally {
+            try { if (writer != null) writer.close(); }
+            catch (IOException e) { }
+        }
+    }
+    
+    /** Attempts to write the given association rules to this.rulesFile, one per line.
+     * @throws IOException When the rules file cannot be written to for some reason. **/
+    private void writeRules(List<AssociationRule> rules) throws IOException {
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(rulesFile));
+            for (AssociationRule rule : rules) {
+                writer.write(rule.toString());
                 writer.newLine();
             }
         }
-        catch (IOException e) { throw new IOException("Unable to write to output file \"" + outputFile + "\""); }
+        catch (IOException e) { throw new IOException("Unable to write to rules file \"" + rulesFile + "\""); }
+        finally {
+            try { if (writer != null) writer.close(); }
+            catch (IOException e) { }
+        }
+    }
+    
+    /** Attempts to write the metrics of each level of the Apriori run to this.profileFile, as JSON or CSV depending on its
+     * extension. The parameters of the run are written with them (in every row of a CSV file), so that the metrics of runs
+     * with different parameters can be put side by side.
+     * @throws IOException When the profile file cannot be written to for some reason. **/
+    private void writeProfile() throws IOException {
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("minSupport", this.minSup);
+        parameters.put("maxBucketSize", this.maxBucketSize);
+        parameters.put("childrenPerNode", this.childrenPerNode);
+        parameters.put("threads", this.threads);
+        parameters.put("countingMode", this.countingMode);
+        parameters.put("candidateStore", this.candidateStore);
+        parameters.put("outOfCore", this.outOfCore);
+        List<LevelProfile> levels = ((Apriori)this.miner).getProfiles();
+        
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(profileFile));
+            if (profileFile.toLowerCase(Locale.ROOT).endsWith(".json"))
+                writeProfileJson(writer, parameters, levels);
+            else
+                writeProfileCsv(writer, parameters, levels);
+        }
+        catch (IOException e) { throw new IOException("Unable to write to profile file \"" + profileFile + "\""); }
         finally {
             try { if (writer != null) writer.close(); }
             catch (IOException e) { }
         }
     }
     
+    /** Writes the given parameters as the fields of a JSON object, followed by a "levels" array of the given levels' metrics. **/
+    private static void writeProfileJson(BufferedWriter writer, Map<String, Object> parameters, List<LevelProfile> levels) throws IOException {
+        writer.write("{");
+        writer.newLine();
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            writer.write("  \"" + parameter.getKey() + "\": " + formatValue(parameter.getValue(), true) + ",");
+            writer.newLine();
+        }
+        writer.write("  \"levels\": [");
+        writer.newLine();
+        for (int i = 0; i < levels.size(); i++) {
+            List<String> fields = new ArrayList<String>();
+            for (Map.Entry<String, Object> metric : levels.get(i).toMap().entrySet())
+                fields.add("\"" + metric.getKey() + "\": " + formatValue(metric.getValue(), true));
+            writer.write("    {" + String.join(", ", fields) + "}" + ((i < levels.size()-1) ? "," : ""));
+            writer.newLine();
+        }
+        writer.write("  ]");
+        writer.newLine();
+        writer.write("}");
+        writer.newLine();
+    }
+    
+    /** Writes a CSV header, then a row for each of the given levels, holding the given parameters and the level's metrics. **/
+    private static void writeProfileCsv(BufferedWriter writer, Map<String, Object> parameters, List<LevelProfile> levels) throws IOException {
+        List<String> header = new ArrayList<String>(parameters.keySet());
+        if (!levels.isEmpty())
+            header.addAll(levels.get(0).toMap().keySet());
+        writer.write(String.join(",", header));
+        writer.newLine();
+        
+        for (LevelProfile level : levels) {
+            List<String> row = new ArrayList<String>();
+            for (Object value : parameters.values())
+                row.add(formatValue(value, false));
+            for (Object value : level.toMap().values())
+                row.add(formatValue(value, false));
+            writer.write(String.join(",", row));
+            writer.newLine();
+        }
+    }
+    
+    /** @return The given metric or parameter as written to a profile: decimals to three places, and strings in quotes if
+     * quoteStrings is true. **/
+    private static String formatValue(Object value, boolean quoteStrings) {
+        if (value instanceof Double)
+            return String.format(Locale.ROOT, "%.3f", (Double)value);
+        if (value instanceof String && quoteStrings)
+            return "\"" + value + "\"";
+        return String.valueOf(value);
+    }
+    
+    /** Parses an integer argument that must be positive. If it is not, an error message is printed and the program exits.
+     * @param name What the argument is, for the error message.
+     * @return The parsed integer. **/
+    private static int parsePositiveInt(String value, String name) {
+        int result = 0;
+        try {
+            result = Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            err.println("Unable to parse integer. Make sure integer arguments are valid integers.");
+            exit(1);
+        }
+        if (result < 1) {
+            err.println("The " + name + " must be a positive integer.");
+            exit(1);
+        }
+        return result;
+    }
+    
+    /** @return The miner for this.engine, set up with this session's parameters. **/
+    private FrequentItemSetMiner whichMiner() {
+        if (engine.equals(ENGINE_FP_GROWTH))
+            return FPGrowth.getFPGrowth();
+        if (engine.equals(ENGINE_ECLAT)) {
+            Eclat.getEclat().setUseDiffsets(this.diffsets);
+            Eclat.getEclat().setItemSetMode(this.itemSetMode);
+            return Eclat.getEclat();
+        }
+        if (engine.equals(ENGINE_PARTITION)) {
+            PartitionMiner partitionMiner = PartitionMiner.getPartitionMiner();
+            partitionMiner.setNumberOfPartitions(this.partitions);
+            partitionMiner.setNumberOfThreads(this.threads);
+            partitionMiner.setHashTreeParameters(this.maxBucketSize, this.childrenPerNode);
+            return partitionMiner;
+        }
+        if (engine.equals(ENGINE_TOP_K)) {
+            TopKMiner topKMiner = TopKMiner.getTopKMiner();
+            topKMiner.setK(this.topK);
+            topKMiner.setMaxLength(this.maxLength);
+            return topKMiner;
+        }
+        if (engine.equals(ENGINE_STREAM)) {
+            StreamMiner streamMiner = StreamMiner.getStreamMiner();
+            streamMiner.setWindow(this.windowSize, WINDOW_PANES);
+            streamMiner.setError(this.streamError);
+            streamMiner.setMaxLength((this.maxLength == 0) ? STREAM_MAX_LENGTH_DEFAULT : this.maxLength);
+            return streamMiner;
+        }
+        if (engine.equals(ENGINE_SAMPLING)) {
+            SamplingMiner samplingMiner = SamplingMiner.getSamplingMiner();
+            samplingMiner.setSampleSize(this.sampleSize);
+            samplingMiner.setSupportSlack(this.supportSlack);
+            samplingMiner.setNumberOfThreads(this.threads);
+            samplingMiner.setHashTreeParameters(this.maxBucketSize, this.childrenPerNode);
+            return samplingMiner;
+        }
+        
+        Apriori apriori = Apriori.getApriori();
+        apriori.setNumberOfThreads(this.threads);
+        apriori.setHashTreeParameters(this.maxBucketSize, this.childrenPerNode);
+        apriori.setCountingMode(this.countingMode);
+        apriori.setCandidateStore(this.candidateStore);
+        apriori.setCandidateMemoryBudget(this.candidateMemoryBudget);
+        return apriori;
+    }
+    
+    /** @return The name of this.engine, as used in progress messages. **/
+    private String engineName() {
+        if (engine.equals(ENGINE_FP_GROWTH))
+            return "FP-growth";
+        if (engine.equals(ENGINE_ECLAT))
+            return "Eclat";
+        if (engine.equals(ENGINE_PARTITION))
+            return "Partition";
+        if (engine.equals(ENGINE_SAMPLING))
+            return "Sampling";
+        if (engine.equals(ENGINE_TOP_K))
+            return "Top-k";
+        if (engine.equals(ENGINE_STREAM))
+            return "Stream";
+        return "Apriori";
+    }
+    
+    /** @return The title of this.engine, as used in the output file. **/
+    private String engineTitle() {
+        if (!itemSetMode.equals(Eclat.ITEMSETS_ALL))
+            return engineName().toUpperCase() + " (" + itemSetMode.toUpperCase() + " ITEMSETS)";
+        return engineName().toUpperCase();
+    }
+    
+    /** @return The hash trees or prefix tries of frequent itemsets to write to the output file. Engines other than Apriori, partition
+     * and sampling do not build either, so their frequent itemsets are grouped by length into hash trees here, to be written the same way. **/
+    private List<? extends CandidateStore> outputLevels() {
+        if (miner instanceof Apriori)
+            return ((Apriori)miner).getLevels();
+        if (miner instanceof PartitionMiner)
+            return ((PartitionMiner)miner).getHashTrees();
+        if (miner instanceof SamplingMiner)
+            return ((SamplingMiner)miner).getHashTrees();
+        
+        return HashTree.groupByLength(miner.getAllFrequentItemSets(), this.minSup, this.maxBucketSize, this.childrenPerNode);
+    }
+    
     /** Converts a simple delimiter string such as "|" into a regular expression that ignores surrounding spaces.
      * Special values ("comma", "space", and "tab") are converted to their intended delimiters.
      * If delimiter is null, a default value is used.
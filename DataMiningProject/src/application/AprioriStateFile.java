@@ -0,0 +1,96 @@
+package application;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import domain.apriori.Item;
+import domain.apriori.ItemSet;
+
+/*
+ * The results of an Apriori run saved so that a later session can update
+ * them for appended transactions, with Apriori.restore and Apriori.update,
+ * instead of mining every transaction again.
+ *
+ * The file holds big-endian fields after the magic number "AST1": the total
+ * weight of the transactions the itemsets were found in, the minimum support
+ * they were found with, a dictionary of their items, the number of itemsets,
+ * and then each itemset, with the dictionary and itemsets encoded as
+ * ItemSetCodec does.
+ */
+final class AprioriStateFile {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAGIC = 0x41535431; // "AST1"
+
+    private final List<ItemSet> itemSets;
+    private final int numOfTransactions;
+    private final int minSupport;
+
+    /** Reads the state saved in the given file.
+     * @throws FileNotFoundException When the file does not exist.
+     * @throws IOException When the file cannot be read or is not a state file. **/
+    AprioriStateFile(String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), BUFFER_BYTES))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("\"" + fileName + "\" is not an Apriori state file");
+            this.numOfTransactions = in.readInt();
+            this.minSupport = in.readInt();
+
+            Item[] items = ItemSetCodec.readDictionary(in);
+            int numOfItemSets = in.readInt();
+            this.itemSets = new ArrayList<ItemSet>(numOfItemSets);
+            for (int i = 0; i < numOfItemSets; i++)
+                itemSets.add(ItemSetCodec.readItemSet(in, items));
+        }
+        catch (FileNotFoundException e) { throw new FileNotFoundException("State file \"" + fileName + "\" not found"); }
+        catch (EOFException e) { throw new IOException("State file \"" + fileName + "\" is truncated"); }
+    }
+
+    /** @return The saved itemsets, made of decoded items, with their supports. **/
+    List<ItemSet> getItemSets() {
+        return itemSets;
+    }
+
+    /** @return The total weight of the transactions the saved itemsets were found in. **/
+    int getNumberOfTransactions() {
+        return numOfTransactions;
+    }
+
+    /** @return The minimum support the saved itemsets were found with. **/
+    int getMinimumSupport() {
+        return minSupport;
+    }
+
+    /** Writes the given frequent itemsets to the given file as a state, replacing any file there.
+     * @throws IOException When the file cannot be written. **/
+    static void write(String fileName, List<ItemSet> itemSets, int numOfTransactions, int minSupport) throws IOException {
+        Map<Item, Integer> itemIds = new HashMap<Item, Integer>();
+        List<Item> items = new ArrayList<Item>();
+        for (ItemSet itemSet : itemSets)
+            for (Item item : itemSet)
+                if (itemIds.putIfAbsent(item.getDecodedItem(), items.size()) == null)
+                    items.add(item.getDecodedItem());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeInt(numOfTransactions);
+            out.writeInt(minSupport);
+
+            ItemSetCodec.writeDictionary(out, items);
+            out.writeInt(itemSets.size());
+            for (ItemSet itemSet : itemSets)
+                ItemSetCodec.writeItemSet(out, itemSet, itemIds);
+        }
+    }
+
+}
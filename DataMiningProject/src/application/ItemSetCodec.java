@@ -0,0 +1,86 @@
+package application;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import domain.apriori.IntegerItem;
+import domain.apriori.Item;
+import domain.apriori.ItemSet;
+import domain.apriori.StringItem;
+
+/*
+ * The encoding of items and itemsets shared by the binary files of frequent
+ * itemsets: the binary output format, saved Apriori states and itemset
+ * models. All fields are big-endian, as DataOutput writes them.
+ *
+ * An item is a byte of its Item ID type, then its ID as an int, or as an
+ * int length and that many bytes of UTF-8. Items are always written decoded.
+ * A dictionary is an int number of items, then each item; the index of an
+ * item in the dictionary is its code. An itemset is an int support, an int
+ * length, then the codes of that many items.
+ */
+final class ItemSetCodec {
+
+    private ItemSetCodec() {
+    }
+
+    /** Writes the given item, decoded. **/
+    static void writeItem(DataOutput out, Item item) throws IOException {
+        Item decoded = item.getDecodedItem();
+        out.writeByte(decoded.getIdType());
+        if (decoded.getIdType() == Item.ID_TYPE_INTEGER)
+            out.writeInt((Integer)decoded.getID());
+        else {
+            byte[] name = ((String)decoded.getID()).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(name.length);
+            out.write(name);
+        }
+    }
+
+    /** @return The next item of the given input. **/
+    static Item readItem(DataInput in) throws IOException {
+        if (in.readByte() == Item.ID_TYPE_INTEGER)
+            return new IntegerItem(in.readInt());
+        byte[] name = new byte[in.readInt()];
+        in.readFully(name);
+        return new StringItem(new String(name, StandardCharsets.UTF_8));
+    }
+
+    /** Writes a dictionary of the given items, whose codes are their positions in it. **/
+    static void writeDictionary(DataOutput out, Collection<Item> items) throws IOException {
+        out.writeInt(items.size());
+        for (Item item : items)
+            writeItem(out, item);
+    }
+
+    /** @return The items of the next dictionary of the given input, indexed by code. **/
+    static Item[] readDictionary(DataInput in) throws IOException {
+        Item[] items = new Item[in.readInt()];
+        for (int code = 0; code < items.length; code++)
+            items[code] = readItem(in);
+        return items;
+    }
+
+    /** Writes the given itemset, with its items as their codes in the given map of decoded items to codes. **/
+    static void writeItemSet(DataOutput out, ItemSet itemSet, Map<Item, Integer> codes) throws IOException {
+        out.writeInt(itemSet.getFrequency());
+        out.writeInt(itemSet.size());
+        for (Item item : itemSet)
+            out.writeInt(codes.get(item.getDecodedItem()));
+    }
+
+    /** @return The next itemset of the given input, with its support, made of the given items indexed by code. **/
+    static ItemSet readItemSet(DataInput in, Item[] items) throws IOException {
+        ItemSet itemSet = new ItemSet();
+        itemSet.incFrequency(in.readInt());
+        int length = in.readInt();
+        for (int i = 0; i < length; i++)
+            itemSet.add(items[in.readInt()]);
+        return itemSet;
+    }
+
+}
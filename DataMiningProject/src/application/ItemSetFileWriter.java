@@ -0,0 +1,135 @@
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import domain.apriori.CandidateStore;
+import domain.apriori.Item;
+import domain.apriori.ItemSet;
+
+/*
+ * Writes frequent itemsets to a file as the hash trees or prefix tries
+ * holding them are traversed, through a buffered stream, so a result is
+ * never built up in memory as a string. There are three formats:
+ *
+ * FORMAT_TREE writes every store of itemsets, after a title, as its
+ * toString() shows it: a hash tree as a drawing, a prefix trie as a list.
+ *
+ * FORMAT_FLAT writes one itemset per line: its items separated by spaces,
+ * a tab, and its support.
+ *
+ * FORMAT_BINARY writes big-endian records after the magic number "FIS1".
+ * An item record (a byte of 1, an int ID, then the item) defines the ID of
+ * an item before the first itemset that has it. An itemset record (a byte
+ * of 2, then the itemset, with the IDs of its items) follows. Items and
+ * itemsets are encoded as ItemSetCodec does. A byte of 0 ends the file.
+ */
+final class ItemSetFileWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int BINARY_MAGIC = 0x46495331; // "FIS1"
+    private static final int RECORD_END = 0;
+    private static final int RECORD_ITEM = 1;
+    private static final int RECORD_ITEMSET = 2;
+
+    private final String format;
+    private final Writer text; // null for FORMAT_BINARY
+    private final DataOutputStream binary; // null for the text formats
+    private final Map<Item, Integer> itemIds = new HashMap<Item, Integer>(); // the IDs of the decoded items defined so far, for FORMAT_BINARY
+
+    /** Opens the given file for writing itemsets in the given format, replacing any file there.
+     * @param format AprioriSession.FORMAT_TREE, AprioriSession.FORMAT_FLAT or AprioriSession.FORMAT_BINARY.
+     * @throws IOException When the file cannot be opened for writing. **/
+    ItemSetFileWriter(String fileName, String format) throws IOException {
+        if (!format.equals(AprioriSession.FORMAT_TREE) && !format.equals(AprioriSession.FORMAT_FLAT)
+                && !format.equals(AprioriSession.FORMAT_BINARY))
+            throw new IllegalArgumentException("Unrecognized output format: " + format);
+        this.format = format;
+
+        FileOutputStream file = new FileOutputStream(fileName);
+        if (format.equals(AprioriSession.FORMAT_BINARY)) {
+            this.text = null;
+            this.binary = new DataOutputStream(new BufferedOutputStream(file, BUFFER_BYTES));
+            this.binary.writeInt(BINARY_MAGIC);
+        } else {
+            this.text = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8), BUFFER_BYTES);
+            this.binary = null;
+        }
+    }
+
+    /** Writes the given title, followed by a blank line, if the format has one. Only FORMAT_TREE does. **/
+    void writeTitle(String title) throws IOException {
+        if (format.equals(AprioriSession.FORMAT_TREE))
+            text.append(title).append(System.lineSeparator()).append(System.lineSeparator());
+    }
+
+    /** Writes the itemsets of the given store, while traversing it. **/
+    void write(CandidateStore level) throws IOException {
+        if (format.equals(AprioriSession.FORMAT_TREE)) {
+            level.writeTree(text);
+            text.append(System.lineSeparator());
+            return;
+        }
+
+        try {
+            level.forEachItemSet((ItemSet itemSet) -> {
+                try {
+                    if (binary != null)
+                        writeBinary(itemSet);
+                    else
+                        writeFlat(itemSet);
+                }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+        }
+        catch (UncheckedIOException e) { throw e.getCause(); }
+    }
+
+    /** Ends the file and closes it. **/
+    @Override
+    public void close() throws IOException {
+        if (binary != null) {
+            binary.writeByte(RECORD_END);
+            binary.close();
+        } else
+            text.close();
+    }
+
+    /** Writes an itemset as a line of its items, a tab and its support. **/
+    private void writeFlat(ItemSet itemSet) throws IOException {
+        boolean first = true;
+        for (Item item : itemSet) {
+            if (!first)
+                text.append(' ');
+            text.append(item.toString());
+            first = false;
+        }
+        text.append('\t').append(String.valueOf(itemSet.getFrequency())).append(System.lineSeparator());
+    }
+
+    /** Writes an itemset record, after a record defining each of its items that has not been written before. **/
+    private void writeBinary(ItemSet itemSet) throws IOException {
+        for (Item item : itemSet) {
+            if (!itemIds.containsKey(item.getDecodedItem())) {
+                int id = itemIds.size();
+                itemIds.put(item.getDecodedItem(), id);
+                binary.writeByte(RECORD_ITEM);
+                binary.writeInt(id);
+                ItemSetCodec.writeItem(binary, item);
+            }
+        }
+
+        binary.writeByte(RECORD_ITEMSET);
+        ItemSetCodec.writeItemSet(binary, itemSet, itemIds);
+    }
+
+}
@@ -0,0 +1,256 @@
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import domain.apriori.Item;
+import domain.apriori.ItemSet;
+
+/*
+ * A model of frequent itemsets in a binary file that is memory-mapped
+ * rather than read, so that the support of an itemset can be looked up as
+ * soon as the file is opened. Only the item dictionary is read into memory;
+ * the itemsets are searched where they lie in the file.
+ *
+ * The file holds big-endian fields after the magic number "FIM1": the total
+ * weight of the transactions the itemsets were found in, the minimum support
+ * they were found with, and a dictionary of the items in item order, encoded
+ * as ItemSetCodec does, whose codes the itemsets are made of. The maximum length of an itemset and the number of itemsets of
+ * each length from 1 to it follow, then zeros up to a multiple of 4 bytes.
+ *
+ * Then, for each length k from 1 to the maximum, come the k-itemsets as
+ * k codes each, in ascending order, with the itemsets in lexicographic
+ * order of their codes, followed by an int array of their supports in the
+ * same order. An itemset is found by a binary search over the itemsets of
+ * its length, which are mapped separately, so none may take more than 2 GB.
+ */
+public final class ItemSetModel {
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int MAGIC = 0x46494D31; // "FIM1"
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+
+    private final int numOfTransactions;
+    private final int minSupport;
+    private final Map<Item, Integer> codes; // the code of each item of the dictionary
+    private final IntBuffer[] itemSets; // the codes of the k-itemsets are at index k
+    private final IntBuffer[] supports; // the supports of the k-itemsets are at index k
+
+    /** Maps the model in the given file into memory, reading only its item dictionary.
+     * @throws FileNotFoundException When the file does not exist.
+     * @throws IOException When the file cannot be mapped or is not a model file. **/
+    public ItemSetModel(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, MAX_MAPPED_BYTES));
+            if (header.limit() < 4 || header.getInt() != MAGIC)
+                throw new IOException("\"" + fileName + "\" is not an itemset model file");
+            this.numOfTransactions = header.getInt();
+            this.minSupport = header.getInt();
+
+            Item[] items = ItemSetCodec.readDictionary(new DataInputStream(new BufferInputStream(header)));
+            this.codes = new HashMap<Item, Integer>(2*items.length);
+            for (int code = 0; code < items.length; code++)
+                codes.put(items[code], code);
+
+            int maxLength = header.getInt();
+            int[] counts = new int[maxLength+1];
+            for (int k = 1; k <= maxLength; k++)
+                counts[k] = header.getInt();
+
+            this.itemSets = new IntBuffer[maxLength+1];
+            this.supports = new IntBuffer[maxLength+1];
+            long position = (header.position() + 3) & ~3L;
+            for (int k = 1; k <= maxLength; k++) {
+                long itemSetBytes = 4L * k * counts[k];
+                if (itemSetBytes > MAX_MAPPED_BYTES)
+                    throw new IOException("The " + k + "-itemsets of \"" + fileName + "\" are too large to be mapped");
+                if (position + itemSetBytes + 4L*counts[k] > fileSize)
+                    throw new IOException("Model file \"" + fileName + "\" is truncated");
+                itemSets[k] = channel.map(FileChannel.MapMode.READ_ONLY, position, itemSetBytes).asIntBuffer();
+                position += itemSetBytes;
+                supports[k] = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*counts[k]).asIntBuffer();
+                position += 4L*counts[k];
+            }
+        }
+        catch (NoSuchFileException e) { throw new FileNotFoundException("Model file \"" + fileName + "\" not found"); }
+        catch (BufferUnderflowException | EOFException e) { throw new IOException("Model file \"" + fileName + "\" is truncated"); }
+    }
+
+    /** @return The total weight of the transactions the itemsets of this model were found in. **/
+    public int getNumberOfTransactions() {
+        return numOfTransactions;
+    }
+
+    /** @return The minimum support the itemsets of this model were found with. **/
+    public int getMinimumSupport() {
+        return minSupport;
+    }
+
+    /** @return The number of items of the longest itemset of this model. **/
+    public int getMaxLength() {
+        return itemSets.length-1;
+    }
+
+    /** @return The number of itemsets of this model with the given number of items. **/
+    public int getNumberOfItemSets(int length) {
+        return (length >= 1 && length < supports.length) ? supports[length].limit() : 0;
+    }
+
+    /** @return The support of the itemset of the given (decoded) items, or -1 if it is not among the frequent itemsets of
+     * this model. Repeated items are counted once. **/
+    public int supportOf(Collection<? extends Item> items) {
+        int[] itemSet = new int[items.size()];
+        int length = 0;
+        for (Item item : items) {
+            Integer code = codes.get(item.getDecodedItem());
+            if (code == null)
+                return -1;
+            itemSet[length++] = code;
+        }
+        Arrays.sort(itemSet);
+        length = (itemSet.length == 0) ? 0 : 1;
+        for (int i = 1; i < itemSet.length; i++)
+            if (itemSet[i] != itemSet[length-1])
+                itemSet[length++] = itemSet[i];
+
+        if (length == 0 || length >= supports.length)
+            return -1;
+        int index = find(itemSets[length], supports[length].limit(), itemSet, length);
+        return (index < 0) ? -1 : supports[length].get(index);
+    }
+
+    /** @return The index of the first k of the given codes among the given sorted k-itemsets, or -1 if they are not there. **/
+    private static int find(IntBuffer itemSets, int count, int[] itemSet, int k) {
+        int low = 0;
+        int high = count-1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(itemSets, middle*k, itemSet, k);
+            if (comparison < 0)
+                low = middle+1;
+            else if (comparison > 0)
+                high = middle-1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /** Compares the k-itemset whose codes start at the given index of the given itemsets to the first k of the given codes,
+     * lexicographically. **/
+    private static int compare(IntBuffer itemSets, int start, int[] itemSet, int k) {
+        for (int j = 0; j < k; j++) {
+            int code = itemSets.get(start + j);
+            if (code != itemSet[j])
+                return Integer.compare(code, itemSet[j]);
+        }
+        return 0;
+    }
+
+    /** Writes the given frequent itemsets to the given file as a model, replacing any file there.
+     * @throws IOException When the file cannot be written. **/
+    static void write(String fileName, List<ItemSet> frequentItemSets, int numOfTransactions, int minSupport) throws IOException {
+        // the dictionary holds the decoded items in item order, whatever order the miner encoded them in
+        TreeSet<Item> sortedItems = new TreeSet<Item>();
+        for (ItemSet itemSet : frequentItemSets)
+            for (Item item : itemSet)
+                sortedItems.add(item.getDecodedItem());
+        Map<Item, Integer> codes = new HashMap<Item, Integer>(2*sortedItems.size());
+        for (Item item : sortedItems)
+            codes.put(item, codes.size());
+
+        // each itemset is its sorted codes followed by its support
+        List<List<int[]>> byLength = new ArrayList<List<int[]>>();
+        for (ItemSet itemSet : frequentItemSets) {
+            int k = itemSet.size();
+            int[] row = new int[k+1];
+            int i = 0;
+            for (Item item : itemSet)
+                row[i++] = codes.get(item.getDecodedItem());
+            Arrays.sort(row, 0, k);
+            row[k] = itemSet.getFrequency();
+            while (byLength.size() <= k)
+                byLength.add(new ArrayList<int[]>());
+            byLength.get(k).add(row);
+        }
+        for (int k = 1; k < byLength.size(); k++)
+            byLength.get(k).sort(ItemSetModel::compareRows);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_BYTES))) {
+            out.writeInt(MAGIC);
+            out.writeInt(numOfTransactions);
+            out.writeInt(minSupport);
+
+            ItemSetCodec.writeDictionary(out, sortedItems);
+
+            int maxLength = Math.max(0, byLength.size()-1);
+            out.writeInt(maxLength);
+            for (int k = 1; k <= maxLength; k++)
+                out.writeInt(byLength.get(k).size());
+            while (out.size() % 4 != 0)
+                out.writeByte(0);
+
+            for (int k = 1; k <= maxLength; k++) {
+                for (int[] row : byLength.get(k))
+                    for (int i = 0; i < k; i++)
+                        out.writeInt(row[i]);
+                for (int[] row : byLength.get(k))
+                    out.writeInt(row[k]);
+            }
+        }
+    }
+
+    /** Compares the codes of two itemsets of the same length, each followed by its support, lexicographically. **/
+    private static int compareRows(int[] a, int[] b) {
+        for (int i = 0; i < a.length-1; i++)
+            if (a[i] != b[i])
+                return Integer.compare(a[i], b[i]);
+        return 0;
+    }
+
+    /** The remaining bytes of a buffer as an input stream, which leaves the buffer positioned after the bytes read. **/
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+package application;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import domain.apriori.StringItem;
+import domain.apriori.TransactionDatabase;
+import domain.apriori.TransactionSpill;
+
+/*
+ * Reads a transaction file (one transaction per line) by memory-mapping it
+ * and tokenizing its bytes directly, instead of going through a Scanner and
+ * a regular expression for every line. Integer items are parsed straight
+ * from the bytes, so only string items ever become Strings.
+ *
+ * The file is split into chunks at line boundaries, which are parsed in
+ * parallel into builders of their own and then appended in file order.
+ *
+ * Only the delimiters produced by AprioriSession.whichDelimiter for the
+ * common cases are understood: runs of whitespace, runs of tabs, a comma
+ * followed by optional whitespace, and a single character surrounded by
+ * optional whitespace. Other delimiters are regular expressions, which
+ * must be read with a Scanner.
+ */
+final class TransactionFileReader {
+    private static final int MAX_CHUNK_BYTES = 1 << 30; // a single mapping can be at most 2 GB
+    private static final int MIN_CHUNK_BYTES = 1 << 20; // smaller files are not worth splitting further
+    private static final int SPILL_CHUNK_BYTES = 1 << 24; // the chunks of a file being spilled are parsed in memory
+    private static final int BOUNDARY_BUFFER_BYTES = 4096;
+
+    private static final int SPLIT_WHITESPACE = 0; // runs of whitespace
+    private static final int SPLIT_TABS = 1; // runs of tabs
+    private static final int SPLIT_CHARACTER = 2; // a single character
+
+    private final int splitMode;
+    private final byte splitCharacter;
+    private final boolean trimBeforeCharacter; // whether whitespace before the split character is part of the delimiter
+
+    private TransactionFileReader(int splitMode, byte splitCharacter, boolean trimBeforeCharacter) {
+        this.splitMode = splitMode;
+        this.splitCharacter = splitCharacter;
+        this.trimBeforeCharacter = trimBeforeCharacter;
+    }
+
+    /** @return A reader for the given delimiter regular expression, as returned by AprioriSession.whichDelimiter,
+     * or null if the delimiter is not one this reader understands. **/
+    static TransactionFileReader forDelimiter(String delimiter) {
+        if (delimiter.equals("\\s+"))
+            return new TransactionFileReader(SPLIT_WHITESPACE, (byte)0, false);
+        if (delimiter.equals("\\t+"))
+            return new TransactionFileReader(SPLIT_TABS, (byte)0, false);
+        if (delimiter.equals(",\\s*"))
+            return new TransactionFileReader(SPLIT_CHARACTER, (byte)',', false);
+
+        // a single (ASCII) character surrounded by optional whitespace
+        if (delimiter.length() == 7 && delimiter.startsWith("\\s*") && delimiter.endsWith("\\s*")) {
+            char character = delimiter.charAt(3);
+            if (character < 128 && character != '\n' && character != '\r' && !isWhitespace((byte)character))
+                return new TransactionFileReader(SPLIT_CHARACTER, (byte)character, true);
+        }
+
+        return null;
+    }
+
+    /** Reads the transactions in the given file, parsing its chunks on the given number of threads.
+     * @throws FileNotFoundException When the file does not exist.
+     * @throws IOException When the file cannot be read. **/
+    TransactionDatabase read(String fileName, int threads) throws IOException {
+        List<TransactionDatabase.Builder> chunks = new ArrayList<TransactionDatabase.Builder>();
+        parse(fileName, threads, MAX_CHUNK_BYTES, chunks::add);
+
+        TransactionDatabase.Builder builder = chunks.get(0);
+        for (int c = 1; c < chunks.size(); c++)
+            builder.addTransactions(chunks.get(c));
+        return builder.build();
+    }
+
+    /** Writes the transactions in the given file to the given spill, parsing at most one bounded chunk per thread at a time,
+     * so that memory use does not depend on the size of the file.
+     * @throws FileNotFoundException When the file does not exist.
+     * @throws IOException When the file cannot be read or the spill cannot be written. **/
+    void spill(String fileName, TransactionSpill.Writer writer, int threads) throws IOException {
+        parse(fileName, threads, SPILL_CHUNK_BYTES, writer::addTransactions);
+    }
+
+    /** Parses the given file in chunks of at most about maxChunkBytes, split at line breaks. The chunks are parsed in
+     * batches of one chunk per thread, and passed to the consumer in file order as each batch finishes. **/
+    private void parse(String fileName, int threads, long maxChunkBytes, ChunkConsumer consumer) throws IOException {
+        ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            List<Long> boundaries = chunkBoundaries(channel, threads, maxChunkBytes);
+
+            for (int first = 0; first < boundaries.size()-1; first += threads) {
+                int last = Math.min(first + threads, boundaries.size()-1);
+
+                if (pool == null) {
+                    for (int c = first; c < last; c++)
+                        consumer.accept(parse(map(channel, boundaries.get(c), boundaries.get(c+1))));
+                    continue;
+                }
+
+                List<Future<TransactionDatabase.Builder>> batch = new ArrayList<Future<TransactionDatabase.Builder>>();
+                for (int c = first; c < last; c++) {
+                    MappedByteBuffer chunk = map(channel, boundaries.get(c), boundaries.get(c+1));
+                    batch.add(pool.submit(() -> parse(chunk)));
+                }
+                for (Future<TransactionDatabase.Builder> future : batch)
+                    consumer.accept(future.get());
+            }
+        }
+        catch (NoSuchFileException e) { throw new FileNotFoundException("Input file \"" + fileName + "\" not found"); }
+        catch (InterruptedException | ExecutionException e) { throw new IOException("Unable to parse input file \"" + fileName + "\"", e); }
+        finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+    /** Splits the file into about one chunk per thread, but none larger than about maxChunkBytes, each ending right
+     * after a line break (or at the end of the file).
+     * @return The position of the start of each chunk, followed by the size of the file. **/
+    private static List<Long> chunkBoundaries(FileChannel channel, int threads, long maxChunkBytes) throws IOException {
+        long size = channel.size();
+        long chunkBytes = Math.min(maxChunkBytes, Math.max(MIN_CHUNK_BYTES, size / Math.max(1, threads)));
+        List<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+
+        ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_BUFFER_BYTES);
+        long position = 0;
+        while (size - position > chunkBytes) {
+
+            // move the boundary forward to just after the next line break
+            position += chunkBytes;
+            boolean found = false;
+            while (!found && position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                for (int i = 0; i < read && !found; i++, position++)
+                    found = (buffer.get(i) == '\n');
+            }
+
+            if (position - boundaries.get(boundaries.size()-1) > MAX_CHUNK_BYTES)
+                throw new IOException("A line of the input file is too long to be read");
+            if (position < size)
+                boundaries.add(position);
+        }
+
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    /** @return The region of the file from start (inclusive) to end (exclusive), mapped into memory. **/
+    private static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    /** @return A builder holding the transactions of the given chunk, one per line. **/
+    private TransactionDatabase.Builder parse(ByteBuffer chunk) {
+        TransactionDatabase.Builder builder = new TransactionDatabase.Builder();
+        int limit = chunk.limit();
+        int position = 0;
+
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && chunk.get(lineEnd) != '\n' && chunk.get(lineEnd) != '\r')
+                lineEnd++;
+
+            parseLine(chunk, position, lineEnd, builder);
+            builder.endTransaction();
+
+            position = lineEnd+1;
+            if (lineEnd < limit-1 && chunk.get(lineEnd) == '\r' && chunk.get(lineEnd+1) == '\n')
+                position++; // a Windows line break
+        }
+
+        return builder;
+    }
+
+    /** Adds the items of the line from start (inclusive) to end (exclusive) to the builder's current transaction. **/
+    private void parseLine(ByteBuffer chunk, int start, int end, TransactionDatabase.Builder builder) {
+        int position = start;
+
+        while (position < end) {
+            int tokenStart = position;
+            int tokenEnd;
+
+            if (splitMode == SPLIT_CHARACTER) {
+                while (position < end && chunk.get(position) != splitCharacter)
+                    position++;
+                tokenEnd = position;
+                position++; // skip the split character
+
+                // trim the whitespace around the token that is part of the delimiter
+                while (tokenStart < tokenEnd && isWhitespace(chunk.get(tokenStart)) && tokenStart > start)
+                    tokenStart++;
+                while (trimBeforeCharacter && tokenEnd > tokenStart && isWhitespace(chunk.get(tokenEnd-1)))
+                    tokenEnd--;
+            } else {
+                while (position < end && !isDelimiter(chunk.get(position)))
+                    position++;
+                tokenEnd = position;
+                while (position < end && isDelimiter(chunk.get(position)))
+                    position++;
+            }
+
+            if (tokenEnd > tokenStart)
+                addToken(chunk, tokenStart, tokenEnd, builder);
+        }
+    }
+
+    /** Adds the token from start (inclusive) to end (exclusive) as an integer item if it is an integer, or as a string item. **/
+    private static void addToken(ByteBuffer chunk, int start, int end, TransactionDatabase.Builder builder) {
+        int position = start;
+        boolean negative = false;
+        if (chunk.get(position) == '-' || chunk.get(position) == '+') {
+            negative = (chunk.get(position) == '-');
+            position++;
+        }
+
+        // accumulate negatively, since the smallest int has no positive counterpart
+        long value = 0;
+        boolean isInteger = (position < end);
+        for (; position < end && isInteger; position++) {
+            byte b = chunk.get(position);
+            isInteger = (b >= '0' && b <= '9');
+            value = value*10 - (b - '0');
+            if (value < Integer.MIN_VALUE)
+                isInteger = false;
+        }
+        if (isInteger && !negative && value == Integer.MIN_VALUE)
+            isInteger = false;
+
+        if (isInteger)
+            builder.addItem((int)(negative ? value : -value));
+        else {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = chunk.get(start + i);
+            builder.addItem(new StringItem(new String(bytes, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /*
+     * Receives the parsed chunks of a file, in file order.
+     */
+    private interface ChunkConsumer {
+        void accept(TransactionDatabase.Builder chunk) throws IOException;
+    }
+
+    /** @return True if the given byte is part of a delimiter in the whitespace or tab split modes. **/
+    private boolean isDelimiter(byte b) {
+        return (splitMode == SPLIT_TABS) ? (b == '\t') : isWhitespace(b);
+    }
+
+    /** @return True if the given byte is a whitespace character (other than a line break). **/
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+}
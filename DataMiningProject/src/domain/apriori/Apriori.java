@@ -1,16 +1,55 @@
 package domain.apriori;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
-public class Apriori {
+public class Apriori implements FrequentItemSetMiner {
+    public static final String COUNTING_SCAN = "scan"; // count every level by scanning the transactions
+    public static final String COUNTING_TID = "tid"; // AprioriTid: count from level 3 on with tables of candidate IDs
+    public static final String COUNTING_HYBRID = "hybrid"; // AprioriHybrid: scan until a table of candidate IDs fits in memory
+    public static final String STORE_HASH_TREE = "hashtree"; // generate and count candidates in hash trees
+    public static final String STORE_TRIE = "trie"; // generate and count candidates in a prefix trie instead
     
-    private List<HashTree> hashTrees;
+    private static final int MAX_BUCKET_SIZE_DEFAULT = 5;
+    private static final int CHILDREN_DEFAULT = 3;
+    private static final double MEMORY_FRACTION_FOR_CANDIDATE_IDS = 0.5; // of the free heap, for the hybrid switch
+    private static final double MEMORY_FRACTION_FOR_PAIR_COUNTS = 0.5; // of the free heap, for the triangular matrix
+    private static final double MEMORY_FRACTION_FOR_CANDIDATES = 0.5; // of the free heap, for a level of candidates
+    private static final int BYTES_PER_CANDIDATE = 160; // the estimated size of a candidate itemset in a hash tree...
+    private static final int BYTES_PER_CANDIDATE_ITEM = 48; // ...plus this much for each of its items
+    private static final int BYTES_PER_TRIE_CANDIDATE = 96; // the estimated size of a candidate itemset in a PrefixTrie...
+    private static final int BYTES_PER_TRIE_CANDIDATE_ITEM = 48; // ...plus this much for each of its items
+    
+    private List<CandidateStore> levels; // the frequent itemsets of each level, in hash trees or prefix tries
+    private int maxBucketSize = MAX_BUCKET_SIZE_DEFAULT;
+    private int childrenPerNode = CHILDREN_DEFAULT;
+    private int numOfThreads = 1; // the number of threads candidates are counted on
+    private boolean reduceTransactions = true; // whether to trim the transactions scanned between passes
+    private String countingMode = COUNTING_SCAN;
+    private String candidateStore = STORE_HASH_TREE;
+    private boolean countPairsInMatrix = true; // whether C_2 is counted in a triangular matrix instead of a hash tree
+    private boolean printProgress = true; // whether each level and reduction is printed as it is found
+    private long candidateMemoryBudget = 0; // the most bytes the candidates of a level may take, or 0 for a share of the free heap
+    private List<LevelProfile> profiles; // the metrics of each level of the last run
+    private int numOfTransactions; // the total weight of the transactions the levels were found in
+    private int absoluteMinSupport; // the minimum support the levels were found with
+    private int originalScans; // the number of times the last update scanned the original transactions
     
     private static Apriori apriori; // singleton
     
-    private Apriori() {
+    /** Initializes an Apriori miner of its own. Apart from the singleton, Apriori is only instantiated to
+     * mine several sets of transactions at once, such as the partitions mined by PartitionMiner. **/
+    Apriori() {
     }
     
     public static Apriori getApriori() {
@@ -19,64 +58,718 @@ public class Apriori {
         return apriori;
     }
     
+    /** Sets the number of threads used to count candidates. With more than one thread, every pass
+     * over the transactions is split between that many workers on a thread pool. **/
+    public void setNumberOfThreads(int numOfThreads) {
+        if (numOfThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.numOfThreads = numOfThreads;
+    }
+    
+    /** Sets whether transactions are reduced between passes. When they are, each pass scans a working copy of the
+     * transactions from which items that appear in no candidate, and transactions that cannot contain any candidate,
+     * have been removed, so each pass scans less than the one before. **/
+    public void setTransactionReduction(boolean reduceTransactions) {
+        this.reduceTransactions = reduceTransactions;
+    }
+    
+    /** Sets how candidates are counted: COUNTING_SCAN, COUNTING_TID or COUNTING_HYBRID.
+     * 
+     * With COUNTING_TID, the pass counting candidate 2-itemsets also records, for each transaction, the IDs of the
+     * candidates it contains. Every later pass then counts its candidates from the IDs recorded by the pass before,
+     * recording the IDs of its own candidates, and the transactions are not read again. With COUNTING_HYBRID, the
+     * transactions are scanned until the table of IDs is estimated to fit in memory and to have started shrinking,
+     * after which counting switches to the tables. **/
+    public void setCountingMode(String countingMode) {
+        if (!countingMode.equals(COUNTING_SCAN) && !countingMode.equals(COUNTING_TID) && !countingMode.equals(COUNTING_HYBRID))
+            throw new IllegalArgumentException("Unrecognized counting mode: " + countingMode);
+        this.countingMode = countingMode;
+    }
+    
+    /** Sets the structure the itemsets of each level are kept in: STORE_HASH_TREE or STORE_TRIE. The candidates of a
+     * level are generated into a store of this kind, counted in it, and pruned to the frequent itemsets it then keeps.
+     * With STORE_TRIE, every level is a PrefixTrie, which is walked along every transaction, and no hash tree is
+     * built. **/
+    public void setCandidateStore(String candidateStore) {
+        if (!candidateStore.equals(STORE_HASH_TREE) && !candidateStore.equals(STORE_TRIE))
+            throw new IllegalArgumentException("Unrecognized candidate store: " + candidateStore);
+        this.candidateStore = candidateStore;
+    }
+    
+    /** Sets whether the candidate 2-itemsets are counted in a triangular matrix of pair counts instead of a hash tree.
+     * Every pair of frequent items is a candidate, so the pass counting them only needs an array indexed by the ranks
+     * of the two items. If the matrix would not fit in memory, the pairs are filtered by hashing them into buckets, as
+     * DHP does, and the candidates left are counted in the candidate store. The matrix is not used when the pass records the
+     * IDs of the candidates for AprioriTid. **/
+    public void setPairCounting(boolean countPairsInMatrix) {
+        this.countPairsInMatrix = countPairsInMatrix;
+    }
+    
+    /** Sets how much memory the candidates of a level may take, in bytes. A level whose candidates are estimated to take
+     * more is generated and counted in chunks that each fit, with a scan of the transactions per chunk, and the frequent
+     * itemsets of the chunks are merged. A budget of 0, the default, is half of the free heap at the time of the level.
+     * The candidates of a level counted in chunks are always counted by scanning, so a table of candidate IDs is given
+     * up if there is one. **/
+    public void setCandidateMemoryBudget(long candidateMemoryBudget) {
+        if (candidateMemoryBudget < 0)
+            throw new IllegalArgumentException("The candidate memory budget cannot be negative");
+        this.candidateMemoryBudget = candidateMemoryBudget;
+    }
+    
+    /** Sets whether the frequent itemsets of each level, and other progress, are printed to standard output during a run. **/
+    public void setPrintProgress(boolean printProgress) {
+        this.printProgress = printProgress;
+    }
+    
+    /** Sets the shape of the hash trees generated by run(TransactionDatabase, int).
+     * @see #run(TransactionDatabase, int, int, int) **/
+    public void setHashTreeParameters(int maxBucketSize, int childrenPerNode) {
+        this.maxBucketSize = maxBucketSize;
+        this.childrenPerNode = childrenPerNode;
+    }
+    
+    /** Runs the Apriori algorithm on the given encoded transactions, generating hash trees with the
+     * parameters set by setHashTreeParameters(int, int). **/
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        run(transactions, absoluteMinSupport, this.maxBucketSize, this.childrenPerNode);
+    }
+    
+    /**
+     * Runs the Apriori algorithm on the given set of transactions, after encoding them into a TransactionDatabase.
+     * @see #run(TransactionDatabase, int, int, int)
+     */
+    public void run(Set<ItemSet> transactions, int absoluteMinSupport,
+            int maxBucketSize, int childrenPerNode) {
+        run(TransactionDatabase.encode(transactions), absoluteMinSupport, maxBucketSize, childrenPerNode);
+    }
+    
     /**
-     * Runs the Apriori algorithm on the given set of transactions.
+     * Runs the Apriori algorithm on the given encoded transactions. The frequent itemsets found
+     * are made of the database's encoded items, which print as the original items.
      * @param transactions The transactions to run the algorithm against.
      * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
      * @param maxBucketSize The maximum number of itemsets a bucket node in a hash tree can have before it
      *        is converted to a hash node, assuming the last level has not been reached.
      * @param childrenPerNode Each node in the generated hash trees will have this many child nodes.
      */
-    public void run(Set<ItemSet> transactions, int absoluteMinSupport,
+    public void run(TransactionDatabase transactions, int absoluteMinSupport,
+            int maxBucketSize, int childrenPerNode) {
+        run(transactions, transactions, absoluteMinSupport, maxBucketSize, childrenPerNode);
+    }
+    
+    /**
+     * Runs the Apriori algorithm out of core, on transactions spilled to disk, generating hash trees with the parameters
+     * set by setHashTreeParameters(int, int). Each level streams the spill from disk in bounded blocks, counting the
+     * candidates of every block before reading the next, so only the levels and a single block are ever in memory.
+     * Transactions are not reduced between passes, and every level is counted by scanning, apart from C_2, which is
+     * counted in a triangular matrix as it is in memory.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    public void run(TransactionSpill transactions, int absoluteMinSupport) {
+        run(transactions, null, absoluteMinSupport, this.maxBucketSize, this.childrenPerNode);
+    }
+    
+    /**
+     * Runs the Apriori algorithm on the transactions of the given source, which every pass scans a block at a time.
+     * @param inMemory The transactions of the source if they are all in memory, or null. Only transactions in memory
+     *        are reduced between passes and can be counted with tables of candidate IDs.
+     * @see #run(TransactionDatabase, int, int, int)
+     */
+    private void run(TransactionSource transactions, TransactionDatabase inMemory, int absoluteMinSupport,
             int maxBucketSize, int childrenPerNode) {
-        HashTree k_1_Itemsets;
-        HashTree k_Itemsets;
-        hashTrees = new ArrayList<HashTree>();
+        CandidateStore k_1_Itemsets;
+        CandidateStore k_Itemsets;
+        TransactionDatabase workingSet = inMemory; // copied before it is first reduced
+        int[] matches = null; // the number of candidates found in each transaction of the working set by the last pass
+        CandidateIdTable candidateIds = null; // the candidates found in each transaction, once counting has switched to them
+        boolean recordCandidateIds = (inMemory != null && countingMode.equals(COUNTING_TID)); // whether the next scan records candidate IDs
+        long previousEstimate = Long.MAX_VALUE; // the estimated size of the last table of candidate IDs, in bytes
+        ExecutorService pool = (numOfThreads > 1) ? Executors.newFixedThreadPool(numOfThreads) : null;
+        levels = new ArrayList<CandidateStore>();
+        profiles = new ArrayList<LevelProfile>();
+        this.numOfTransactions = transactions.getTotalWeight();
+        this.absoluteMinSupport = absoluteMinSupport;
         
         /* count the occurrences of all 1-itemsets in transactions, creating C_1,
          * the set of candidate 1-itemsets. Then remove candidates that do not meet
-         * minimum support to create L_1, the set of frequent 1-itemsets. */
-        k_Itemsets = new HashTree(1, absoluteMinSupport, maxBucketSize, childrenPerNode);
-        k_Itemsets.addAll(transactions);
-        k_Itemsets.incFrequencies();
-        k_Itemsets.removeNoMinSupport();
-        
-        while (!k_Itemsets.isEmpty()) {
-            hashTrees.add(k_Itemsets);
-            System.out.println(k_Itemsets.toString());
-            k_1_Itemsets = k_Itemsets;
+         * minimum support to create L_1, the set of frequent 1-itemsets. A spill
+         * counted its items as it was written, so it needs no scan for them. */
+        LevelProfile itemsProfile = new LevelProfile(1);
+        int[] itemCounts = transactions.countItems();
+        itemsProfile.setCounting(LevelProfile.COUNTED_BY_ITEMS);
+        itemsProfile.addCandidates(itemCounts.length, itemCounts.length);
+        if (inMemory != null)
+            itemsProfile.addScan(inMemory.size(), inMemory.getTotalLength());
+        itemsProfile.endCount();
+        k_Itemsets = frequentItems(itemCounts, transactions::getItem, absoluteMinSupport, maxBucketSize, childrenPerNode);
+        itemsProfile.endFilter();
+        finishLevel(itemsProfile, k_Itemsets);
+        
+        try {
+            while (!k_Itemsets.isEmpty()) {
+                levels.add(k_Itemsets);
+                printLevel(k_Itemsets);
+                k_1_Itemsets = k_Itemsets;
+                int k = k_1_Itemsets.getNumberOfItemsPerItemSet() + 1;
+                LevelProfile profile = new LevelProfile(k);
+                
+                // C_2 is every pair of frequent items, which need not be generated to be counted in a triangular matrix
+                boolean countPairs = (k == 2 && countPairsInMatrix && !recordCandidateIds);
+                CandidateJoin join = countPairs ? null : k_1_Itemsets.prepareJoin(); // sorts L_(k-1) once for the level
+                long joins = countPairs ? 0 : join.getNumberOfJoins();
+                int numOfChunks = countPairs ? 1 : numberOfCandidateChunks(k, joins);
+                profile.setNumberOfChunks(numOfChunks);
+                
+                // join L_(k-1) with itself, pruning k-itemsets with infrequent subsets as they are generated, to create C_k
+                if (!countPairs && numOfChunks == 1) {
+                    k_Itemsets = k_1_Itemsets.generateNextCandidates(join, 0, 1, pool, numOfThreads);
+                    profile.addCandidates(joins, k_Itemsets.toArray().size());
+                    addShape(profile, k_Itemsets);
+                }
+                profile.endGenerate();
+                
+                // create L_k by counting candidate k-itemsets and removing those that don't meet minimum support
+                if (numOfChunks > 1) {
+                    // a table of candidate IDs needs every candidate of the level at once, so go back to scanning
+                    candidateIds = null;
+                    if (reduceTransactions && workingSet != null) {
+                        if (workingSet == inMemory)
+                            workingSet = inMemory.copy();
+                        reduce(workingSet, k, itemsIn(k_1_Itemsets, workingSet.getNumberOfItems()), matches);
+                    }
+                    profile.endReduce();
+                    
+                    // each chunk stores what it finds in a transaction, so add the chunks up
+                    TransactionSource scanned = (workingSet != null) ? workingSet : transactions;
+                    int[] found = (workingSet != null) ? new int[workingSet.size()] : null;
+                    int[] chunkMatches = (workingSet != null) ? new int[workingSet.size()] : null;
+                    profile.addCandidates(joins, 0);
+                    k_Itemsets = countInChunks(k_1_Itemsets, join, numOfChunks, pool, absoluteMinSupport, maxBucketSize, childrenPerNode, profile,
+                        (CandidateStore chunk) -> {
+                            countCandidates(chunk, scanned, pool, chunkMatches, profile);
+                            for (int t = 0; found != null && t < found.length; t++)
+                                found[t] += chunkMatches[t];
+                        });
+                    matches = reduceTransactions ? found : null;
+                } else if (candidateIds != null) {
+                    profile.setCounting(LevelProfile.COUNTED_BY_CANDIDATE_IDS);
+                    profile.addScan(candidateIds.size(), candidateIds.getTotalLength());
+                    candidateIds = candidateIds.countCandidates(k_Itemsets.toArray(), k_1_Itemsets.toArray());
+                    profile.endCount();
+                    printCandidateIds(candidateIds, k_Itemsets);
+                } else {
+                    // shrink the transactions to what can still contain a candidate k-itemset
+                    if (reduceTransactions && workingSet != null) {
+                        if (workingSet == inMemory)
+                            workingSet = inMemory.copy();
+                        if (countPairs)
+                            reduce(workingSet, 2, itemsIn(k_1_Itemsets, workingSet.getNumberOfItems()), matches);
+                        else
+                            reduce(workingSet, k, itemsIn(k_Itemsets, workingSet.getNumberOfItems()), matches);
+                        matches = new int[workingSet.size()];
+                    }
+                    profile.endReduce();
+                    
+                    TransactionSource scanned = (workingSet != null) ? workingSet : transactions;
+                    if (countPairs)
+                        k_Itemsets = countPairs(scanned, k_1_Itemsets, absoluteMinSupport, maxBucketSize, childrenPerNode, pool, matches, profile);
+                    else if (recordCandidateIds) {
+                        profile.addScan(workingSet.size(), workingSet.getTotalLength());
+                        candidateIds = k_Itemsets.countAndRecordCandidates(workingSet, pool, numOfThreads, matches);
+                        profile.endCount();
+                        printCandidateIds(candidateIds, k_Itemsets);
+                    } else {
+                        countCandidates(k_Itemsets, scanned, pool, matches, profile);
+                        profile.endCount();
+                    }
+                    
+                    if (countingMode.equals(COUNTING_HYBRID) && workingSet != null) {
+                        long estimate = estimateCandidateIdsSize(k_Itemsets, workingSet.size());
+                        recordCandidateIds = (estimate < previousEstimate && estimate < memoryBudget(MEMORY_FRACTION_FOR_CANDIDATE_IDS));
+                        previousEstimate = estimate;
+                    }
+                }
+                k_Itemsets.removeNoMinSupport();
+                profile.endFilter();
+                finishLevel(profile, k_Itemsets);
+            }
+        }
+        finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+    
+    /** Counts the given candidates in the given transactions, a block at a time, recording the scan of each block in the
+     * given profile.
+     * @param matches If not null, the number of candidates found in each transaction is stored here, which takes the
+     *        transactions to be a single block. **/
+    private void countCandidates(CandidateStore candidates, TransactionSource transactions, ExecutorService pool, int[] matches,
+            LevelProfile profile) {
+        transactions.forEachBlock((TransactionDatabase block) -> {
+            candidates.countCandidates(block, pool, numOfThreads, matches);
+            profile.addScan(block.size(), block.getTotalLength());
+        });
+    }
+    
+    /**
+     * Updates the frequent itemsets found by the last run (or restore) for transactions appended to those they were
+     * found in, as FUP (Cheung et al.) does, keeping each level in the store set by setCandidateStore(String). The relative minimum support is kept: the new minimum support is the old one
+     * scaled by the new total weight of the transactions, rounded up.
+     *
+     * Each level's candidates are generated from the updated L_(k-1) and counted in the increment only. A candidate
+     * that was frequent before gets its new support from its old one. A candidate that was not frequent before had a
+     * support below the old minimum support in the original transactions, so it can only be frequent now if the
+     * increment makes up the difference; only the candidates whose support in the increment does so are counted in
+     * the original transactions, which are only read if there are any, and then scanned once per level that has some.
+     * @param increment The transactions appended, with their own item dictionary.
+     * @param original Supplies the transactions the last run was on, in any item dictionary. Called at most once.
+     */
+    public void update(TransactionDatabase increment, Supplier<TransactionDatabase> original) {
+        if (levels == null)
+            throw new RuntimeException("The algorithm must be run before its results can be updated.");
+        List<CandidateStore> oldLevels = levels;
+        int oldMinSupport = this.absoluteMinSupport;
+        int newMinSupport = (numOfTransactions == 0) ? oldMinSupport
+                : (int)((oldMinSupport * ((long)numOfTransactions + increment.getTotalWeight()) + numOfTransactions - 1) / numOfTransactions);
+        int newCandidateMinSupport = newMinSupport - oldMinSupport + 1; // the least support in the increment that can make up the difference
+        
+        // encode the increment and the itemsets frequent before with one dictionary, which L_1 has every item of
+        List<Item> knownItems = new ArrayList<Item>();
+        if (!oldLevels.isEmpty())
+            for (ItemSet itemSet : oldLevels.get(0).toArray())
+                knownItems.add(itemSet.first().getDecodedItem());
+        TransactionDatabase transactions = increment.withItems(knownItems);
+        Map<Item, EncodedItem> dictionary = new HashMap<Item, EncodedItem>();
+        for (int code = 0; code < transactions.getNumberOfItems(); code++)
+            dictionary.put(transactions.getItem(code).getDecodedItem(), transactions.getItem(code));
+        TransactionDatabase originalTransactions = null; // read once a candidate needs it
+        
+        ExecutorService pool = (numOfThreads > 1) ? Executors.newFixedThreadPool(numOfThreads) : null;
+        levels = new ArrayList<CandidateStore>();
+        profiles = new ArrayList<LevelProfile>();
+        originalScans = 0;
+        
+        try {
+            // L_1: an item frequent before adds its count in the increment to its old support; any other item is counted
+            // in the original transactions if its count in the increment could make it frequent
+            int[] itemCounts = transactions.countItems();
+            int[] oldCounts = new int[itemCounts.length];
+            Arrays.fill(oldCounts, -1);
+            if (!oldLevels.isEmpty())
+                for (ItemSet itemSet : oldLevels.get(0).toArray())
+                    oldCounts[dictionary.get(itemSet.first().getDecodedItem()).getCode()] = itemSet.getFrequency();
             
-            // join L_(k-1) with itself and prune resulting k-itemset hash tree to create C_k
-            k_Itemsets = k_1_Itemsets.generateNextCandidateTree();
-            k_Itemsets.prune(k_1_Itemsets);
+            boolean[] isNewCandidate = new boolean[itemCounts.length];
+            int numOfNewCandidates = 0;
+            for (int code = 0; code < itemCounts.length; code++) {
+                isNewCandidate[code] = (oldCounts[code] < 0 && itemCounts[code] >= newCandidateMinSupport);
+                if (isNewCandidate[code])
+                    numOfNewCandidates++;
+            }
+            if (numOfNewCandidates > 0) {
+                originalTransactions = original.get().encodeLike(transactions);
+                printOriginalScan(1, numOfNewCandidates);
+                int[] originalCounts = originalTransactions.countItems();
+                for (int code = 0; code < itemCounts.length; code++)
+                    if (isNewCandidate[code])
+                        itemCounts[code] += originalCounts[code];
+            }
+            for (int code = 0; code < itemCounts.length; code++)
+                if (oldCounts[code] >= 0)
+                    itemCounts[code] += oldCounts[code];
+                else if (!isNewCandidate[code])
+                    itemCounts[code] = 0;
+            CandidateStore k_Itemsets = frequentItems(itemCounts, transactions::getItem, newMinSupport, this.maxBucketSize, this.childrenPerNode);
             
-            // create L_k by counting candidate k-itemsets and removing those that don't meet minimum support
-            k_Itemsets.countCandidates(transactions);
-            k_Itemsets.removeNoMinSupport();
+            while (!k_Itemsets.isEmpty()) {
+                levels.add(k_Itemsets);
+                printLevel(k_Itemsets);
+                int k = k_Itemsets.getNumberOfItemsPerItemSet() + 1;
+                
+                List<ItemSet> oldKItemSets = (k <= oldLevels.size()) ? encode(oldLevels.get(k-1).toArray(), dictionary) : new ArrayList<ItemSet>();
+                ItemSetIndex oldItemSets = new ItemSetIndex(oldKItemSets, k);
+                
+                // count in the increment the candidates that were frequent before and those that could be now
+                List<ItemSet> candidates;
+                PairCounter pairs = (k == 2 && countPairsInMatrix) ? new PairCounter(k_Itemsets, transactions.getNumberOfItems()) : null;
+                if (pairs != null && pairs.fitsInArray() && pairs.getMatrixSizeInBytes() <= memoryBudget(MEMORY_FRACTION_FOR_PAIR_COUNTS)) {
+                    pairs.count(transactions, pool, 1, null); // one matrix, since the increment is small
+                    candidates = pairs.frequentPairs(newCandidateMinSupport);
+                    for (ItemSet oldPair : oldKItemSets) {
+                        int count = pairs.countOf(((EncodedItem)oldPair.first()).getCode(), ((EncodedItem)oldPair.last()).getCode());
+                        if (count >= 0 && count < newCandidateMinSupport) { // not among the pairs just taken
+                            ItemSet pair = new ItemSet(oldPair);
+                            pair.incFrequency(count);
+                            candidates.add(pair);
+                        }
+                    }
+                } else {
+                    CandidateStore generated = k_Itemsets.generateNextCandidates(k_Itemsets.prepareJoin(), 0, 1, pool, numOfThreads);
+                    generated.countCandidates(reduced(transactions, generated), pool, numOfThreads, null);
+                    candidates = generated.toArray();
+                }
+                
+                List<ItemSet> frequent = new ArrayList<ItemSet>();
+                List<ItemSet> newCandidates = new ArrayList<ItemSet>();
+                for (ItemSet candidate : candidates) {
+                    int oldSupport = oldItemSets.supportOf(new ItemSetKey(candidate).getCodes());
+                    if (oldSupport >= 0) {
+                        candidate.incFrequency(oldSupport);
+                        if (candidate.getFrequency() >= newMinSupport)
+                            frequent.add(candidate);
+                    } else if (candidate.getFrequency() >= newCandidateMinSupport)
+                        newCandidates.add(candidate);
+                }
+                
+                if (!newCandidates.isEmpty()) {
+                    if (originalTransactions == null)
+                        originalTransactions = original.get().encodeLike(transactions);
+                    printOriginalScan(k, newCandidates.size());
+                    
+                    CandidateStore counted = newStore(k, newCandidates, newMinSupport, this.maxBucketSize, this.childrenPerNode);
+                    counted.countCandidates(reduced(originalTransactions, counted), pool, numOfThreads, null);
+                    for (ItemSet candidate : newCandidates)
+                        if (candidate.getFrequency() >= newMinSupport)
+                            frequent.add(candidate);
+                }
+                k_Itemsets = newStore(k, frequent, newMinSupport, this.maxBucketSize, this.childrenPerNode);
+            }
+        }
+        finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+        
+        this.numOfTransactions += increment.getTotalWeight();
+        this.absoluteMinSupport = newMinSupport;
+    }
+    
+    /**
+     * Makes the given frequent itemsets the results of this miner, as if a run had found them, so that they can be
+     * updated with update(TransactionDatabase, Supplier) without the transactions they were found in being mined again.
+     * @param frequentItemSets The itemsets and their supports, whose items may be decoded or encoded. Every subset of an
+     *        itemset must also be given, as it is in the result of a run.
+     * @param numOfTransactions The total weight of the transactions the itemsets were found in.
+     * @param absoluteMinSupport The minimum support the itemsets were found with.
+     */
+    public void restore(List<ItemSet> frequentItemSets, int numOfTransactions, int absoluteMinSupport) {
+        List<Item> items = new ArrayList<Item>();
+        for (ItemSet itemSet : frequentItemSets)
+            if (itemSet.size() == 1)
+                items.add(itemSet.first().getDecodedItem());
+        TransactionDatabase itemsOnly = new TransactionDatabase.Builder().build().withItems(items);
+        Map<Item, EncodedItem> dictionary = new HashMap<Item, EncodedItem>();
+        for (int code = 0; code < itemsOnly.getNumberOfItems(); code++)
+            dictionary.put(itemsOnly.getItem(code).getDecodedItem(), itemsOnly.getItem(code));
+        
+        List<List<ItemSet>> itemSetsByLength = new ArrayList<List<ItemSet>>();
+        for (ItemSet itemSet : encode(frequentItemSets, dictionary)) {
+            while (itemSetsByLength.size() < itemSet.size())
+                itemSetsByLength.add(new ArrayList<ItemSet>());
+            itemSetsByLength.get(itemSet.size()-1).add(itemSet);
+        }
+        levels = new ArrayList<CandidateStore>();
+        for (List<ItemSet> itemSets : itemSetsByLength)
+            levels.add(newStore(levels.size()+1, itemSets, absoluteMinSupport, this.maxBucketSize, this.childrenPerNode));
+        profiles = new ArrayList<LevelProfile>();
+        this.numOfTransactions = numOfTransactions;
+        this.absoluteMinSupport = absoluteMinSupport;
+    }
+    
+    /** @return The total weight of the transactions the current results were found in, counting any updates. **/
+    public int getNumberOfTransactions() {
+        return numOfTransactions;
+    }
+    
+    /** @return The minimum support the current results were found with, as scaled by any updates. **/
+    public int getMinimumSupport() {
+        return absoluteMinSupport;
+    }
+    
+    /** @return The number of levels of the last update for which the original transactions were scanned. **/
+    public int getOriginalScans() {
+        return originalScans;
+    }
+    
+    /** @return A working copy of the given transactions stripped of the items that are in none of the given candidates,
+     * without the transactions left with fewer items than a candidate has, for counting the candidates. **/
+    private static TransactionDatabase reduced(TransactionDatabase transactions, CandidateStore candidates) {
+        TransactionDatabase workingSet = transactions.copy();
+        workingSet.reduce(itemsIn(candidates, workingSet.getNumberOfItems()), null, candidates.getNumberOfItemsPerItemSet());
+        return workingSet;
+    }
+    
+    /** Prints the given store of frequent itemsets, if progress is printed, writing it straight to standard output
+     * instead of building it as a string first. **/
+    private void printLevel(CandidateStore frequent) {
+        if (!printProgress)
+            return;
+        try {
+            frequent.writeTree(System.out);
+        }
+        catch (IOException e) { throw new RuntimeException(e); } // a PrintStream does not throw
+        System.out.println();
+    }
+    
+    /** Counts a scan of the original transactions by an update, printing it. **/
+    private void printOriginalScan(int k, int numOfCandidates) {
+        originalScans++;
+        if (printProgress)
+            System.out.format("Counting %d new candidate %d-itemsets in the original transactions%n%n", numOfCandidates, k);
+    }
+    
+    /** @return Copies of the given itemsets, with their supports, made of the items of the given dictionary that are
+     * keyed by their decoded items. **/
+    private static List<ItemSet> encode(List<ItemSet> itemSets, Map<Item, EncodedItem> dictionary) {
+        List<ItemSet> encoded = new ArrayList<ItemSet>(itemSets.size());
+        for (ItemSet itemSet : itemSets) {
+            ItemSet copy = new ItemSet();
+            for (Item item : itemSet)
+                copy.add(dictionary.get(item.getDecodedItem()));
+            copy.incFrequency(itemSet.getFrequency());
+            encoded.add(copy);
+        }
+        return encoded;
+    }
+    
+    /** @return A store holding L_1: the frequent 1-itemsets, given the number of transactions each item occurs in.
+     * @param items The encoded item of each item code. **/
+    private CandidateStore frequentItems(int[] itemCounts, IntFunction<EncodedItem> items, int absoluteMinSupport,
+            int maxBucketSize, int childrenPerNode) {
+        List<ItemSet> frequentItems = new ArrayList<ItemSet>();
+        for (int code = 0; code < itemCounts.length; code++) {
+            if (itemCounts[code] >= absoluteMinSupport) {
+                ItemSet itemSet = new ItemSet();
+                itemSet.add(items.apply(code));
+                itemSet.incFrequency(itemCounts[code]);
+                frequentItems.add(itemSet);
+            }
+        }
+        return newStore(1, frequentItems, absoluteMinSupport, maxBucketSize, childrenPerNode);
+    }
+    
+    /** Counts C_2, every pair of the frequent items in the given store of L_1, in a triangular matrix of pair counts, if
+     * the matrix fits in memory. Otherwise the pairs are filtered by hashing them into buckets, and the candidates left
+     * are counted in a store set by setCandidateStore(String). Either way, the transactions are scanned a block at a time.
+     * @param matches If not null, the number of candidates found in each transaction is stored here, which takes the
+     *        transactions to be a single block.
+     * @param profile The profile of the level, to record the candidates and the phases of counting them in.
+     * @return A store of the counted candidate 2-itemsets, or of L_2 if they were counted in the matrix. **/
+    private CandidateStore countPairs(TransactionSource transactions, CandidateStore frequentItems, int absoluteMinSupport,
+            int maxBucketSize, int childrenPerNode, ExecutorService pool, int[] matches, LevelProfile profile) {
+        PairCounter pairs = new PairCounter(frequentItems, transactions.getNumberOfItems());
+        long budget = memoryBudget(MEMORY_FRACTION_FOR_PAIR_COUNTS);
+        
+        if (pairs.fitsInArray() && pairs.getMatrixSizeInBytes() <= budget) {
+            // every worker counts into a matrix of its own, so use no more workers than there are matrices that fit
+            int numOfWorkers = (int)Math.max(1, Math.min(numOfThreads, budget / Math.max(1, pairs.getMatrixSizeInBytes())));
+            profile.setCounting(LevelProfile.COUNTED_IN_MATRIX);
+            profile.addCandidates(pairs.getNumberOfPairs(), pairs.getNumberOfPairs());
+            transactions.forEachBlock((TransactionDatabase block) -> {
+                pairs.count(block, pool, numOfWorkers, matches);
+                profile.addScan(block.size(), block.getTotalLength());
+            });
+            profile.endCount();
+            if (printProgress)
+                System.out.format("Counted C_2 in a triangular matrix: %d pairs of %d frequent items (%d bytes)%n%n",
+                    pairs.getNumberOfPairs(), pairs.getNumberOfItems(), pairs.getMatrixSizeInBytes());
+            return newStore(2, pairs.frequentPairs(absoluteMinSupport), absoluteMinSupport, maxBucketSize, childrenPerNode);
+        }
+        
+        List<ItemSet> candidatePairs = pairs.hashFilteredCandidates(transactions, absoluteMinSupport);
+        int numOfCandidates = candidatePairs.size();
+        CandidateStore candidates = newStore(2, candidatePairs, absoluteMinSupport, maxBucketSize, childrenPerNode);
+        profile.addCandidates(pairs.getNumberOfPairs(), numOfCandidates);
+        addShape(profile, candidates);
+        profile.endGenerate();
+        if (printProgress)
+            System.out.format("Filtered C_2 by hashing: %d of %d pairs of frequent items left%n%n",
+                numOfCandidates, pairs.getNumberOfPairs());
+        countCandidates(candidates, transactions, pool, matches, profile);
+        profile.endCount();
+        return candidates;
+    }
+    
+    /** @return A store of the given k-itemsets, whose items must be encoded, of the kind set by setCandidateStore(String):
+     * a hash tree of the given shape, or a prefix trie. **/
+    private CandidateStore newStore(int k, List<ItemSet> itemSets, int absoluteMinSupport, int maxBucketSize, int childrenPerNode) {
+        if (candidateStore.equals(STORE_TRIE))
+            return new PrefixTrie(itemSets, k, absoluteMinSupport);
+        HashTree tree = new HashTree(k, absoluteMinSupport, maxBucketSize, childrenPerNode);
+        for (ItemSet itemSet : itemSets)
+            tree.addItemSet(itemSet);
+        return tree;
+    }
+    
+    /** Adds the shape of the given store of candidates to the given profile, if it is a hash tree. **/
+    private static void addShape(LevelProfile profile, CandidateStore candidates) {
+        if (candidates instanceof HashTree)
+            profile.addHashTree((HashTree)candidates);
+    }
+    
+    /** @return The number of chunks to generate and count the candidate k-itemsets in, given the number of joins that
+     * generate them, so that the candidates of each chunk fit in the candidate memory budget in the store set by
+     * setCandidateStore(String). Prints the choice if it is more than 1. **/
+    private int numberOfCandidateChunks(int k, long joins) {
+        long bytesPerCandidate = candidateStore.equals(STORE_TRIE)
+            ? BYTES_PER_TRIE_CANDIDATE + (long)BYTES_PER_TRIE_CANDIDATE_ITEM * k
+            : BYTES_PER_CANDIDATE + (long)BYTES_PER_CANDIDATE_ITEM * k;
+        long estimate = joins * bytesPerCandidate;
+        long budget = (candidateMemoryBudget > 0) ? candidateMemoryBudget : memoryBudget(MEMORY_FRACTION_FOR_CANDIDATES);
+        long numOfChunks = Math.max(1, (estimate + Math.max(1, budget)-1) / Math.max(1, budget));
+        numOfChunks = Math.min(numOfChunks, Math.max(1, joins)); // a chunk cannot hold less than a join
+        
+        if (numOfChunks > 1 && printProgress)
+            System.out.format("Counting C_%d in %d chunks: up to %d candidates (about %d bytes) exceed the candidate memory budget of %d bytes%n%n",
+                k, numOfChunks, joins, estimate, budget);
+        return (int)Math.min(Integer.MAX_VALUE, numOfChunks);
+    }
+    
+    /** Generates the candidates joined from the given store of L_(k-1) a chunk at a time, counts each chunk with the given
+     * action, and keeps the candidates of the chunk that meet minimum support. Only one chunk of candidates is in memory
+     * at a time, besides the frequent itemsets kept.
+     * @param join The self-join of the store, whose joins are split between the chunks.
+     * @param profile The profile of the level, to record the candidates and the phases of each chunk in.
+     * @return A store of L_k, the frequent itemsets of all chunks, in the order the chunks were generated in. **/
+    private CandidateStore countInChunks(CandidateStore frequent, CandidateJoin join, int numOfChunks, ExecutorService pool,
+            int absoluteMinSupport, int maxBucketSize, int childrenPerNode, LevelProfile profile, Consumer<CandidateStore> count) {
+        List<ItemSet> frequentItemSets = new ArrayList<ItemSet>();
+        
+        for (int chunk = 0; chunk < numOfChunks; chunk++) {
+            CandidateStore candidates = frequent.generateNextCandidates(join, chunk, numOfChunks, pool, numOfThreads);
+            profile.addCandidates(0, candidates.toArray().size());
+            addShape(profile, candidates);
+            profile.endGenerate();
+            count.accept(candidates);
+            profile.endCount();
+            candidates.removeNoMinSupport();
+            frequentItemSets.addAll(candidates.toArray());
+            profile.endFilter();
         }
+        return newStore(frequent.getNumberOfItemsPerItemSet()+1, frequentItemSets, absoluteMinSupport, maxBucketSize, childrenPerNode);
+    }
+    
+    /** Stops the clock of the given level, whose frequent itemsets are in the given store, and keeps its profile. **/
+    private void finishLevel(LevelProfile profile, CandidateStore frequent) {
+        profile.finish(frequent.toArray().size());
+        profiles.add(profile);
+    }
+    
+    /** @return The metrics of each level of the last run, from the candidate 1-itemsets on, in the order of the levels.
+     * The last level is the one whose candidates were all infrequent. **/
+    public List<LevelProfile> getProfiles() {
+        if (profiles == null)
+            throw new RuntimeException("The algorithm must be run before the level profiles can be accessed.");
+        return profiles;
+    }
+    
+    /** @return The number of chunks the candidates of each level were generated and counted in by the last run, from
+     * the candidate 2-itemsets on, in the order of the levels. **/
+    public List<Integer> getCandidateChunks() {
+        List<Integer> candidateChunks = new ArrayList<Integer>();
+        for (LevelProfile profile : getProfiles().subList(1, getProfiles().size()))
+            candidateChunks.add(profile.getNumberOfChunks());
+        return candidateChunks;
+    }
+    
+    /** @return Which of the given number of item codes are the code of an item in one of the itemsets of the given store. **/
+    private static boolean[] itemsIn(CandidateStore itemSets, int numOfItems) {
+        boolean[] isIn = new boolean[numOfItems];
+        for (ItemSet itemSet : itemSets.toArray())
+            for (Item item : itemSet)
+                isIn[((EncodedItem)item).getCode()] = true;
+        return isIn;
+    }
+    
+    /** Reduces the working set of transactions before the candidate k-itemsets are counted.
+     * Items that are in no candidate are stripped, then transactions with fewer than k items left are removed.
+     * So are transactions in which the last pass found fewer than k candidate (k-1)-itemsets, since a k-itemset
+     * can only be frequent if all k of its (k-1)-subsets are.
+     * @param keepItem Whether each item code is in a candidate k-itemset.
+     * @param previousMatches The number of candidates found in each transaction by the last pass, or null if unknown. **/
+    private void reduce(TransactionDatabase workingSet, int k, boolean[] keepItem, int[] previousMatches) {
+        boolean[] keepTransaction = null;
+        
+        if (previousMatches != null) {
+            keepTransaction = new boolean[workingSet.size()];
+            for (int t = 0; t < keepTransaction.length; t++)
+                keepTransaction[t] = (previousMatches[t] >= k);
+        }
+        
+        int oldSize = workingSet.size();
+        int oldLength = workingSet.getTotalLength();
+        workingSet.reduce(keepItem, keepTransaction, k);
+        
+        int removedTransactions = oldSize - workingSet.size();
+        int removedItems = oldLength - workingSet.getTotalLength();
+        if (printProgress)
+            System.out.format("Reduced transactions for C_%d: removed %d transactions and %d items (%d bytes), %d transactions left%n%n",
+                k, removedTransactions, removedItems, (removedTransactions + removedItems) * Integer.BYTES, workingSet.size());
+    }
+    
+    /** Estimates the size of the table of candidate IDs the next pass would record, as AprioriHybrid does: by the size
+     * the table of the given candidates would have, which is known from their frequency counts once they are counted.
+     * @return The estimated size, in bytes. **/
+    private long estimateCandidateIdsSize(CandidateStore countedCandidates, int numOfTransactions) {
+        long totalLength = 0;
+        for (ItemSet candidate : countedCandidates.toArray())
+            totalLength += candidate.getFrequency();
+        return CandidateIdTable.estimateSizeInBytes(numOfTransactions, totalLength);
+    }
+    
+    /** @return The given fraction of the free heap, in bytes: how much a table of candidate IDs may take for AprioriHybrid
+     * to switch to it, or the matrix of pair counts may take to be used. **/
+    static long memoryBudget(double fraction) {
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return (long)(freeMemory * fraction);
+    }
+    
+    /** Prints the size of a table of candidate IDs after counting the given candidates with it. **/
+    private void printCandidateIds(CandidateIdTable candidateIds, CandidateStore candidates) {
+        if (printProgress)
+            System.out.format("Candidate IDs for C_%d: %d IDs in %d transactions (%d bytes)%n%n", candidates.getNumberOfItemsPerItemSet(),
+                candidateIds.getTotalLength(), candidateIds.size(), candidateIds.getSizeInBytes());
     }
     
     /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
     public List<ItemSet> getFrequentKItemSets(int k) {
         List<ItemSet> itemSets = new ArrayList<ItemSet>();
-        itemSets.addAll(this.hashTrees.get(k-1).toArray()); // k-itemset tree is at index k-1
+        itemSets.addAll(this.levels.get(k-1).toArray()); // k-itemset level is at index k-1
         return itemSets;
     }
     
     /** @return A list of all frequent itemsets of any length **/
+    @Override
     public List<ItemSet> getAllFrequentItemSets() {
         List<ItemSet> itemSets = new ArrayList<ItemSet>();
         
-        for (HashTree tree : hashTrees)
-            itemSets.addAll(tree.toArray());
+        for (CandidateStore level : levels)
+            itemSets.addAll(level.toArray());
         
         return itemSets;
     }
     
+    /** @return A sorted list of the stores of frequent itemsets of every level found by the algorithm, which are hash
+     * trees or prefix tries as set by setCandidateStore(String). **/
+    public List<CandidateStore> getLevels() {
+        if (levels == null)
+            throw new RuntimeException("The algorithm must be run before the levels can be accessed.");
+        return levels;
+    }
+    
     /** @return A sorted list of all hash trees (containing frequent itemsets) generated by the algorithm. **/
     public List<HashTree> getHashTrees() {
-        if (hashTrees == null)
-            throw new RuntimeException("The algorithm must be run before the hash trees can be accessed.");
+        List<HashTree> hashTrees = new ArrayList<HashTree>();
+        for (CandidateStore level : getLevels()) {
+            if (!(level instanceof HashTree))
+                throw new RuntimeException("The frequent itemsets were kept in prefix tries, not hash trees.");
+            hashTrees.add((HashTree)level);
+        }
         return hashTrees;
     }
 
@@ -0,0 +1,75 @@
+package domain.apriori;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * An association rule X => Y between two disjoint frequent itemsets, derived
+ * from the frequent itemset X u Y. Its support is that of X u Y, its
+ * confidence is the fraction of the transactions containing X that also
+ * contain Y, and its lift is its confidence relative to the support of Y
+ * alone, so a lift above 1 means X and Y occur together more often than if
+ * they were independent.
+ *
+ * The items of each side are kept in arrays, in item order, rather than in
+ * ItemSets, since there can be millions of rules.
+ */
+public class AssociationRule {
+
+    private final Item[] antecedent;
+    private final Item[] consequent;
+    private final int support;
+    private final double confidence;
+    private final double lift;
+
+    public AssociationRule(Item[] antecedent, Item[] consequent, int support, double confidence, double lift) {
+        if (antecedent.length == 0 || consequent.length == 0)
+            throw new IllegalArgumentException("Both sides of an association rule must have items");
+        this.antecedent = antecedent;
+        this.consequent = consequent;
+        this.support = support;
+        this.confidence = confidence;
+        this.lift = lift;
+    }
+
+    /** @return The items of the left-hand side X of this rule, in item order. **/
+    public List<Item> getAntecedent() {
+        return Collections.unmodifiableList(Arrays.asList(antecedent));
+    }
+
+    /** @return The items of the right-hand side Y of this rule, in item order. **/
+    public List<Item> getConsequent() {
+        return Collections.unmodifiableList(Arrays.asList(consequent));
+    }
+
+    /** @return The number of occurrences of all items of the rule together, i.e. the frequency count of X u Y. **/
+    public int getSupport() {
+        return support;
+    }
+
+    /** @return The support of X u Y divided by the support of X. **/
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /** @return The confidence of this rule divided by the relative support of Y. **/
+    public double getLift() {
+        return lift;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        for (Item item : antecedent)
+            result.append(' ').append(item.toString());
+        result.append(" } => {");
+        for (Item item : consequent)
+            result.append(' ').append(item.toString());
+        result.append(" }");
+        result.append(String.format(Locale.ROOT, " (support: %d, confidence: %.4f, lift: %.4f)", support, confidence, lift));
+        return result.toString();
+    }
+
+}
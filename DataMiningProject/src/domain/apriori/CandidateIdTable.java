@@ -0,0 +1,173 @@
+package domain.apriori;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The encoded transactions used by AprioriTid in place of the raw
+ * transactions (the set called C-bar k in the AprioriTid paper): for each
+ * transaction, the IDs of the candidate k-itemsets it contains. A candidate's
+ * ID is its index in the list of candidates it was counted with.
+ *
+ * Like TransactionDatabase, the IDs of all transactions are stored back to
+ * back in a single int array, with the IDs of transaction t running from
+ * offsets[t] (inclusive) to offsets[t+1] (exclusive). Transactions that
+ * contain no candidate are left out, so the table shrinks from level to
+ * level as candidates become longer and rarer. Each transaction keeps the
+ * weight it had in the TransactionDatabase, which is added to the count of
+ * every candidate it contains.
+ */
+final class CandidateIdTable {
+
+    private final int[] ids;
+    private final int[] offsets;
+    private final int[] weights;
+    private final int numOfTransactions;
+    private final int numOfCandidates;
+
+    private CandidateIdTable(int[] ids, int[] offsets, int[] weights, int numOfTransactions, int numOfCandidates) {
+        this.ids = ids;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.numOfTransactions = numOfTransactions;
+        this.numOfCandidates = numOfCandidates;
+    }
+
+    /** @return A table holding the given candidate IDs of each transaction, leaving out transactions without any.
+     * @param transactionWeights The weight of each transaction.
+     * @param numOfCandidates The number of candidates the IDs refer to. **/
+    static CandidateIdTable of(int[][] idsPerTransaction, int[] transactionWeights, int numOfCandidates) {
+        int numOfTransactions = 0;
+        int totalLength = 0;
+        for (int[] transactionIds : idsPerTransaction) {
+            if (transactionIds.length > 0) {
+                numOfTransactions++;
+                totalLength += transactionIds.length;
+            }
+        }
+
+        int[] ids = new int[totalLength];
+        int[] offsets = new int[numOfTransactions+1];
+        int[] weights = new int[numOfTransactions];
+        int t = 0;
+        for (int i = 0; i < idsPerTransaction.length; i++) {
+            int[] transactionIds = idsPerTransaction[i];
+            if (transactionIds.length > 0) {
+                System.arraycopy(transactionIds, 0, ids, offsets[t], transactionIds.length);
+                offsets[t+1] = offsets[t] + transactionIds.length;
+                weights[t] = transactionWeights[i];
+                t++;
+            }
+        }
+
+        return new CandidateIdTable(ids, offsets, weights, numOfTransactions, numOfCandidates);
+    }
+
+    /** @return The number of transactions in this table, which all contain at least one candidate. **/
+    int size() {
+        return numOfTransactions;
+    }
+
+    /** @return The total number of candidate IDs stored in this table. **/
+    int getTotalLength() {
+        return offsets[numOfTransactions];
+    }
+
+    /** @return The approximate number of bytes this table takes. **/
+    long getSizeInBytes() {
+        return (long)(ids.length + offsets.length + weights.length) * Integer.BYTES;
+    }
+
+    /** @return The approximate number of bytes a table of candidate IDs takes, given its number of transactions
+     * and the total number of IDs, which is at most the sum of the frequency counts of the candidates it refers to. **/
+    static long estimateSizeInBytes(long numOfTransactions, long totalLength) {
+        return (2*numOfTransactions + 1 + totalLength) * Integer.BYTES;
+    }
+
+    /** Counts the given candidate (k+1)-itemsets using this table of candidate k-itemsets instead of the transactions.
+     * Every candidate was generated by joining two k-itemsets: itself without its last item, and itself without its
+     * second to last item. Both are among the k-itemsets this table refers to, and a transaction contains the candidate
+     * exactly when it contains both of them, so only the IDs of this table need to be read.
+     * @param candidates The candidate (k+1)-itemsets, which are given their index in this list as ID.
+     * @param frequentItemSets The frequent k-itemsets, still holding the IDs they were counted with in this table.
+     * @return The table of the given candidates, for counting the level after them. **/
+    CandidateIdTable countCandidates(List<ItemSet> candidates, List<ItemSet> frequentItemSets) {
+        // find the two k-itemsets each candidate was generated from, by their IDs
+        Map<ItemSetKey, ItemSet> generators = new HashMap<ItemSetKey, ItemSet>();
+        for (ItemSet itemSet : frequentItemSets)
+            generators.put(new ItemSetKey(itemSet), itemSet);
+
+        int[] firstGenerator = new int[candidates.size()];
+        int[] secondGenerator = new int[candidates.size()];
+        for (int c = 0; c < candidates.size(); c++) {
+            candidates.get(c).setIndex(c);
+            int[] codes = new ItemSetKey(candidates.get(c)).getCodes();
+            firstGenerator[c] = generatorId(generators, codes, codes.length-1);
+            secondGenerator[c] = generatorId(generators, codes, codes.length-2);
+        }
+
+        // group the candidates by their first generator, so each ID of a transaction leads to the candidates it can extend to
+        int[] extensionOffsets = new int[numOfCandidates+1];
+        for (int c = 0; c < candidates.size(); c++)
+            extensionOffsets[firstGenerator[c]+1]++;
+        for (int id = 0; id < numOfCandidates; id++)
+            extensionOffsets[id+1] += extensionOffsets[id];
+        int[] extensions = new int[candidates.size()];
+        int[] nextExtension = Arrays.copyOf(extensionOffsets, numOfCandidates);
+        for (int c = 0; c < candidates.size(); c++)
+            extensions[nextExtension[firstGenerator[c]]++] = c;
+
+        int[] counts = new int[candidates.size()];
+        int[] lastSeenIn = new int[numOfCandidates]; // the last transaction each ID was seen in, plus one
+        int[] newIds = new int[Math.max(16, getTotalLength())];
+        int[] newOffsets = new int[numOfTransactions+1];
+        int[] newWeights = new int[numOfTransactions];
+        int newSize = 0;
+
+        for (int t = 0; t < numOfTransactions; t++) {
+            for (int i = offsets[t]; i < offsets[t+1]; i++)
+                lastSeenIn[ids[i]] = t+1;
+
+            int newEnd = newOffsets[newSize];
+            for (int i = offsets[t]; i < offsets[t+1]; i++) {
+                for (int e = extensionOffsets[ids[i]]; e < extensionOffsets[ids[i]+1]; e++) {
+                    int c = extensions[e];
+                    if (lastSeenIn[secondGenerator[c]] == t+1) {
+                        counts[c] += weights[t];
+                        if (newEnd == newIds.length)
+                            newIds = Arrays.copyOf(newIds, newIds.length*2);
+                        newIds[newEnd++] = c;
+                    }
+                }
+            }
+
+            if (newEnd > newOffsets[newSize]) {
+                newWeights[newSize] = weights[t];
+                newOffsets[++newSize] = newEnd;
+            }
+        }
+
+        for (int c = 0; c < counts.length; c++)
+            candidates.get(c).incFrequency(counts[c]);
+
+        return new CandidateIdTable(Arrays.copyOf(newIds, newOffsets[newSize]), Arrays.copyOf(newOffsets, newSize+1),
+                Arrays.copyOf(newWeights, newSize), newSize, candidates.size());
+    }
+
+    /** @return The ID of the frequent itemset made of the given codes without the code at index skip. **/
+    private static int generatorId(Map<ItemSetKey, ItemSet> generators, int[] codes, int skip) {
+        ItemSetKey key = new ItemSetKey(codes.length-1);
+        for (int i = 0, j = 0; i < codes.length; i++)
+            if (i != skip)
+                key.getCodes()[j++] = codes[i];
+        key.rehash();
+
+        ItemSet generator = generators.get(key);
+        if (generator == null)
+            throw new IllegalArgumentException("A candidate was not generated from the given frequent itemsets");
+        return generator.getIndex();
+    }
+
+}
@@ -0,0 +1,142 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * The self-join of the frequent k-itemsets of a level, which generates the
+ * candidate (k+1)-itemsets of the next. The itemsets are sorted by item and
+ * grouped by their first k-1 items, and every pair of itemsets (i, j) with
+ * i < j in a group is joined. The joins are numbered in that order, group by
+ * group and i by i, so any range of them can be generated on its own: a
+ * level can be split into chunks with about as many joins each, even when a
+ * single group holds most of them, as the one group of L_1 holds all of C_2.
+ *
+ * The sorted itemsets, their codes and the ItemSetIndex the candidates are
+ * pruned with are made once, and shared by every range that is joined.
+ */
+final class CandidateJoin {
+
+    private final int k; // the length of the itemsets joined
+    private final ItemSet[] itemSets; // sorted by item
+    private final int[][] codes; // the item codes of each itemset
+    private final int[] groupStarts; // the index of the first itemset of each group, followed by the number of itemsets
+    private final long[] joinStarts; // the number of joins before each group, followed by the number of joins
+    private final ItemSetIndex frequentSubsets;
+
+    /** Prepares the self-join of the given k-itemsets. **/
+    CandidateJoin(List<ItemSet> itemSets, int k) {
+        this.k = k;
+        this.itemSets = itemSets.toArray(new ItemSet[0]);
+        this.codes = new int[this.itemSets.length][];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = new ItemSetKey(this.itemSets[i]).getCodes();
+        sortByItems();
+
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < codes.length; i++) {
+            boolean samePrefix = (i > 0);
+            for (int j = 0; samePrefix && j < k-1; j++)
+                samePrefix = (codes[i][j] == codes[i-1][j]);
+            if (!samePrefix)
+                starts.add(i);
+        }
+        starts.add(codes.length);
+
+        this.groupStarts = new int[starts.size()];
+        this.joinStarts = new long[starts.size()];
+        for (int g = 0; g < groupStarts.length; g++)
+            groupStarts[g] = starts.get(g);
+        for (int g = 0; g < groupStarts.length-1; g++) {
+            long size = groupStarts[g+1] - groupStarts[g];
+            joinStarts[g+1] = joinStarts[g] + size * (size-1) / 2;
+        }
+        this.frequentSubsets = new ItemSetIndex(Arrays.asList(this.itemSets), k);
+    }
+
+    /** @return The number of joins, which is the number of candidates generated before any are pruned, and so a bound
+     * on how many are generated. **/
+    long getNumberOfJoins() {
+        return joinStarts[joinStarts.length-1];
+    }
+
+    /** @return The first join of the given part, when the joins are split into the given number of parts with about as
+     * many joins each. Part numOfParts starts just past the last join. **/
+    long partStart(int part, int numOfParts) {
+        long numOfJoins = getNumberOfJoins();
+        return numOfJoins / numOfParts * part + numOfJoins % numOfParts * part / numOfParts;
+    }
+
+    /** Generates the candidates of the joins from the given one (inclusive) to the given one (exclusive), passing each
+     * candidate whose k-subsets are all among the itemsets joined to the consumer. **/
+    void join(long from, long to, Consumer<ItemSet> consumer) {
+        int[] candidateCodes = new int[k+1];
+
+        for (int g = firstGroupEndingAfter(from); g < groupStarts.length-1 && joinStarts[g] < to; g++) {
+            int groupEnd = groupStarts[g+1];
+            long rowStart = joinStarts[g]; // the number of the join of itemset i with itemset i+1
+
+            // the itemsets are sorted, so the last item of the first itemset comes before the last item of the second
+            for (int i = groupStarts[g]; i < groupEnd-1 && rowStart < to; rowStart += groupEnd-i-1, i++) {
+                long rowEnd = rowStart + groupEnd-i-1;
+                if (rowEnd <= from)
+                    continue;
+                System.arraycopy(codes[i], 0, candidateCodes, 0, k);
+                int lastJ = i+1 + (int)(Math.min(to, rowEnd) - rowStart);
+
+                for (int j = i+1 + (int)Math.max(0, from - rowStart); j < lastJ; j++) {
+                    candidateCodes[k] = codes[j][k-1];
+
+                    // the subsets without the last or second to last item are the two itemsets joined; check the rest
+                    boolean allSubsetsFrequent = true;
+                    for (int skip = 0; skip < k-1 && allSubsetsFrequent; skip++)
+                        allSubsetsFrequent = frequentSubsets.containsWithout(candidateCodes, skip);
+
+                    if (allSubsetsFrequent) {
+                        ItemSet newItemSet = new ItemSet(itemSets[i]);
+                        newItemSet.add(itemSets[j].last());
+                        consumer.accept(newItemSet);
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return The first group whose joins end after the given join, or the number of groups if there is none. **/
+    private int firstGroupEndingAfter(long join) {
+        int low = 0;
+        int high = groupStarts.length-1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (joinStarts[middle+1] <= join)
+                low = middle+1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /** Sorts the itemsets by item, along with the parallel array of their item codes. **/
+    private void sortByItems() {
+        Integer[] order = new Integer[itemSets.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Arrays.sort(order, (Integer a, Integer b) -> {
+            for (int i = 0; i < k; i++)
+                if (codes[a][i] != codes[b][i])
+                    return Integer.compare(codes[a][i], codes[b][i]);
+            return 0;
+        });
+
+        ItemSet[] unsortedItemSets = itemSets.clone();
+        int[][] unsortedCodes = codes.clone();
+        for (int i = 0; i < order.length; i++) {
+            itemSets[i] = unsortedItemSets[order[i]];
+            codes[i] = unsortedCodes[order[i]];
+        }
+    }
+
+}
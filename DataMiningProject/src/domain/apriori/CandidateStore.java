@@ -0,0 +1,112 @@
+package domain.apriori;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * A structure that holds the k-itemsets of a level: the candidates are
+ * generated into it from the frequent itemsets of the level before, counted
+ * in it, and pruned to the frequent itemsets it then keeps. Counting
+ * increases the frequency counts of the candidate ItemSets themselves.
+ */
+public interface CandidateStore {
+    
+    /** Work is split into more chunks than workers to balance their load. **/
+    public static final int CHUNKS_PER_WORKER = 8;
+    
+    /** Adds the counts of the candidates contained in a range of transactions to an array indexed by candidate. **/
+    @FunctionalInterface
+    public interface RangeCounter {
+        public void count(int start, int end, int[] counts);
+    }
+    
+    /** @return k for a store of candidate k-itemsets. **/
+    public int getNumberOfItemsPerItemSet();
+    
+    /** @return True if this store holds no itemsets. **/
+    public boolean isEmpty();
+    
+    /** @return The self-join of the itemsets of this store that generates the candidate (k+1)-itemsets, with the
+     * itemsets sorted and grouped once, so that it can generate the candidates in parts, and tell how many joins it
+     * takes before any candidate is generated. **/
+    public default CandidateJoin prepareJoin() {
+        return new CandidateJoin(toArray(), getNumberOfItemsPerItemSet());
+    }
+    
+    /** Generates the candidates of the given run of joins of the given self-join of this store's itemsets into a new
+     * store of the same kind. The joins are split into numOfRuns runs with about as many joins each, so every candidate
+     * is generated by exactly one of the runs, and each run's share is joined by the given number of workers on the
+     * given thread pool, or on the calling thread if the pool is null.
+     * @param run The run to generate the candidates of, from 0 (inclusive) to numOfRuns (exclusive).
+     * @return The new store of the run's candidate (k+1)-itemsets, already pruned of those with an infrequent k-subset. **/
+    public CandidateStore generateNextCandidates(CandidateJoin join, int run, int numOfRuns, ExecutorService pool, int numOfWorkers);
+    
+    /** Finds all candidate itemsets in the given transactions and increases their frequency counts, on the given number
+     * of workers on the given thread pool, or on the calling thread if the pool is null.
+     * @param matches If not null, the number of candidates found in each transaction is stored in this array. **/
+    public void countCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches);
+    
+    /** Counts the candidates like countCandidates(TransactionDatabase, ExecutorService, int, int[]), also recording
+     * which candidates each transaction contains, so that AprioriTid can count the next level without the transactions.
+     * @return The candidates found in each transaction, identified by their index in toArray(). **/
+    public CandidateIdTable countAndRecordCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers,
+            int[] matches);
+    
+    /** Counts the given number of candidates in the given number of transactions with the given counter. The transactions
+     * are split into chunks, which the given number of workers take turns claiming on the given thread pool. Each worker
+     * counts into its own array, and the arrays are merged once every worker is done. If the pool is null, all
+     * transactions are counted on the calling thread.
+     * @return The counts of the candidates, indexed by candidate. **/
+    public default int[] countInChunks(int numOfTransactions, int numOfCandidates, ExecutorService pool, int numOfWorkers,
+            RangeCounter counter) {
+        int[] counts = new int[numOfCandidates];
+        if (pool == null || numOfWorkers <= 1) {
+            counter.count(0, numOfTransactions, counts);
+            return counts;
+        }
+        
+        int chunkSize = Math.max(1, numOfTransactions / (numOfWorkers * CHUNKS_PER_WORKER));
+        AtomicInteger nextChunkStart = new AtomicInteger(0);
+        List<Future<int[]>> workerCounts = new ArrayList<Future<int[]>>();
+        
+        for (int w = 0; w < numOfWorkers; w++) {
+            workerCounts.add(pool.submit(() -> {
+                int[] chunkCounts = new int[numOfCandidates];
+                for (int start; (start = nextChunkStart.getAndAdd(chunkSize)) < numOfTransactions; )
+                    counter.count(start, Math.min(start + chunkSize, numOfTransactions), chunkCounts);
+                return chunkCounts;
+            }));
+        }
+        
+        try {
+            for (Future<int[]> future : workerCounts) {
+                int[] chunkCounts = future.get();
+                for (int i = 0; i < counts.length; i++)
+                    counts[i] += chunkCounts[i];
+            }
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Counting candidates failed", e); }
+        return counts;
+    }
+    
+    /** Removes all itemsets that have a frequency count lower than minimum support, leaving the frequent itemsets.
+     * @return True if removal leaves this store empty. False otherwise. **/
+    public boolean removeNoMinSupport();
+    
+    /** @return The itemsets of this store. **/
+    public List<ItemSet> toArray();
+    
+    /** Calls the given action on every itemset in this store, in the order of toArray(), without collecting them. **/
+    public void forEachItemSet(Consumer<ItemSet> action);
+    
+    /** Writes the itemsets of this store to the given output, after a title naming the level, the way toString() shows
+     * them, without building the text in memory first. **/
+    public void writeTree(Appendable out) throws IOException;
+
+}
@@ -0,0 +1,358 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Finds frequent itemsets with the Eclat algorithm. The transactions are
+ * turned into a vertical layout once: for every frequent item, the set of
+ * transactions (tid-list) it occurs in. The support of a larger itemset is
+ * then found by intersecting the tid-lists of two of its subsets, exploring
+ * the itemsets depth-first, one prefix (equivalence class) at a time.
+ *
+ * With diffsets enabled (dEclat), the members of a class below the first
+ * level store the tids their prefix has but they lack, instead of their
+ * own tids. On dense data these differences are much smaller than the
+ * tid-lists themselves.
+ *
+ * Instead of every frequent itemset, only the closed ones (those with no
+ * superset of the same support) or only the maximal ones (those with no
+ * frequent superset) can be mined, pruning the search as it goes rather
+ * than filtering the full result. Closed itemsets are mined as CHARM (Zaki
+ * and Hsiao) does: when extending X by Y does not lower the support of X,
+ * Y is added to X itself, and Y is dropped from the class if it has the
+ * same tids, so the subtrees of non-closed itemsets are never explored.
+ * Maximal itemsets are mined depth first with the lookahead of GenMax and
+ * MAFIA: a class is skipped when its prefix plus all of its members is a
+ * subset of a maximal itemset already found, and a member whose tids
+ * contain those of the prefix is moved into the prefix (parent equivalence
+ * pruning). Both check a new itemset against those found before it, which
+ * are indexed by item for superset lookups.
+ */
+public class Eclat implements FrequentItemSetMiner {
+    public static final String ITEMSETS_ALL = "all"; // every frequent itemset
+    public static final String ITEMSETS_CLOSED = "closed"; // frequent itemsets with no superset of the same support
+    public static final String ITEMSETS_MAXIMAL = "maximal"; // frequent itemsets with no frequent superset
+
+    private List<List<ItemSet>> frequentItemSets; // frequent k-itemsets are at index k-1
+    private TransactionDatabase transactions;
+    private int absoluteMinSupport;
+    private boolean useDiffsets = false;
+    private String itemSetMode = ITEMSETS_ALL;
+    private FoundItemSets found; // the closed or maximal itemsets found so far, in those modes
+
+    private static Eclat eclat; // singleton
+
+    private Eclat() {
+    }
+
+    public static Eclat getEclat() {
+        if (eclat == null)
+            eclat = new Eclat();
+        return eclat;
+    }
+
+    /** Sets whether diffsets are used instead of tid-lists below the first level of the search. **/
+    public void setUseDiffsets(boolean useDiffsets) {
+        this.useDiffsets = useDiffsets;
+    }
+
+    /** Sets which frequent itemsets are mined: ITEMSETS_ALL, ITEMSETS_CLOSED or ITEMSETS_MAXIMAL. **/
+    public void setItemSetMode(String itemSetMode) {
+        if (!itemSetMode.equals(ITEMSETS_ALL) && !itemSetMode.equals(ITEMSETS_CLOSED) && !itemSetMode.equals(ITEMSETS_MAXIMAL))
+            throw new IllegalArgumentException("Unrecognized itemset mode: " + itemSetMode);
+        this.itemSetMode = itemSetMode;
+    }
+
+    /**
+     * Runs the Eclat algorithm on the given encoded transactions.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        this.transactions = transactions;
+        this.absoluteMinSupport = absoluteMinSupport;
+        this.frequentItemSets = new ArrayList<List<ItemSet>>();
+
+        List<ClassMember> items = buildTidSets(transactions);
+
+        // extending the least frequent items first keeps the tid-lists being intersected small
+        items.sort((ClassMember a, ClassMember b) -> (a.support != b.support)
+                ? Integer.compare(a.support, b.support) : Integer.compare(a.code, b.code));
+
+        int[] prefix = new int[items.size()];
+        if (itemSetMode.equals(ITEMSETS_CLOSED)) {
+            found = new FoundItemSets(transactions.getNumberOfItems());
+            mineClosed(items, prefix, 0, false);
+        } else if (itemSetMode.equals(ITEMSETS_MAXIMAL)) {
+            found = new FoundItemSets(transactions.getNumberOfItems());
+            mineMaximal(items, prefix, 0, false);
+        } else
+            mine(items, prefix, 0, false);
+        found = null;
+    }
+
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.frequentItemSets.get(k-1));
+    }
+
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+
+        for (List<ItemSet> kItemSets : frequentItemSets)
+            itemSets.addAll(kItemSets);
+
+        return itemSets;
+    }
+
+    /** @return A class member holding the tid-list of every frequent item in the given transactions. **/
+    private List<ClassMember> buildTidSets(TransactionDatabase transactions) {
+        int[] itemCounts = transactions.countItems();
+        TidSet[] tids = TidSet.ofItems(transactions, itemCounts, absoluteMinSupport);
+
+        List<ClassMember> members = new ArrayList<ClassMember>();
+        for (int code = 0; code < itemCounts.length; code++)
+            if (tids[code] != null)
+                members.add(new ClassMember(code, tids[code], itemCounts[code]));
+
+        return members;
+    }
+
+    /** Finds every frequent itemset made of the given prefix plus one or more of the items of its equivalence class.
+     * @param members The frequent items that extend the prefix, in the order they are to be explored.
+     * @param prefix The item codes of the prefix, followed by room for more items.
+     * @param diffsets True if the members hold diffsets. False if they hold tid-lists. **/
+    private void mine(List<ClassMember> members, int[] prefix, int prefixLength, boolean diffsets) {
+        for (int i = 0; i < members.size(); i++) {
+            ClassMember member = members.get(i);
+            prefix[prefixLength] = member.code;
+            addFrequentItemSet(prefix, prefixLength+1, member.support);
+
+            // build the class of the prefix extended by this member, from the members after it
+            List<ClassMember> newMembers = new ArrayList<ClassMember>();
+            for (int j = i+1; j < members.size(); j++) {
+                ClassMember extended = extend(member, members.get(j), diffsets);
+                if (extended.support >= absoluteMinSupport)
+                    newMembers.add(extended);
+            }
+
+            if (!newMembers.isEmpty())
+                mine(newMembers, prefix, prefixLength+1, useDiffsets);
+        }
+    }
+
+    /** Finds every closed frequent itemset made of the given prefix plus one or more of the items of its equivalence
+     * class, as CHARM does. Items whose tids contain those of the prefix and a member are added to the prefix instead
+     * of being explored, and a closed itemset is only kept if no closed itemset found before is a superset with the
+     * same support.
+     * @see #mine(List, int[], int, boolean) **/
+    private void mineClosed(List<ClassMember> members, int[] prefix, int prefixLength, boolean diffsets) {
+        boolean[] removed = new boolean[members.size()];
+
+        for (int i = 0; i < members.size(); i++) {
+            if (removed[i])
+                continue;
+            ClassMember member = members.get(i);
+            prefix[prefixLength] = member.code;
+            int length = prefixLength+1;
+
+            List<ClassMember> newMembers = new ArrayList<ClassMember>();
+            for (int j = i+1; j < members.size(); j++) {
+                if (removed[j])
+                    continue;
+                ClassMember other = members.get(j);
+                ClassMember extended = extend(member, other, diffsets);
+                if (extended.support < absoluteMinSupport)
+                    continue;
+
+                boolean containsMember = (extended.support == member.support); // t(PX) is a subset of t(PY)
+                boolean containsOther = (extended.support == other.support); // t(PY) is a subset of t(PX)
+                if (containsMember) {
+                    prefix[length++] = other.code; // every transaction with PX has Y, so Y is in the closure of PX
+                    removed[j] = containsOther; // PY has the same tids as PX, so it has the same closure
+                } else if (containsOther) {
+                    removed[j] = true; // every transaction with PY has X, so PY is not closed
+                    newMembers.add(extended);
+                } else
+                    newMembers.add(extended);
+            }
+
+            if (!newMembers.isEmpty()) {
+                newMembers.sort((ClassMember a, ClassMember b) -> Integer.compare(a.support, b.support));
+                mineClosed(newMembers, prefix, length, useDiffsets);
+            }
+
+            if (!found.hasSuperset(prefix, length, member.support))
+                addFoundItemSet(prefix, length, member.support);
+        }
+    }
+
+    /** Finds every maximal frequent itemset made of the given prefix plus one or more of the items of its equivalence
+     * class. The class is skipped if the prefix plus all of its members is a subset of a maximal itemset found before,
+     * members whose tids contain those of the prefix and another member are added to the prefix instead of being
+     * explored, and an itemset with no frequent extension is only kept if it is not a subset of a maximal itemset
+     * found before.
+     * @see #mine(List, int[], int, boolean) **/
+    private void mineMaximal(List<ClassMember> members, int[] prefix, int prefixLength, boolean diffsets) {
+        int[] lookahead = Arrays.copyOf(prefix, prefixLength + members.size());
+        for (int i = 0; i < members.size(); i++)
+            lookahead[prefixLength+i] = members.get(i).code;
+        if (found.hasSuperset(lookahead, lookahead.length, -1))
+            return;
+
+        for (int i = 0; i < members.size(); i++) {
+            ClassMember member = members.get(i);
+            prefix[prefixLength] = member.code;
+            int length = prefixLength+1;
+
+            List<ClassMember> newMembers = new ArrayList<ClassMember>();
+            for (int j = i+1; j < members.size(); j++) {
+                ClassMember other = members.get(j);
+                ClassMember extended = extend(member, other, diffsets);
+                if (extended.support < absoluteMinSupport)
+                    continue;
+                if (extended.support == member.support)
+                    prefix[length++] = other.code; // every transaction with PX has Y, so every maximal superset of PX has Y
+                else
+                    newMembers.add(extended);
+            }
+
+            if (!newMembers.isEmpty()) {
+                newMembers.sort((ClassMember a, ClassMember b) -> Integer.compare(a.support, b.support));
+                mineMaximal(newMembers, prefix, length, useDiffsets);
+            } else if (!found.hasSuperset(prefix, length, -1))
+                addFoundItemSet(prefix, length, member.support);
+        }
+    }
+
+    /** @return The class member for the prefix extended by the given member and then by the given other member, with
+     * its tid-list (or diffset) and support, which may be below minimum support.
+     * @param diffsets True if the given members hold diffsets. False if they hold tid-lists. **/
+    private ClassMember extend(ClassMember member, ClassMember other, boolean diffsets) {
+        int numOfTransactions = transactions.size();
+        int[] weights = transactions.getWeights();
+        TidSet tids;
+        int support;
+
+        if (diffsets) { // d(PXY) = d(PY) - d(PX)
+            tids = other.tids.subtract(member.tids, numOfTransactions, weights);
+            support = member.support - tids.getWeight();
+        } else if (useDiffsets) { // d(XY) = t(X) - t(Y)
+            tids = member.tids.subtract(other.tids, numOfTransactions, weights);
+            support = member.support - tids.getWeight();
+        } else { // t(PXY) = t(PX) intersected with t(PY)
+            tids = member.tids.intersect(other.tids, numOfTransactions, weights);
+            support = tids.getWeight();
+        }
+        return new ClassMember(other.code, tids, support);
+    }
+
+    /** Adds the itemset made of the given item codes, with the given support, to the results. **/
+    private void addFrequentItemSet(int[] codes, int length, int support) {
+        ItemSet itemSet = new ItemSet();
+        for (int i = 0; i < length; i++)
+            itemSet.add(this.transactions.getItem(codes[i]));
+        itemSet.incFrequency(support);
+
+        while (this.frequentItemSets.size() < length)
+            this.frequentItemSets.add(new ArrayList<ItemSet>());
+        this.frequentItemSets.get(length-1).add(itemSet);
+    }
+
+    /** Adds the closed or maximal itemset made of the given item codes, with the given support, to the results and to
+     * the itemsets found so far. **/
+    private void addFoundItemSet(int[] codes, int length, int support) {
+        addFrequentItemSet(codes, length, support);
+        found.add(codes, length, support);
+    }
+
+    /*
+     * The closed or maximal itemsets found so far, as sorted item codes, with
+     * the IDs of the itemsets that contain each item, so that a superset of
+     * an itemset is looked for only among the itemsets containing its rarest
+     * item.
+     */
+    private static class FoundItemSets {
+        private final List<int[]> itemSets = new ArrayList<int[]>();
+        private final List<Integer> supports = new ArrayList<Integer>();
+        private final int[][] containing; // the IDs of the itemsets containing each item code
+        private final int[] numContaining;
+
+        private FoundItemSets(int numOfItems) {
+            this.containing = new int[numOfItems][];
+            this.numContaining = new int[numOfItems];
+        }
+
+        /** Adds the itemset made of the given codes, in any order, with the given support. **/
+        private void add(int[] codes, int length, int support) {
+            int[] sorted = Arrays.copyOf(codes, length);
+            Arrays.sort(sorted);
+            int id = itemSets.size();
+            itemSets.add(sorted);
+            supports.add(support);
+
+            for (int code : sorted) {
+                if (containing[code] == null)
+                    containing[code] = new int[4];
+                else if (numContaining[code] == containing[code].length)
+                    containing[code] = Arrays.copyOf(containing[code], containing[code].length*2);
+                containing[code][numContaining[code]++] = id;
+            }
+        }
+
+        /** @return True if an itemset found so far contains every one of the given codes, in any order, and has the
+         * given support, or any support if the given support is negative. **/
+        private boolean hasSuperset(int[] codes, int length, int support) {
+            int[] sorted = Arrays.copyOf(codes, length);
+            Arrays.sort(sorted);
+
+            int rarest = sorted[0];
+            for (int code : sorted)
+                if (numContaining[code] < numContaining[rarest])
+                    rarest = code;
+
+            for (int i = 0; i < numContaining[rarest]; i++) {
+                int id = containing[rarest][i];
+                if ((support < 0 || supports.get(id) == support) && containsAll(itemSets.get(id), sorted))
+                    return true;
+            }
+            return false;
+        }
+
+        /** @return True if the first sorted array contains every code of the second. **/
+        private static boolean containsAll(int[] itemSet, int[] codes) {
+            int i = 0;
+            for (int code : codes) {
+                while (i < itemSet.length && itemSet[i] < code)
+                    i++;
+                if (i == itemSet.length || itemSet[i] != code)
+                    return false;
+                i++;
+            }
+            return true;
+        }
+    }
+
+    /*
+     * An item extending the prefix of an equivalence class, along with
+     * the tid-list (or diffset) and support of the extended prefix.
+     */
+    private static class ClassMember {
+        private final int code;
+        private final TidSet tids;
+        private final int support;
+
+        private ClassMember(int code, TidSet tids, int support) {
+            this.code = code;
+            this.tids = tids;
+            this.support = support;
+        }
+    }
+
+}
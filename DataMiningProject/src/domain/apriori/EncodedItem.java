@@ -0,0 +1,60 @@
+package domain.apriori;
+
+/*
+ * Represents an item that has been dictionary-encoded by a TransactionDatabase.
+ * Its ID is a dense integer code, assigned in the order of the original items,
+ * so comparing codes gives the same order as comparing the original items.
+ * The original item is only consulted when this item is printed.
+ */
+public class EncodedItem extends Item {
+    
+    private final int code;
+    private final Item decoded;
+
+    public EncodedItem(int code, Item decoded) {
+        super(code, Item.ID_TYPE_INTEGER);
+        if (decoded == null)
+            throw new IllegalArgumentException("Decoded item cannot be null");
+        this.code = code;
+        this.decoded = decoded;
+    }
+    
+    /** @return The dense integer code of this item. **/
+    public int getCode() {
+        return code;
+    }
+    
+    /** @return The original (decoded) item this item was encoded from. **/
+    @Override
+    public Item getDecodedItem() {
+        return decoded;
+    }
+    
+    @Override
+    public Integer getIdForHash() {
+        return (Integer)id;
+    }
+    
+    @Override
+    public int compareTo(Item encodedItem) {
+        return Integer.compare(code, ((EncodedItem)encodedItem).code);
+    }
+    
+    @Override
+    public String toString() {
+        return decoded.toString();
+    }
+    
+    @Override
+    public boolean equals(Object item) {
+        if (!(item instanceof EncodedItem))
+            throw new IllegalArgumentException("EncodedItem.equals: invalid item object");
+        return this.code == ((EncodedItem)item).code;
+    }
+    
+    @Override
+    public int hashCode() {
+        return code;
+    }
+
+}
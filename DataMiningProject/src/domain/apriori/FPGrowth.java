@@ -0,0 +1,149 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Finds frequent itemsets with the FP-growth algorithm. The transactions are
+ * scanned only twice: once to count the items, and once to compress the
+ * transactions into an FP-tree. Frequent itemsets are then grown directly
+ * from the tree by recursively building conditional FP-trees, so no
+ * candidate itemsets are ever generated or counted.
+ */
+public class FPGrowth implements FrequentItemSetMiner {
+    
+    private List<List<ItemSet>> frequentItemSets; // frequent k-itemsets are at index k-1
+    private TransactionDatabase transactions;
+    private int absoluteMinSupport;
+    
+    private static FPGrowth fpGrowth; // singleton
+    
+    private FPGrowth() {
+    }
+    
+    public static FPGrowth getFPGrowth() {
+        if (fpGrowth == null)
+            fpGrowth = new FPGrowth();
+        return fpGrowth;
+    }
+    
+    /**
+     * Runs the FP-growth algorithm on the given encoded transactions.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        this.transactions = transactions;
+        this.absoluteMinSupport = absoluteMinSupport;
+        this.frequentItemSets = new ArrayList<List<ItemSet>>();
+        
+        // first scan: count the items, and order the frequent ones by descending support
+        int[] itemCounts = transactions.countItems();
+        List<Integer> frequentCodes = new ArrayList<Integer>();
+        for (int code = 0; code < itemCounts.length; code++)
+            if (itemCounts[code] >= absoluteMinSupport)
+                frequentCodes.add(code);
+        frequentCodes.sort((Integer a, Integer b) -> (itemCounts[a] != itemCounts[b])
+                ? Integer.compare(itemCounts[b], itemCounts[a]) : Integer.compare(a, b));
+        
+        int[] codes = new int[frequentCodes.size()];
+        int[] supports = new int[frequentCodes.size()];
+        int[] ranks = new int[itemCounts.length];
+        Arrays.fill(ranks, -1);
+        for (int rank = 0; rank < codes.length; rank++) {
+            codes[rank] = frequentCodes.get(rank);
+            supports[rank] = itemCounts[codes[rank]];
+            ranks[codes[rank]] = rank;
+        }
+        
+        // second scan: insert the frequent items of every transaction into the FP-tree, in rank order, as many times as it occurred
+        FPTree tree = new FPTree(codes, supports, transactions.getTotalLength()+1);
+        int[] items = transactions.getItems();
+        int[] path = new int[codes.length];
+        for (int t = 0; t < transactions.size(); t++) {
+            int length = 0;
+            for (int i = transactions.getStart(t); i < transactions.getEnd(t); i++)
+                if (ranks[items[i]] != -1)
+                    path[length++] = ranks[items[i]];
+            Arrays.sort(path, 0, length);
+            tree.insert(path, length, transactions.getWeight(t));
+        }
+        
+        mine(tree, new int[codes.length], 0);
+    }
+    
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.frequentItemSets.get(k-1));
+    }
+    
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+        
+        for (List<ItemSet> kItemSets : frequentItemSets)
+            itemSets.addAll(kItemSets);
+        
+        return itemSets;
+    }
+    
+    /** Finds every frequent itemset made of the given prefix plus one or more items of the given tree.
+     * @param tree The FP-tree conditional on the prefix (the whole FP-tree if the prefix is empty).
+     * @param prefix The item codes of the prefix, followed by room for the items of the tree. **/
+    private void mine(FPTree tree, int[] prefix, int prefixLength) {
+        if (tree.isSinglePath()) {
+            mineSinglePath(tree, tree.getSinglePath(), prefix, prefixLength);
+            return;
+        }
+        
+        // grow the prefix by each item, least frequent first, then mine that item's conditional tree
+        for (int rank = tree.getNumberOfItems()-1; rank >= 0; rank--) {
+            prefix[prefixLength] = tree.getCode(rank);
+            addFrequentItemSet(prefix, prefixLength+1, tree.getSupport(rank));
+            
+            FPTree conditionalTree = tree.conditionalTree(rank, this.absoluteMinSupport);
+            if (conditionalTree != null)
+                mine(conditionalTree, prefix, prefixLength+1);
+        }
+    }
+    
+    /** Adds the prefix plus every combination of the items of a single path tree. The support of each
+     * combination is the count of its deepest node, so no conditional trees need to be built. **/
+    private void mineSinglePath(FPTree tree, int[] path, int[] prefix, int prefixLength) {
+        for (int deepest = 0; deepest < path.length; deepest++) {
+            prefix[prefixLength] = tree.getCode(tree.getRank(path[deepest]));
+            addCombinations(tree, path, deepest, 0, prefix, prefixLength+1, tree.getCount(path[deepest]));
+        }
+    }
+    
+    /** Adds the prefix plus every combination of the path nodes from index from up to (but excluding) index
+     * deepest, all with the given support. The deepest node's item is already at the end of the prefix. **/
+    private void addCombinations(FPTree tree, int[] path, int deepest, int from, int[] prefix, int prefixLength, int support) {
+        addFrequentItemSet(prefix, prefixLength, support);
+        
+        int deepestCode = prefix[prefixLength-1];
+        for (int i = from; i < deepest; i++) {
+            prefix[prefixLength-1] = tree.getCode(tree.getRank(path[i]));
+            prefix[prefixLength] = deepestCode;
+            addCombinations(tree, path, deepest, i+1, prefix, prefixLength+1, support);
+        }
+        prefix[prefixLength-1] = deepestCode;
+    }
+    
+    /** Adds the itemset made of the given item codes, with the given support, to the results. **/
+    private void addFrequentItemSet(int[] codes, int length, int support) {
+        ItemSet itemSet = new ItemSet();
+        for (int i = 0; i < length; i++)
+            itemSet.add(this.transactions.getItem(codes[i]));
+        itemSet.incFrequency(support);
+        
+        while (this.frequentItemSets.size() < length)
+            this.frequentItemSets.add(new ArrayList<ItemSet>());
+        this.frequentItemSets.get(length-1).add(itemSet);
+    }
+
+}
@@ -0,0 +1,206 @@
+package domain.apriori;
+
+import java.util.Arrays;
+
+/*
+ * This class represents a frequent-pattern tree (FP-tree) used by FPGrowth.
+ * Every path from the root is a sequence of frequent items, ordered by
+ * descending support, shared by all transactions beginning with that
+ * sequence. Each node counts the transactions that pass through it.
+ *
+ * Nodes are not objects: they live in a pool of parallel int arrays, and a
+ * node is just an index into those arrays. Node 0 is the root. All nodes
+ * holding the same item are chained together through node links, starting
+ * from that item's entry in the header table.
+ *
+ * The items of a tree are identified by their position in the tree's item
+ * order (their rank), where rank 0 is the most frequent item.
+ */
+class FPTree {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private int[] codes; // the item code of each rank
+    private int[] supports; // the support of each rank within this tree
+    private int[] headerHead; // the first node of each rank
+
+    // the node pool
+    private int[] item;
+    private int[] count;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] nodeLink;
+    private int size;
+
+    /** Initializes an empty tree over the given items, which must be ordered by descending support.
+     * @param codes The item codes, by rank.
+     * @param supports The support of each item, by rank. **/
+    FPTree(int[] codes, int[] supports, int initialCapacity) {
+        this.codes = codes;
+        this.supports = supports;
+        this.headerHead = new int[codes.length];
+        Arrays.fill(this.headerHead, NONE);
+
+        int capacity = Math.max(16, initialCapacity);
+        this.item = new int[capacity];
+        this.count = new int[capacity];
+        this.parent = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.nodeLink = new int[capacity];
+        this.size = 0;
+        newNode(NONE, NONE); // root
+    }
+
+    /** @return The number of distinct items in this tree. **/
+    int getNumberOfItems() {
+        return codes.length;
+    }
+
+    /** @return The item code of the given rank. **/
+    int getCode(int rank) {
+        return codes[rank];
+    }
+
+    /** @return The support of the item of the given rank within this tree. **/
+    int getSupport(int rank) {
+        return supports[rank];
+    }
+
+    /** Inserts a path of items, given as ranks in ascending order, occurring pathCount times. **/
+    void insert(int[] ranks, int length, int pathCount) {
+        int node = ROOT;
+
+        for (int i = 0; i < length; i++) {
+            int child = firstChild[node];
+            while (child != NONE && item[child] != ranks[i])
+                child = nextSibling[child];
+
+            if (child == NONE)
+                child = newNode(ranks[i], node);
+
+            count[child] += pathCount;
+            node = child;
+        }
+    }
+
+    /** @return True if no node of this tree has more than one child. False otherwise. **/
+    boolean isSinglePath() {
+        for (int node = 0; node < size; node++)
+            if (firstChild[node] != NONE && nextSibling[firstChild[node]] != NONE)
+                return false;
+        return true;
+    }
+
+    /** @return The nodes of a single path tree, from the top of the path down. Only valid if isSinglePath(). **/
+    int[] getSinglePath() {
+        int[] path = new int[size-1];
+        int length = 0;
+
+        for (int node = firstChild[ROOT]; node != NONE; node = firstChild[node])
+            path[length++] = node;
+
+        return path;
+    }
+
+    /** @return The rank of the item held by the given node. **/
+    int getRank(int node) {
+        return item[node];
+    }
+
+    /** @return The number of transactions passing through the given node. **/
+    int getCount(int node) {
+        return count[node];
+    }
+
+    /** Builds the conditional FP-tree of the given rank: the tree of the prefix paths (the conditional
+     * pattern base) leading to every node of that rank, keeping only items that are frequent within it.
+     * @return The conditional tree, or null if none of its items would be frequent. **/
+    FPTree conditionalTree(int rank, int absoluteMinSupport) {
+        int[] baseSupports = new int[rank]; // only ranks above this one can appear in its prefix paths
+        int numOfNodes = 0;
+
+        // first pass over the pattern base: count the items in the prefix paths
+        for (int node = headerHead[rank]; node != NONE; node = nodeLink[node])
+            for (int p = parent[node]; p != ROOT; p = parent[p]) {
+                baseSupports[item[p]] += count[node];
+                numOfNodes++;
+            }
+
+        // order the frequent items of the pattern base by descending support
+        int numOfFrequent = 0;
+        for (int r = 0; r < rank; r++)
+            if (baseSupports[r] >= absoluteMinSupport)
+                numOfFrequent++;
+        if (numOfFrequent == 0)
+            return null;
+
+        Integer[] order = new Integer[numOfFrequent];
+        for (int r = 0, i = 0; r < rank; r++)
+            if (baseSupports[r] >= absoluteMinSupport)
+                order[i++] = r;
+        Arrays.sort(order, (Integer a, Integer b) -> (baseSupports[a] != baseSupports[b])
+                ? Integer.compare(baseSupports[b], baseSupports[a]) : Integer.compare(codes[a], codes[b]));
+
+        int[] newRanks = new int[rank];
+        Arrays.fill(newRanks, NONE);
+        int[] newCodes = new int[numOfFrequent];
+        int[] newSupports = new int[numOfFrequent];
+        for (int i = 0; i < numOfFrequent; i++) {
+            newRanks[order[i]] = i;
+            newCodes[i] = codes[order[i]];
+            newSupports[i] = baseSupports[order[i]];
+        }
+
+        // second pass: insert every prefix path, re-ranked and stripped of infrequent items
+        FPTree result = new FPTree(newCodes, newSupports, numOfNodes+1);
+        int[] path = new int[rank];
+        for (int node = headerHead[rank]; node != NONE; node = nodeLink[node]) {
+            int length = 0;
+            for (int p = parent[node]; p != ROOT; p = parent[p])
+                if (newRanks[item[p]] != NONE)
+                    path[length++] = newRanks[item[p]];
+            Arrays.sort(path, 0, length);
+            result.insert(path, length, count[node]);
+        }
+
+        return result;
+    }
+
+    /** Creates a node with a count of 0 as the first child of the given parent node.
+     * @return The new node. **/
+    private int newNode(int rank, int parentNode) {
+        if (size == item.length)
+            grow();
+
+        int node = size++;
+        item[node] = rank;
+        count[node] = 0;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        nodeLink[node] = NONE;
+
+        if (parentNode != NONE) {
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+            nodeLink[node] = headerHead[rank];
+            headerHead[rank] = node;
+        } else
+            nextSibling[node] = NONE;
+
+        return node;
+    }
+
+    /** Doubles the capacity of the node pool. **/
+    private void grow() {
+        int capacity = item.length*2;
+        item = Arrays.copyOf(item, capacity);
+        count = Arrays.copyOf(count, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        nodeLink = Arrays.copyOf(nodeLink, capacity);
+    }
+
+}
@@ -0,0 +1,21 @@
+package domain.apriori;
+
+import java.util.List;
+
+/*
+ * An algorithm that finds the frequent itemsets of a TransactionDatabase.
+ * The itemsets found are made of the database's encoded items, and each
+ * one has its frequency count set.
+ */
+public interface FrequentItemSetMiner {
+    
+    /** Finds all itemsets occurring in at least absoluteMinSupport of the given transactions. **/
+    public void run(TransactionDatabase transactions, int absoluteMinSupport);
+    
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    public List<ItemSet> getFrequentKItemSets(int k);
+    
+    /** @return A list of all frequent itemsets of any length **/
+    public List<ItemSet> getAllFrequentItemSets();
+
+}
@@ -1,9 +1,15 @@
 package domain.apriori;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.Collection;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 /*
  * This class represents a hash tree in which the interior nodes are hash
@@ -11,13 +17,14 @@ import java.util.Set;
  * with a set of itemsets as value. Itemsets are assumed to be
  * self-ordering sets (e.g. a TreeSet).
  */
-public class HashTree {    
+public class HashTree implements CandidateStore {    
+    private static final String LINE_SEPARATOR = String.format("%n");
+    
     private Node root;
     private int numOfItemsPerItemSet; // this is k for a k-itemset hash tree
     private int absoluteMinimumSupport;
     private int maxBucketSize;
     private int numOfChildren;
-    private String depth = ""; // helps with recursive printTree(Node) method
     
     /** Initializes this with the given min support and items per itemset. **/
     public HashTree(int itemsPerItemSet, int absoluteMinSupport, int maxBucketSize, int numOfChildren) {
@@ -29,131 +36,237 @@ public class HashTree {
     }
     
     /** @return k for this k-itemset hash tree. **/
+    @Override
     public int getNumberOfItemsPerItemSet() {
         return numOfItemsPerItemSet;
     }
     
     /** @return True if there is only a root (hash) node. False otherwise. **/
+    @Override
     public boolean isEmpty() {
         return !this.root.hasChildren();
     }
 
-    /** Adds the itemset to this HashTree. If the itemset was already present
-     * in the tree, its frequency (occurrence count) will be updated. Otherwise, its
-     * frequency is set to 0. **/
-    public void add(ItemSet itemSet) {
-        if (itemSet.size() >= this.numOfItemsPerItemSet)
-            this.root.add(itemSet);
+    /** Adds the given k-itemset itself to this HashTree, keeping its current frequency count. Its items must be encoded
+     * (EncodedItem), as those of the transactions and of the itemsets found in them are, since they are hashed and keyed
+     * by their codes. **/
+    void addItemSet(ItemSet itemSet) {
+        if (itemSet.size() != this.numOfItemsPerItemSet)
+            throw new IllegalArgumentException("Only " + this.numOfItemsPerItemSet + "-itemsets can be added to this hash tree");
+        this.root.addItemSet(itemSet);
     }
     
-    /** Adds all itemsets to this HashTree. If the itemsets were already present
-     * in the tree, their frequencies (occurrence counts) will be updated. Otherwise, their
-     * frequencies are set to 0. **/
-    public void addAll(Set<ItemSet> itemSets) {
-        for (ItemSet itemSet : itemSets)
-            add(itemSet);
+    /** @return The given itemsets, found by a miner in encoded transactions, grouped by length into hash trees: the
+     * k-itemsets are in the tree at index k-1. **/
+    public static List<HashTree> groupByLength(Collection<ItemSet> itemSets, int absoluteMinSupport, int maxBucketSize, int numOfChildren) {
+        List<HashTree> trees = new ArrayList<HashTree>();
+        for (ItemSet itemSet : itemSets) {
+            while (trees.size() < itemSet.size())
+                trees.add(new HashTree(trees.size()+1, absoluteMinSupport, maxBucketSize, numOfChildren));
+            trees.get(itemSet.size()-1).addItemSet(itemSet);
+        }
+        return trees;
     }
     
     /** Finds all candidate itemsets in the given transactions and increases their frequency counts in this hash tree. **/
-    public void countCandidates(Set<ItemSet> transactions) {
-        for (ItemSet transaction : transactions)
-            if (transaction.size() >= this.numOfItemsPerItemSet)
-                this.root.countCandidates(transaction);
+    public void countCandidates(TransactionDatabase transactions) {
+        countCandidates(transactions, null, 1, null);
+    }
+    
+    /** Finds all candidate itemsets in the given transactions and increases their frequency counts in this hash tree,
+     * in chunks of transactions as countInChunks splits them.
+     * @param matches If not null, the number of candidates found in each transaction is stored in this array. **/
+    @Override
+    public void countCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches) {
+        countCandidates(transactions, pool, numOfWorkers, matches, null);
+    }
+    
+    /** Counts the candidates like countCandidates(TransactionDatabase, ExecutorService, int, int[]), also recording
+     * which candidates each transaction contains, so that AprioriTid can count the next level without the transactions.
+     * @return The candidates found in each transaction, identified by their index in toArray(). **/
+    @Override
+    public CandidateIdTable countAndRecordCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches) {
+        int[][] recorded = new int[transactions.size()][];
+        int numOfCandidates = countCandidates(transactions, pool, numOfWorkers, matches, recorded);
+        return CandidateIdTable.of(recorded, transactions.getWeights(), numOfCandidates);
+    }
+    
+    /** Counts the candidates in the given transactions on the given pool.
+     * @param recorded If not null, the indices of the candidates found in each transaction are stored in this array.
+     * @return The number of candidates. **/
+    private int countCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches, int[][] recorded) {
+        List<ItemSet> candidates = this.toArray();
+        for (int i = 0; i < candidates.size(); i++)
+            candidates.get(i).setIndex(i);
+        
+        int[] counts = countInChunks(transactions.size(), candidates.size(), pool, numOfWorkers,
+            (start, end, chunkCounts) -> countChunk(transactions, start, end, chunkCounts, matches, recorded));
+        for (int i = 0; i < counts.length; i++)
+            candidates.get(i).incFrequency(counts[i]);
+        return candidates.size();
+    }
+    
+    /** Adds the counts of the candidates contained in the transactions from start (inclusive) to end (exclusive)
+     * to the given array. A single lookup key is reused for the whole chunk, so counting a transaction allocates nothing.
+     * @param matches If not null, the number of candidates found in each transaction is stored in this array.
+     * @param recorded If not null, the indices of the candidates found in each transaction are stored in this array. **/
+    private void countChunk(TransactionDatabase transactions, int start, int end, int[] counts, int[] matches, int[][] recorded) {
+        int[] items = transactions.getItems();
+        ItemSetKey lookupKey = new ItemSetKey(this.numOfItemsPerItemSet);
+        int[] found = (recorded != null) ? new int[counts.length] : null; // a transaction contains each candidate at most once
+        
+        for (int t = start; t < end; t++) {
+            int numOfFound = 0;
+            if (transactions.getLength(t) >= this.numOfItemsPerItemSet)
+                numOfFound = this.root.countCandidates(items, transactions.getStart(t), transactions.getEnd(t), lookupKey, 0, counts,
+                        transactions.getWeight(t), found, 0);
+            if (matches != null)
+                matches[t] = numOfFound;
+            if (recorded != null)
+                recorded[t] = Arrays.copyOf(found, numOfFound);
+        }
     }
     
     /** Removes all itemsets that have a frequency count lower than minimum support
      * @return True if removal results in an empty hash tree. False otherwise. **/
+    @Override
     public boolean removeNoMinSupport() {
         return this.root.removeNoMinSupport();
     }
     
-    /** Using the hash tree generated previously for frequent (k-1)-itemsets, prune (remove) any k-itemsets
-     * existing in this hash tree that contain subsets that are not present in the (k-1)-itemset tree, and
-     * are therefore not frequent. **/
-    public void prune(HashTree previousTree) {
-        if (previousTree.getNumberOfItemsPerItemSet() != this.numOfItemsPerItemSet-1) {
-            String str = "To prune the hash tree, it must be given the hash tree for frequent (k-1)-itemsets.\n";
-            str += "previous tree k: " + previousTree.getNumberOfItemsPerItemSet() + "\n";
-            str += "current tree k: " + this.numOfItemsPerItemSet + "\n";
-            throw new IllegalArgumentException(str);
-        }
-        
-        this.root.prune(previousTree);
+    /** @return A new hash tree of (k+1)-itemsets ((this.numOfItemsPerItemSet+1)-itemsets) generated
+     * by a self-join of the itemsets in this hash tree, already pruned of itemsets with a k-subset
+     * that is not in this hash tree. **/
+    public HashTree generateNextCandidateTree() {
+        return generateNextCandidateTree(null, 1);
     }
     
-    /** @return True if all itemsets of length this.numOfItemsPerItemSet in the given transaction
-     * are present in this hash tree. False otherwise. **/
-    public boolean areAllSubsetsFrequent(ItemSet transaction) {
-        return this.root.areAllSubsetsPresent(transaction);
+    /** Generates the (k+1)-itemsets ((this.numOfItemsPerItemSet+1)-itemsets) that result from a self-join of the
+     * itemsets in this hash tree. The itemsets are sorted and grouped by their first k-1 items, and only itemsets
+     * in the same group are joined. The joins are split into chunks, which are joined by the given number of
+     * workers on the given thread pool; each chunk's candidates are added to the new tree as soon as it is done.
+     * If the pool is null, the groups are joined on the calling thread, adding each candidate as it is generated.
+     * 
+     * Candidates are pruned as they are generated: a candidate is only added if all of its k-subsets are
+     * in this hash tree, which is checked with k constant-time lookups in an ItemSetIndex of its itemsets.
+     * @return The new hash tree of candidate (k+1)-itemsets. **/
+    public HashTree generateNextCandidateTree(ExecutorService pool, int numOfWorkers) {
+        return generateNextCandidates(prepareJoin(), 0, 1, pool, numOfWorkers);
     }
     
-    /** @return A new hash tree of (k+1)-itemsets ((this.numOfItemsPerItemSet+1)-itemsets) generated
-     * by a self-join of the itemsets in this hash tree. **/
-    public HashTree generateNextCandidateTree() {
-        List<ItemSet> itemSets = this.toArray();
+    /** Generates one share of the (k+1)-itemsets that generateNextCandidateTree(ExecutorService, int) generates, so that
+     * the candidates of a level can be generated and counted a part at a time. The joins of the given self-join of this
+     * hash tree's itemsets are split into numOfRuns runs with about as many joins each, and only the joins of the given
+     * run are made, so every candidate is generated by exactly one of the runs.
+     * @param run The run to generate the candidates of, from 0 (inclusive) to numOfRuns (exclusive).
+     * @return The new hash tree of the run's candidate (k+1)-itemsets. **/
+    @Override
+    public HashTree generateNextCandidates(CandidateJoin join, int run, int numOfRuns, ExecutorService pool, int numOfWorkers) {
         HashTree resultTree = new HashTree(this.numOfItemsPerItemSet+1, this.absoluteMinimumSupport, this.maxBucketSize, this.numOfChildren);
+        long firstJoin = join.partStart(run, numOfRuns);
+        long lastJoin = join.partStart(run+1, numOfRuns);
         
-        for (int i = 0; i < itemSets.size()-1; i++) {
-            
-            // check if the current itemset is joinable with any of the other itemsets, and join them if they are
-            for (int j = i+1; j < itemSets.size(); j++) {
-                boolean joinableItemSets = true;
-                Item[] firstItemArray = itemSets.get(i).toArray(new Item[itemSets.get(i).size()]);
-                Item[] secondItemArray = itemSets.get(j).toArray(new Item[itemSets.get(j).size()]);
-                
-                // all items before the last items in each item array must be identical for them to be joinable
-                if (firstItemArray.length > 1) {
-                    for (int k = 0; k < firstItemArray.length-1; k++) {
-                        if (firstItemArray[k] != secondItemArray[k]) {
-                            joinableItemSets = false;
-                            break; // these two items should not be joined
-                        }
-                    }
-                }
-                
-                // perform the join and add resulting itemset to the new tree
-                if (joinableItemSets) {
-                    ItemSet newItemSet = new ItemSet();
-                    newItemSet.addAll(new ArrayList<Item>(Arrays.asList(firstItemArray)));
-                    newItemSet.add(secondItemArray[secondItemArray.length-1]);
-                    
-                    resultTree.add(newItemSet);
-                }
-                
-            }
+        if (pool == null || numOfWorkers <= 1) {
+            join.join(firstJoin, lastJoin, resultTree::addItemSet);
+            return resultTree;
         }
         
+        long joinsPerChunk = Math.max(1, (lastJoin - firstJoin) / (numOfWorkers * CHUNKS_PER_WORKER));
+        CompletionService<List<ItemSet>> chunks = new ExecutorCompletionService<List<ItemSet>>(pool);
+        int numOfChunks = 0;
+        
+        for (long first = firstJoin; first < lastJoin; first += joinsPerChunk) {
+            long from = first;
+            long to = Math.min(first + joinsPerChunk, lastJoin);
+            chunks.submit(() -> {
+                List<ItemSet> candidates = new ArrayList<ItemSet>();
+                join.join(from, to, candidates::add);
+                return candidates;
+            });
+            numOfChunks++;
+        }
+        
+        // take the chunks in the order they finish, so a finished chunk's list is dropped while later ones are still joined
+        try {
+            for (int i = 0; i < numOfChunks; i++)
+                for (ItemSet candidate : chunks.take().get())
+                    resultTree.addItemSet(candidate);
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Generating candidates failed", e); }
+        
         return resultTree;
     }
     
     /** @return An ordered array of all itemsets contained in this hash tree. **/
+    @Override
     public List<ItemSet> toArray() {
         List<ItemSet> result = new ArrayList<ItemSet>();
         this.root.toArray(result);
         return result;
     }
     
+    /** @return The number of nodes in this hash tree, hash and bucket nodes alike, including the root. **/
+    public int countNodes() {
+        return this.root.countNodes();
+    }
+    
+    /** @return The number of bucket nodes in this hash tree. **/
+    public int countBuckets() {
+        return this.root.countBuckets();
+    }
+    
+    /** @return The number of itemsets in the largest bucket of this hash tree. **/
+    public int getLargestBucketSize() {
+        return this.root.getLargestBucketSize();
+    }
+    
     /** Increments the frequency count of all itemsets in this hash tree by 1 **/
     public void incFrequencies() {
-        this.root.incFrequencies();
+        incFrequencies(1);
+    }
+    
+    /** Increases the frequency count of all itemsets in this hash tree by the given weight, e.g. that of a transaction
+     * containing them all. **/
+    public void incFrequencies(int weight) {
+        this.root.incFrequencies(weight);
+    }
+    
+    /** Calls the given action on every itemset in this hash tree, in the order of toArray(), without collecting them. **/
+    @Override
+    public void forEachItemSet(Consumer<ItemSet> action) {
+        this.root.forEachItemSet(action);
+    }
+    
+    /** Writes the itemsets of this hash tree to the given output as a drawing of the tree, the way toString() shows it,
+     * without building the drawing in memory first. **/
+    @Override
+    public void writeTree(Appendable out) throws IOException {
+        out.append("L_").append(String.valueOf(numOfItemsPerItemSet)).append(": frequent ")
+            .append(String.valueOf(numOfItemsPerItemSet)).append("-itemsets ({ set }:count): ").append(LINE_SEPARATOR);
+        writeTree(this.root, new StringBuilder(), out);
     }
     
     @Override
     public String toString() {
-        String result = "L_" + numOfItemsPerItemSet + ": frequent " + numOfItemsPerItemSet + "-itemsets ({ set }:count): " + String.format("%n");
-        return result + printTree(this.root);
+        StringBuilder result = new StringBuilder();
+        try {
+            writeTree(result);
+        }
+        catch (IOException e) { throw new RuntimeException(e); } // appending to a StringBuilder does not throw
+        return result.toString();
     }
     
-    /** Helper for toString() method **/
-    private String printTree(Node node) {
-        String result = "";
-        
+    /** Writes the subtree of the given node, each line of which starts with the given indentation, to the given output.
+     * The indentation is extended for the children and restored once they are written. **/
+    private static void writeTree(Node node, StringBuilder indentation, Appendable out) throws IOException {
         if (node.hasBucket()) {
-            for (ItemSet itemSet : node.getBucket())
-                result += " " + itemSet.toString();
+            for (ItemSet itemSet : node.getBucket()) {
+                out.append(' ');
+                itemSet.writeTo(out);
+            }
         } else
-            result += " #";
-        result += String.format("%n");
+            out.append(" #");
+        out.append(LINE_SEPARATOR);
         
         Node[] children = node.getChildren();
         Node next = null;
@@ -161,14 +274,13 @@ public class HashTree {
         for (int i = 0; i < children.length; i++) {
             if (children[i] != null) {
                 next = (i < children.length-1) ? children[i+1] : null;
-                result += depth + " `--";
-                depth += " " + ((next == null) ? " " : "|") + "  ";
-                result += printTree(children[i]);
-                depth = depth.substring(0, (depth.length()-4 > 0) ? depth.length()-4 : 0);
+                out.append(indentation).append(" `--");
+                int length = indentation.length();
+                indentation.append(' ').append((next == null) ? ' ' : '|').append("  ");
+                writeTree(children[i], indentation, out);
+                indentation.setLength(length);
             }
         }
-        
-        return result;
     }
     
 }
@@ -38,6 +38,11 @@ public abstract class Item implements Comparable<Item> {
         return idType;
     }
     
+    /** @return The original item this item stands for: the item itself, unless it was encoded. **/
+    public Item getDecodedItem() {
+        return this;
+    }
+    
     public abstract Integer getIdForHash();
     
     @Override
@@ -1,5 +1,6 @@
 package domain.apriori;
 
+import java.io.IOException;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -7,6 +8,7 @@ import java.util.TreeSet;
 public class ItemSet extends TreeSet<Item> {
     
     private int frequency = 0; // the number of occurrences of this itemset (not the number of items in the set)
+    private int index = -1; // the position of this itemset among the candidates of its hash tree, used while counting
     
     public ItemSet() {
     }
@@ -19,20 +21,39 @@ public class ItemSet extends TreeSet<Item> {
         frequency++;
     }
     
+    /** Increases the frequency count of this itemset by the given amount **/
+    public void incFrequency(int amount) {
+        frequency += amount;
+    }
+    
     public int getFrequency() {
         return frequency;
     }
     
+    int getIndex() {
+        return index;
+    }
+    
+    void setIndex(int index) {
+        this.index = index;
+    }
+    
+    /** Writes this itemset to the given output the way toString() shows it, without building the string first. **/
+    public void writeTo(Appendable out) throws IOException {
+        out.append('{');
+        for (Item item : this)
+            out.append(' ').append(item.toString());
+        out.append(" }:").append(String.valueOf(this.frequency));
+    }
+    
     @Override
     public String toString() {
-        String result = "{";
-        
-        for (Item item : this)
-            result += " " + item.toString();
-        
-        result += " }:" + this.frequency;
-        
-        return result;
+        StringBuilder result = new StringBuilder();
+        try {
+            writeTo(result);
+        }
+        catch (IOException e) { throw new RuntimeException(e); } // appending to a StringBuilder does not throw
+        return result.toString();
     }
     
 }
@@ -0,0 +1,104 @@
+package domain.apriori;
+
+import java.util.Collection;
+
+/*
+ * A compact membership index over a set of k-itemsets, used by Apriori to
+ * check the subsets of candidate (k+1)-itemsets during the prune step.
+ *
+ * It is an open-addressing hash table whose keys are the itemsets' sorted
+ * item codes, packed back to back in a single int array: the key in slot s
+ * occupies the indices from s*k (inclusive) to (s+1)*k (exclusive). Looking
+ * up the k-subsets of a (k+1)-itemset reads its codes in place, skipping one
+ * of them, so a lookup allocates nothing.
+ *
+ * The frequency count of each itemset is kept alongside its key, so the
+ * index also serves as a constant-time lookup of the support of an itemset,
+ * such as the subsets of a frequent itemset when rules are derived from it.
+ */
+final class ItemSetIndex {
+
+    private final int itemSetLength;
+    private final int[] keys;
+    private final boolean[] used;
+    private final int[] supports; // the frequency count of the itemset in each slot
+    private final int mask;
+
+    /** Initializes an index containing the given itemsets, all of which must be of the given length. **/
+    ItemSetIndex(Collection<ItemSet> itemSets, int itemSetLength) {
+        int capacity = Integer.highestOneBit(Math.max(4, itemSets.size()*2 - 1)) * 2; // keeps the table at most half full
+        this.itemSetLength = itemSetLength;
+        this.keys = new int[capacity * itemSetLength];
+        this.used = new boolean[capacity];
+        this.supports = new int[capacity];
+        this.mask = capacity-1;
+
+        for (ItemSet itemSet : itemSets)
+            insert(new ItemSetKey(itemSet).getCodes(), itemSet.getFrequency());
+    }
+
+    /** @return The length of the itemsets in this index. **/
+    int getItemSetLength() {
+        return itemSetLength;
+    }
+
+    /** @return True if this index contains the itemset made of the given codes without the code at index skip.
+     * The given codes must be sorted and number one more than the length of the itemsets in this index. **/
+    boolean containsWithout(int[] codes, int skip) {
+        for (int slot = hash(codes, skip) & mask; used[slot]; slot = (slot+1) & mask)
+            if (matches(slot, codes, skip))
+                return true;
+        return false;
+    }
+
+    /** @return The frequency count of the itemset made of the given sorted codes, which must number as many as the
+     * length of the itemsets in this index, or -1 if the itemset is not in this index. **/
+    int supportOf(int[] codes) {
+        int skip = codes.length; // nothing to skip
+        for (int slot = hash(codes, skip) & mask; used[slot]; slot = (slot+1) & mask)
+            if (matches(slot, codes, skip))
+                return supports[slot];
+        return -1;
+    }
+
+    /** Adds the itemset made of the given sorted codes, with the given frequency count, to this index. **/
+    private void insert(int[] codes, int support) {
+        int skip = codes.length; // nothing to skip
+        int slot = hash(codes, skip) & mask;
+
+        while (used[slot]) {
+            if (matches(slot, codes, skip))
+                return;
+            slot = (slot+1) & mask;
+        }
+
+        used[slot] = true;
+        supports[slot] = support;
+        for (int i = 0, j = slot * itemSetLength; i < codes.length; i++)
+            if (i != skip)
+                keys[j++] = codes[i];
+    }
+
+    /** @return True if the key in the given slot holds the given codes, without the code at index skip. **/
+    private boolean matches(int slot, int[] codes, int skip) {
+        for (int i = 0, j = slot * itemSetLength; i < codes.length; i++)
+            if (i != skip && keys[j++] != codes[i])
+                return false;
+        return true;
+    }
+
+    /** @return The hash of the given codes, without the code at index skip. **/
+    private static int hash(int[] codes, int skip) {
+        int hash = 1;
+        for (int i = 0; i < codes.length; i++)
+            if (i != skip)
+                hash = 31*hash + codes[i];
+
+        // spread the bits, since the table size is a power of 2
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+}
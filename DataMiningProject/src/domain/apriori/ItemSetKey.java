@@ -0,0 +1,60 @@
+package domain.apriori;
+
+/*
+ * The key under which an itemset of encoded items is stored in a hash tree
+ * bucket: the sorted codes of its items. Keys stored in a bucket never change.
+ * A key used only for lookups may be reused: its code array doubles as the
+ * scratch buffer items are chosen into, and rehash() must be called once the
+ * buffer holds the itemset to look up.
+ */
+final class ItemSetKey {
+    
+    private final int[] codes;
+    private int hash;
+    
+    /** Initializes an empty lookup key for itemsets of the given length. **/
+    ItemSetKey(int length) {
+        this.codes = new int[length];
+    }
+    
+    /** Initializes a key holding the codes of the given itemset's (encoded) items. **/
+    ItemSetKey(ItemSet itemSet) {
+        this.codes = new int[itemSet.size()];
+        int i = 0;
+        for (Item item : itemSet)
+            this.codes[i++] = ((EncodedItem)item).getCode();
+        rehash();
+    }
+    
+    /** @return The code array of this key. For a lookup key, this is the buffer to write codes into. **/
+    int[] getCodes() {
+        return codes;
+    }
+    
+    /** Recomputes the hash code of this key after its codes have been changed. **/
+    void rehash() {
+        int result = 1;
+        for (int code : codes)
+            result = 31*result + code;
+        this.hash = result;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ItemSetKey))
+            return false;
+        int[] otherCodes = ((ItemSetKey)o).codes;
+        if (otherCodes.length != codes.length)
+            return false;
+        for (int i = 0; i < codes.length; i++)
+            if (codes[i] != otherCodes[i])
+                return false;
+        return true;
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+}
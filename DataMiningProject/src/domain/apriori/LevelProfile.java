@@ -0,0 +1,267 @@
+package domain.apriori;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The metrics Apriori records for one level of a run: how many candidate
+ * k-itemsets were joined, pruned, counted and found frequent, the shape of
+ * the hash tree they were counted in, how much was scanned to count them,
+ * and how long each phase of the level took.
+ *
+ * The time of a level is split into phases by marking the end of each
+ * phase as it happens: a phase is charged the time since the previous
+ * mark. A level counted in chunks goes through the phases once per chunk,
+ * and each phase is charged the total over all chunks. The join and prune
+ * steps are done together as candidates are generated, so they share a
+ * phase. The bytes a level allocated are taken from the JVM's per-thread
+ * allocation counters, summed over every thread, and are -1 if the JVM
+ * does not keep them.
+ */
+public class LevelProfile {
+    public static final String COUNTED_BY_ITEMS = "items"; // an array of item counts, for C_1
+    public static final String COUNTED_IN_MATRIX = "matrix"; // a triangular matrix of pair counts, for C_2
+    public static final String COUNTED_BY_SCAN = "scan"; // a hash tree, scanning the transactions
+    public static final String COUNTED_BY_CANDIDATE_IDS = "tid"; // a table of candidate IDs, for AprioriTid
+
+    private final int k;
+    private String counting = COUNTED_BY_SCAN;
+    private int numOfChunks = 1;
+    private long joined;
+    private long candidates;
+    private long frequent;
+    private long hashTreeNodes;
+    private long hashTreeBuckets;
+    private int largestBucket;
+    private long transactionsScanned;
+    private long itemsScanned;
+    private long generateNanos;
+    private long reduceNanos;
+    private long countNanos;
+    private long filterNanos;
+    private long totalNanos;
+    private long allocatedBytes;
+
+    private final long startTime;
+    private final long startAllocation;
+    private long lastMark;
+
+    /** Initializes the profile of the level of candidate k-itemsets, starting its clock. **/
+    LevelProfile(int k) {
+        this.k = k;
+        this.startTime = System.nanoTime();
+        this.startAllocation = allocatedBytesOfAllThreads();
+        this.lastMark = startTime;
+    }
+
+    /** @return k for the candidate k-itemsets of this level. **/
+    public int getLevel() {
+        return k;
+    }
+
+    /** @return How the candidates were counted: COUNTED_BY_ITEMS, COUNTED_IN_MATRIX, COUNTED_BY_SCAN or COUNTED_BY_CANDIDATE_IDS. **/
+    public String getCounting() {
+        return counting;
+    }
+
+    /** @return The number of chunks the candidates were generated and counted in. **/
+    public int getNumberOfChunks() {
+        return numOfChunks;
+    }
+
+    /** @return The number of candidates joined from L_(k-1), before those with an infrequent subset were pruned. For C_1
+     * and C_2, every item and every pair of frequent items, less any pairs filtered out by hashing. **/
+    public long getJoinedCandidates() {
+        return joined;
+    }
+
+    /** @return The number of joined candidates pruned because they have an infrequent subset, or were filtered by hashing. **/
+    public long getPrunedCandidates() {
+        return joined - candidates;
+    }
+
+    /** @return The number of candidates counted. **/
+    public long getCandidates() {
+        return candidates;
+    }
+
+    /** @return The number of candidates that met minimum support. **/
+    public long getFrequentItemSets() {
+        return frequent;
+    }
+
+    /** @return The number of candidates counted that did not meet minimum support. **/
+    public long getInfrequentCandidates() {
+        return candidates - frequent;
+    }
+
+    /** @return The number of nodes, hash and bucket nodes alike, in the hash trees the candidates were counted in. **/
+    public long getHashTreeNodes() {
+        return hashTreeNodes;
+    }
+
+    /** @return The number of bucket nodes in the hash trees the candidates were counted in. **/
+    public long getHashTreeBuckets() {
+        return hashTreeBuckets;
+    }
+
+    /** @return The average number of candidates in a bucket of the hash trees, or 0 if there were none. **/
+    public double getAverageBucketSize() {
+        return (hashTreeBuckets == 0) ? 0 : (double)candidates / hashTreeBuckets;
+    }
+
+    /** @return The most candidates in a bucket of the hash trees. **/
+    public int getLargestBucketSize() {
+        return largestBucket;
+    }
+
+    /** @return The number of transactions scanned to count the candidates, over all chunks. For COUNTED_BY_CANDIDATE_IDS,
+     * the number of rows of the table of candidate IDs counted from. **/
+    public long getTransactionsScanned() {
+        return transactionsScanned;
+    }
+
+    /** @return The average number of items in a transaction scanned, or of IDs in a row of the table of candidate IDs. **/
+    public double getAverageTransactionLength() {
+        return (transactionsScanned == 0) ? 0 : (double)itemsScanned / transactionsScanned;
+    }
+
+    /** @return The time spent joining L_(k-1) with itself and pruning the candidates with an infrequent subset, in nanoseconds. **/
+    public long getGenerateNanos() {
+        return generateNanos;
+    }
+
+    /** @return The time spent reducing the transactions before they were scanned, in nanoseconds. **/
+    public long getReduceNanos() {
+        return reduceNanos;
+    }
+
+    /** @return The time spent counting the candidates, in nanoseconds. **/
+    public long getCountNanos() {
+        return countNanos;
+    }
+
+    /** @return The time spent removing the candidates that do not meet minimum support, in nanoseconds. **/
+    public long getFilterNanos() {
+        return filterNanos;
+    }
+
+    /** @return The time the whole level took, in nanoseconds. **/
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /** @return The number of bytes allocated during the level, by every thread, or -1 if the JVM does not count them. **/
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** @return The metrics of this level by name, in a fixed order, for writing as a row or a record. **/
+    public Map<String, Object> toMap() {
+        Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+        metrics.put("level", k);
+        metrics.put("counting", counting);
+        metrics.put("chunks", numOfChunks);
+        metrics.put("joined", joined);
+        metrics.put("pruned", getPrunedCandidates());
+        metrics.put("candidates", candidates);
+        metrics.put("frequent", frequent);
+        metrics.put("infrequent", getInfrequentCandidates());
+        metrics.put("hashTreeNodes", hashTreeNodes);
+        metrics.put("hashTreeBuckets", hashTreeBuckets);
+        metrics.put("averageBucketSize", getAverageBucketSize());
+        metrics.put("largestBucketSize", largestBucket);
+        metrics.put("transactionsScanned", transactionsScanned);
+        metrics.put("averageTransactionLength", getAverageTransactionLength());
+        metrics.put("generateNanos", generateNanos);
+        metrics.put("reduceNanos", reduceNanos);
+        metrics.put("countNanos", countNanos);
+        metrics.put("filterNanos", filterNanos);
+        metrics.put("totalNanos", totalNanos);
+        metrics.put("allocatedBytes", allocatedBytes);
+        return metrics;
+    }
+
+    /** Charges the time since the last mark to generating candidates. **/
+    void endGenerate() {
+        generateNanos += lap();
+    }
+
+    /** Charges the time since the last mark to reducing transactions. **/
+    void endReduce() {
+        reduceNanos += lap();
+    }
+
+    /** Charges the time since the last mark to counting candidates. **/
+    void endCount() {
+        countNanos += lap();
+    }
+
+    /** Charges the time since the last mark to removing candidates that do not meet minimum support. **/
+    void endFilter() {
+        filterNanos += lap();
+    }
+
+    /** Stops the clock of this level and records the bytes allocated during it.
+     * @param frequent The number of frequent k-itemsets found. **/
+    void finish(long frequent) {
+        this.frequent = frequent;
+        this.totalNanos = System.nanoTime() - startTime;
+        long endAllocation = allocatedBytesOfAllThreads();
+        this.allocatedBytes = (startAllocation < 0 || endAllocation < 0) ? -1 : endAllocation - startAllocation;
+    }
+
+    void setCounting(String counting) {
+        this.counting = counting;
+    }
+
+    void setNumberOfChunks(int numOfChunks) {
+        this.numOfChunks = numOfChunks;
+    }
+
+    /** Adds to the candidates joined, and to the candidates counted once the others were pruned. **/
+    void addCandidates(long joined, long candidates) {
+        this.joined += joined;
+        this.candidates += candidates;
+    }
+
+    /** Adds the shape of a hash tree the candidates were counted in. **/
+    void addHashTree(HashTree tree) {
+        hashTreeNodes += tree.countNodes();
+        hashTreeBuckets += tree.countBuckets();
+        largestBucket = Math.max(largestBucket, tree.getLargestBucketSize());
+    }
+
+    /** Adds a scan of the given number of transactions, holding the given number of items in all. **/
+    void addScan(long transactions, long items) {
+        transactionsScanned += transactions;
+        itemsScanned += items;
+    }
+
+    /** @return The time since the last mark, in nanoseconds, making now the last mark. **/
+    private long lap() {
+        long now = System.nanoTime();
+        long elapsed = now - lastMark;
+        lastMark = now;
+        return elapsed;
+    }
+
+    /** @return The number of bytes allocated so far by all live threads, or -1 if the JVM does not count them. **/
+    private static long allocatedBytesOfAllThreads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled())
+            return -1;
+
+        long total = 0;
+        for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            if (bytes > 0)
+                total += bytes;
+        return total;
+    }
+
+}
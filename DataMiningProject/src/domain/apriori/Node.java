@@ -1,14 +1,11 @@
 package domain.apriori;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import org.apache.commons.math3.util.CombinatoricsUtils;
+import java.util.function.Consumer;
 
 /*
  * This class represents a node in the hash tree. Its bucket (value)
@@ -28,10 +25,7 @@ import org.apache.commons.math3.util.CombinatoricsUtils;
  * added to this node's bucket despite the bucket size limit being breached.
  */
 public class Node {
-    private static final int INDEX_CHOSEN = 0;
-    private static final int INDEX_REMAINING = 1;
-    
-    private Map<ItemSet, ItemSet> bucket; // contains itemsets (bucket node), or is null (hash node)
+    private Map<ItemSetKey, ItemSet> bucket; // contains itemsets keyed by their item codes (bucket node), or is null (hash node)
     private Node[] children;
     private int itemSetTargetSize;
     private int level; // the level of this node in the hash tree (root is at level 0)
@@ -50,7 +44,7 @@ public class Node {
         this.absoluteMinSupport = absoluteMinimumSupport;
         this.maxBucketSize = maxBucketSize;
         this.numOfChildren = numOfChildren;
-        this.bucket = (level == 0) ? null : new HashMap<ItemSet, ItemSet>();
+        this.bucket = (level == 0) ? null : new HashMap<ItemSetKey, ItemSet>();
     }
     
     /** @return An array of all children nodes of this node. **/
@@ -79,11 +73,6 @@ public class Node {
         return result;
     }
     
-    /** Add or pass on all itemsets of length this.itemSetTargetSize contained in the given itemSet **/
-    public void add(ItemSet itemSet) {
-        add(new ItemSet(), itemSet);
-    }
-    
     /** Remove itemsets that do not meet minimum support, as well as empty/useless child nodes.
      * @return True if this node should be removed entirely as a result of the removal. False if it should remain. */
     public boolean removeNoMinSupport() {
@@ -112,45 +101,37 @@ public class Node {
         return removeEntireNode;
     }
     
-    /** Update the frequency counts of candidates contained in the given transaction **/
-    public void countCandidates(ItemSet transaction) {
-        countCandidates(new ItemSet(), transaction);
+    /** Adds the given itemset itself (keeping its frequency count) to the subtree that this node is root of.
+     * The itemset must be of length this.itemSetTargetSize, and its items must be encoded. **/
+    void addItemSet(ItemSet itemSet) {
+        addItemSet(itemSet, itemSet.toArray(new Item[itemSet.size()]));
     }
     
-    /** Returns true if all subsets of length this.itemSetTargetSize in the transaction
-     * are present in the subtree that this node is root of.
-     * @return True if all k-itemsets in the transaction exist in this subtree. False otherwise. **/
-    public boolean areAllSubsetsPresent(ItemSet transaction) {
-        return areAllSubsetsPresent(new ItemSet(), transaction);
-    }
-    
-    /** Using the hash tree generated previously for frequent (k-1)-itemsets, prune (remove) any k-itemsets
-     * existing in this hash tree that contain subsets that are not present in the (k-1)-itemset tree, and
-     * are therefore not frequent.
-     * @return True if this node should be removed entirely as a result of the prune. False if it should remain. */
-    public boolean prune(HashTree previousTree) {
-        boolean pruneEntireNode = true;
+    /** Update the frequency counts of candidates contained in the encoded transaction held in items, from index
+     * from (inclusive) to index to (exclusive). No objects are allocated: items are chosen into the code buffer
+     * of the given lookup key, which is then reused for every bucket lookup.
+     * @param chosen The number of items already chosen into the lookup key's buffer.
+     * @param counts The count of each candidate found is increased by the weight in this array, at the candidate's index.
+     * @param weight The weight of the transaction: the number of times it occurred.
+     * @param found If not null, the index of each candidate found is stored in this array, after those already found.
+     * @param numOfFound The number of candidates already found in the transaction.
+     * @return The number of candidates found in the transaction so far, including those found by this call. **/
+    int countCandidates(int[] items, int from, int to, ItemSetKey lookupKey, int chosen, int[] counts, int weight, int[] found, int numOfFound) {
         
-        if (hasBucket()) { // bucket node
-            for (Iterator<ItemSet> bucketIter = this.bucket.values().iterator(); bucketIter.hasNext(); )
-                if (!previousTree.areAllSubsetsFrequent(bucketIter.next())) // check frequent (k-1)-itemset tree for subsets contained in the current candidate
-                    bucketIter.remove(); // the current candidate has an infrequent subset; it is not frequent
-            
-            return this.bucket.isEmpty();
-        }
+        // this is a bucket node; choose the remaining items here and look up each resulting itemset
+        if (hasBucket())
+            return countInBucket(items, from, to, lookupKey, chosen, counts, weight, found, numOfFound);
         
-        else { // hash node
-            for (int i = 0; i < this.children.length; i++) {
-                if (this.children[i] != null) {
-                    if (this.children[i].prune(previousTree))
-                        this.children[i] = null; // remove child node
-                    else
-                        pruneEntireNode = false; // the child isn't being removed, so neither should this node (child's parent)
-                }
+        // this is a hash node; choose each possible next item and pass the combination on to the appropriate child
+        int maxPickableIndex = to - (this.itemSetTargetSize - chosen);
+        for (int i = from; i <= maxPickableIndex; i++) {
+            Node child = this.children[items[i] % this.children.length];
+            if (child != null) {
+                lookupKey.getCodes()[chosen] = items[i];
+                numOfFound = child.countCandidates(items, i+1, to, lookupKey, chosen+1, counts, weight, found, numOfFound);
             }
         }
-        
-        return pruneEntireNode;
+        return numOfFound;
     }
     
     /** Adds all itemsets in this node's subtree to the given result itemset list. **/
@@ -168,210 +149,138 @@ public class Node {
         }
     }
     
-    /** Increments by 1 the frequencies of all itemsets contained in the subtree that this node is root of **/
-    public void incFrequencies() {
+    /** Calls the given action on every itemset in the subtree that this node is root of, in the order of toArray(List). **/
+    public void forEachItemSet(Consumer<ItemSet> action) {
         if (hasBucket()) { // bucket node
             for (ItemSet itemSet : this.bucket.values())
-                itemSet.incFrequency();
+                action.accept(itemSet);
         }
         
         else { // hash node
             for (int i = 0; i < this.children.length; i++)
                 if (this.children[i] != null)
-                    this.children[i].incFrequencies();
+                    this.children[i].forEachItemSet(action);
         }
     }
     
-    @Override
-    public String toString() {
-        String result = "";
-        
-        if (hasBucket()) {
-            result += "bucket:";
-            for (ItemSet itemSet : this.bucket.values())
-                result += " " + itemSet.toString();
-            result += ";";
-        } else
-            result += "hash;";
-        
-        return result;
+    /** @return The number of nodes in the subtree that this node is root of, including this node. **/
+    public int countNodes() {
+        int count = 1;
+        if (!hasBucket())
+            for (Node child : this.children)
+                if (child != null)
+                    count += child.countNodes();
+        return count;
     }
     
-    /** Add or pass on all itemsets of length this.itemSetTargetSize that can be made from the chosen and remaining items **/
-    private void add(ItemSet chosenItems, ItemSet remainingItems) {
+    /** @return The number of bucket nodes in the subtree that this node is root of. **/
+    public int countBuckets() {
         if (hasBucket())
-            addToBucket(chosenItems, remainingItems);
-        else
-            addToChildren(generateNextCombinations(chosenItems, remainingItems));
+            return 1;
+        
+        int count = 0;
+        for (Node child : this.children)
+            if (child != null)
+                count += child.countBuckets();
+        return count;
     }
     
-    /** Either adds all itemsets of length this.itemSetTargetSize that can be made from the chosen and remaining items,
-     * or converts this node into a hash node and passes everything on if the max bucket size would have been breached. **/
-    private void addToBucket(ItemSet chosenItems, ItemSet remainingItems) {
-        // there are no more items to choose; simply put it in this bucket
-        if (chosenItems.size() == this.itemSetTargetSize) {
-            putInBucket(chosenItems);
-            return;
-        }
-        
-        long numOfItemSetsLeft = CombinatoricsUtils.binomialCoefficient(remainingItems.size(), this.itemSetTargetSize - chosenItems.size());
+    /** @return The number of itemsets in the largest bucket of the subtree that this node is root of. **/
+    public int getLargestBucketSize() {
+        if (hasBucket())
+            return this.bucket.size();
         
-        // the new itemsets will fit into this node's bucket; generate them and put them in the bucket
-        if (this.bucket.size() + numOfItemSetsLeft <= this.maxBucketSize)
-            putInBucket(generateFinalItemSets(chosenItems, remainingItems));
-            
-        // itemsets won't fit, and we can go another level deeper
-        else {
-            convertToHashNode(); // make this a hash node, passing all itemsets already in bucket to children
-            addToChildren(generateNextCombinations(chosenItems, remainingItems)); // choose all possible next items, pass resulting new combinations on to child nodes 
-        }
+        int largest = 0;
+        for (Node child : this.children)
+            if (child != null)
+                largest = Math.max(largest, child.getLargestBucketSize());
+        return largest;
     }
     
-    /** Takes the next combinations and passes them to the appropriate children to be added to the tree **/
-    private void addToChildren(List<ItemSet[]> nextCombinations) {
-        for (ItemSet[] nextComb : nextCombinations) {
-            
-            // hash the item just chosen to determine which child node to pass the new combination on to
-            int hashResult = hash(nextComb[INDEX_CHOSEN].last());
-            
-            // now pass it down
-            if (this.children[hashResult] == null)
-                this.children[hashResult] = new Node(this.itemSetTargetSize, this.level+1, this.absoluteMinSupport, this.maxBucketSize, this.numOfChildren);
-            this.children[hashResult].add(nextComb[INDEX_CHOSEN], nextComb[INDEX_REMAINING]);
+    /** Increases by the given weight the frequencies of all itemsets contained in the subtree that this node is root of **/
+    public void incFrequencies(int weight) {
+        if (hasBucket()) { // bucket node
+            for (ItemSet itemSet : this.bucket.values())
+                itemSet.incFrequency(weight);
+        }
+        
+        else { // hash node
+            for (int i = 0; i < this.children.length; i++)
+                if (this.children[i] != null)
+                    this.children[i].incFrequencies(weight);
         }
     }
     
-    /** Adds the itemset to the bucket, or increases its frequency count if it already exists **/
-    private void putInBucket(ItemSet itemSet) {
-        if (this.bucket.containsKey(itemSet))
-            this.bucket.get(itemSet).incFrequency();
-        else
-            this.bucket.put(itemSet, itemSet);
-    }
-    /** Adds all itemsets to the bucket, or increases their frequency counts if they already exists **/
-    private void putInBucket(Set<ItemSet> itemSets) {
-        for (ItemSet itemSet : itemSets)
-            putInBucket(itemSet);
-    }
-    
-    /** Returns true if all subsets of length this.itemSetTargetSize generated from the chosen and
-     * remaining itemsets are present in the subtree that this node is root of.
-     * @return True if all k-itemsets generated from the chosen and remaining items are present in this subtree. False otherwise. **/
-    private boolean areAllSubsetsPresent(ItemSet chosenItems, ItemSet remainingItems) {
-        // there are no more items to choose; check bucket
-        if (chosenItems.size() == this.itemSetTargetSize)
-            return this.bucket.containsKey(chosenItems);
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
         
-        // there are more items to choose, and this is a bucket node
         if (hasBucket()) {
-            for (ItemSet itemSet : generateFinalItemSets(chosenItems, remainingItems))
-                if (!this.bucket.containsKey(itemSet))
-                    return false;
-            return true;
-        }
+            result.append("bucket:");
+            for (ItemSet itemSet : this.bucket.values())
+                result.append(' ').append(itemSet.toString());
+            result.append(';');
+        } else
+            result.append("hash;");
         
-        // there are more items to choose, and this is a hash node
-        else
-            return areAllSubsetsPresentInChildren(generateNextCombinations(chosenItems, remainingItems));
+        return result.toString();
     }
     
-    /** Takes the next combinations and passes them to the appropriate children to be determine if all
-     * itemsets of length this.itemSetTargetSize generated from each combination are present in the tree.
-     * @return True if all k-itemsets in all combinations are present in the child nodes. False otherwise. **/ 
-    private boolean areAllSubsetsPresentInChildren(List<ItemSet[]> nextCombinations) {
-        for (ItemSet[] nextComb : nextCombinations) {
-            
-            // hash the current item to determine which child node to pass the new combination on to
-            int hashResult = hash(nextComb[INDEX_CHOSEN].last());
-            
-            // now pass it down
-            if (this.children[hashResult] != null)
-                if (!this.children[hashResult].areAllSubsetsPresent(nextComb[INDEX_CHOSEN], nextComb[INDEX_REMAINING]))
-                    return false;
-        }
-        
-        return true;
-    }
-
-    /** Update the frequency counts of candidates that can be obtained from the chosen and remaining items **/
-    private void countCandidates(ItemSet chosenItems, ItemSet remainingItems) {
-        
-        // there are no more items to choose; check bucket
-        if (chosenItems.size() == this.itemSetTargetSize) {
-            if (this.bucket.containsKey(chosenItems))
-                this.bucket.get(chosenItems).incFrequency();
+    /** Adds the itemset to this node's bucket, converting this node into a hash node first if the bucket is full
+     * and the itemset still has items left to hash on. Hash nodes pass the itemset on to the appropriate child. **/
+    private void addItemSet(ItemSet itemSet, Item[] itemArray) {
+        if (hasBucket() && (this.bucket.size() < this.maxBucketSize || this.level == this.itemSetTargetSize)) {
+            putInBucket(itemSet);
             return;
         }
         
-        // there are more items to choose, and this is a bucket node
-        if (hasBucket()) {
-            for (ItemSet itemSet : generateFinalItemSets(chosenItems, remainingItems))
-                if (this.bucket.containsKey(itemSet))
-                    this.bucket.get(itemSet).incFrequency();
-        }
+        if (hasBucket())
+            convertToHashNode();
         
-        // there are more items to choose, and this is a hash node
-        else {
-            // generate next combinations and pass them to the appropriate children to be counted in the tree
-            List<ItemSet[]> nextCombinations = generateNextCombinations(chosenItems, remainingItems);
-            for (ItemSet[] nextComb : nextCombinations) {
-                
-                // hash the current item to determine which child node to pass the new combination on to
-                int hashResult = hash(nextComb[INDEX_CHOSEN].last());
-                
-                // now pass it down
-                if (this.children[hashResult] != null)
-                    this.children[hashResult].countCandidates(nextComb[INDEX_CHOSEN], nextComb[INDEX_REMAINING]);
-            }
-        }
+        int hashResult = hash(itemArray[this.level]);
+        if (this.children[hashResult] == null)
+            this.children[hashResult] = new Node(this.itemSetTargetSize, this.level+1, this.absoluteMinSupport, this.maxBucketSize, this.numOfChildren);
+        this.children[hashResult].addItemSet(itemSet, itemArray);
     }
     
-    /** Generate and return new combinations by choosing each possible next item **/
-    private List<ItemSet[]> generateNextCombinations(ItemSet chosenItems, ItemSet remainingItems) {
-        int numItemsLeftToPick = this.itemSetTargetSize - chosenItems.size();
-        int maxPickableIndex = remainingItems.size() - numItemsLeftToPick;
-        Iterator<Item> remainingIter = remainingItems.iterator();
-        List<ItemSet[]> nextCombinations = new ArrayList<ItemSet[]>();
-        
-        for (int i = 0; i <= maxPickableIndex; i++) {
-            Item nextItemChoice = remainingIter.next();
-            ItemSet[] chosenAndRemaining = new ItemSet[2];
-            
-            chosenAndRemaining[INDEX_REMAINING] = new ItemSet(remainingItems.tailSet(nextItemChoice, false)); 
-            chosenAndRemaining[INDEX_CHOSEN] = new ItemSet(chosenItems);
-            chosenAndRemaining[INDEX_CHOSEN].add(nextItemChoice);
-            nextCombinations.add(chosenAndRemaining);
-        }
+    /** Adds the itemset to the bucket, or increases its frequency count if it already exists **/
+    private void putInBucket(ItemSet itemSet) {
+        ItemSetKey key = new ItemSetKey(itemSet);
+        ItemSet existing = this.bucket.get(key);
         
-        return nextCombinations;
+        if (existing != null)
+            existing.incFrequency();
+        else
+            this.bucket.put(key, itemSet);
     }
     
-    /** Generate and return all itemsets of length this.itemSetTargetSize that can be made from the chosen and remaining items **/
-    private Set<ItemSet> generateFinalItemSets(ItemSet chosenItems, ItemSet remainingItems) {
-        Set<ItemSet> result = new HashSet<ItemSet>();
-        if (chosenItems.size() == this.itemSetTargetSize) {
-            result.add(chosenItems);
-            return result;
-        }
-        
-        int numItemsLeftToPick = this.itemSetTargetSize - chosenItems.size();
-        int maxPickableIndex = remainingItems.size() - numItemsLeftToPick;
-        Iterator<Item> remainingIter = remainingItems.iterator();
+    /** Update the frequency counts of the candidates in this bucket that can be obtained by choosing the
+     * remaining items of the lookup key's buffer from the items between from (inclusive) and to (exclusive).
+     * @return The number of candidates found in the transaction so far, including those found by this call. **/
+    private int countInBucket(int[] items, int from, int to, ItemSetKey lookupKey, int chosen, int[] counts, int weight, int[] found, int numOfFound) {
         
-        // choose all possible next items recursively
-        for (int i = 0; i <= maxPickableIndex; i++) {
-            Item nextItemChoice = remainingIter.next();
-            
-            ItemSet newRemainingItems = new ItemSet(remainingItems.tailSet(nextItemChoice, false));
-            ItemSet newChosenItems = new ItemSet(chosenItems);
-            newChosenItems.add(nextItemChoice);
-            
-            result.addAll(generateFinalItemSets(newChosenItems, newRemainingItems));
+        // there are no more items to choose; check bucket
+        if (chosen == this.itemSetTargetSize) {
+            lookupKey.rehash();
+            ItemSet candidate = this.bucket.get(lookupKey);
+            if (candidate == null)
+                return numOfFound;
+            counts[candidate.getIndex()] += weight;
+            if (found != null)
+                found[numOfFound] = candidate.getIndex();
+            return numOfFound+1;
         }
         
-        return result;
+        // choose each possible next item, and keep choosing until the lookup key is complete
+        int maxPickableIndex = to - (this.itemSetTargetSize - chosen);
+        for (int i = from; i <= maxPickableIndex; i++) {
+            lookupKey.getCodes()[chosen] = items[i];
+            numOfFound = countInBucket(items, i+1, to, lookupKey, chosen+1, counts, weight, found, numOfFound);
+        }
+        return numOfFound;
     }
     
+    
     /** Converts this node into a hash node. Any itemsets in the bucket are
      * hashed and passed to the appropriate child nodes. **/
     private void convertToHashNode() {
@@ -385,7 +294,7 @@ public class Node {
             // pass itemset down
             if (this.children[hashResult] == null)
                 this.children[hashResult] = new Node(this.itemSetTargetSize, this.level+1, this.absoluteMinSupport, this.maxBucketSize, this.numOfChildren);
-            this.children[hashResult].add(itemSet, null);
+            this.children[hashResult].addItemSet(itemSet, itemArray);
         }
         
         // since we are hashing and passing now, this is a hash node
@@ -0,0 +1,286 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * Counts the candidate 2-itemsets of Apriori, which are all pairs of
+ * frequent items, without a hash tree. Each frequent item is given a dense
+ * rank, in the order of its code, and the count of every pair of ranks
+ * i < j is kept in a flat triangular matrix: row i holds the pairs (i, j)
+ * for j from i+1 to n-1, and the rows are stored back to back. Counting a
+ * transaction is then a matter of array increments, and only the frequent
+ * pairs ever become ItemSets.
+ *
+ * When there are too many frequent items for the matrix to fit in memory,
+ * the pairs can instead be filtered as DHP (Park, Chen and Yu) does: every
+ * pair of a transaction is hashed into a table of bucket counts, and a pair
+ * whose bucket count is below the minimum support cannot be frequent, so it
+ * is not made a candidate.
+ */
+final class PairCounter {
+    private static final int FILTER_BUCKETS = 1 << 22; // the number of bucket counts used to filter pairs
+
+    private final EncodedItem[] items; // the frequent item of each rank
+    private final int[] rankOf; // the rank of each item code, or -1 for an infrequent item
+    private final int[] rowBase; // where row i of the matrix starts, less i+1, so pair (i, j) is at rowBase[i] + j
+    private int[] counts;
+    private long totalOccurrences;
+
+    /** Initializes a counter for the pairs of the frequent items in the given store of frequent 1-itemsets.
+     * @param numOfItems The number of item codes of the transactions that will be counted. **/
+    PairCounter(CandidateStore frequentItems, int numOfItems) {
+        EncodedItem[] frequent = new EncodedItem[numOfItems]; // indexed by code, null for an infrequent item
+        for (ItemSet itemSet : frequentItems.toArray())
+            frequent[((EncodedItem)itemSet.first()).getCode()] = (EncodedItem)itemSet.first();
+
+        List<EncodedItem> ranked = new ArrayList<EncodedItem>();
+        this.rankOf = new int[numOfItems];
+        Arrays.fill(rankOf, -1);
+        for (int code = 0; code < numOfItems; code++) {
+            if (frequent[code] != null) {
+                rankOf[code] = ranked.size();
+                ranked.add(frequent[code]);
+            }
+        }
+        this.items = ranked.toArray(new EncodedItem[0]);
+
+        this.rowBase = new int[items.length];
+        long start = 0;
+        for (int i = 0; i < items.length && start <= Integer.MAX_VALUE; i++) {
+            rowBase[i] = (int)(start - i - 1);
+            start += items.length - i - 1;
+        }
+    }
+
+    /** @return The number of frequent items, whose pairs are the candidates. **/
+    int getNumberOfItems() {
+        return items.length;
+    }
+
+    /** @return The number of pairs of frequent items, which is the number of cells of the matrix. **/
+    long getNumberOfPairs() {
+        return (long)items.length * (items.length-1) / 2;
+    }
+
+    /** @return The number of bytes the matrix of pair counts takes. **/
+    long getMatrixSizeInBytes() {
+        return getNumberOfPairs() * Integer.BYTES;
+    }
+
+    /** @return True if the matrix has few enough cells to be a single array. **/
+    boolean fitsInArray() {
+        return getNumberOfPairs() <= Integer.MAX_VALUE - 8;
+    }
+
+    /** @return The total number of pair occurrences in the transactions counted, i.e. the sum of all pair counts. **/
+    long getTotalOccurrences() {
+        return totalOccurrences;
+    }
+
+    /** Adds every pair of frequent items in the given transactions to the matrix, which is made the first time, so
+     * transactions read a block at a time are counted by counting each block in turn. With more than one worker, the
+     * transactions are split between the workers on the given pool, each with a matrix of its own, and the matrices
+     * are added up once every worker is done.
+     * @param matches If not null, the number of pairs found in each transaction is stored here. **/
+    void count(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches) {
+        if (!fitsInArray())
+            throw new IllegalStateException("There are too many frequent items to count their pairs in a matrix");
+        if (counts == null)
+            counts = new int[(int)getNumberOfPairs()];
+
+        if (pool == null || numOfWorkers <= 1 || transactions.size() < numOfWorkers) {
+            totalOccurrences += countChunk(transactions, 0, transactions.size(), counts, matches);
+            return;
+        }
+
+        List<int[]> matrices = new ArrayList<int[]>();
+        List<Future<Long>> chunks = new ArrayList<Future<Long>>();
+        int chunkSize = (transactions.size() + numOfWorkers-1) / numOfWorkers;
+        for (int start = 0; start < transactions.size(); start += chunkSize) {
+            int from = start;
+            int to = Math.min(start + chunkSize, transactions.size());
+            int[] chunkCounts = (from == 0) ? counts : new int[counts.length]; // the first worker counts into the result
+            matrices.add(chunkCounts);
+            chunks.add(pool.submit(() -> countChunk(transactions, from, to, chunkCounts, matches)));
+        }
+
+        try {
+            for (Future<Long> chunk : chunks)
+                totalOccurrences += chunk.get();
+            for (int[] chunkCounts : matrices.subList(1, matrices.size()))
+                for (int i = 0; i < counts.length; i++)
+                    counts[i] += chunkCounts[i];
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Counting candidates failed", e); }
+    }
+
+    /** @return The counted pairs that meet minimum support, i.e. L_2, in lexicographic order of their codes. **/
+    List<ItemSet> frequentPairs(int absoluteMinSupport) {
+        List<ItemSet> frequentPairs = new ArrayList<ItemSet>();
+        for (int i = 0; i < items.length; i++) {
+            for (int j = i+1; j < items.length; j++) {
+                int count = counts[rowBase[i] + j];
+                if (count >= absoluteMinSupport)
+                    frequentPairs.add(pair(i, j, count));
+            }
+        }
+        return frequentPairs;
+    }
+
+    /** @return The count of the pair of the items of the given codes, or -1 if either item is not one of the frequent items. **/
+    int countOf(int code, int otherCode) {
+        int i = Math.min(rankOf[code], rankOf[otherCode]);
+        int j = Math.max(rankOf[code], rankOf[otherCode]);
+        return (i < 0) ? -1 : counts[rowBase[i] + j];
+    }
+
+    /** Hashes every pair of frequent items in the given transactions into a table of bucket counts, as DHP does, then
+     * scans the transactions again for the pairs in buckets that meet minimum support. Only pairs that occur in some
+     * transaction are ever looked at, so the time and memory taken do not grow with the square of the frequent items.
+     * @return The candidate pairs, uncounted and in lexicographic order of their codes, leaving out the pairs whose
+     * bucket count is below minimum support, since they cannot be frequent. **/
+    List<ItemSet> hashFilteredCandidates(TransactionSource transactions, int absoluteMinSupport) {
+        int[] buckets = new int[FILTER_BUCKETS];
+        transactions.forEachBlock((TransactionDatabase block) -> {
+            int[] ranks = new int[16];
+            for (int t = 0; t < block.size(); t++) {
+                int length = ranksOf(block, t, ranks = ensureCapacity(ranks, block.getLength(t)));
+                int weight = block.getWeight(t);
+                for (int a = 0; a < length; a++)
+                    for (int b = a+1; b < length; b++)
+                        buckets[bucketOf(ranks[a], ranks[b])] += weight;
+            }
+        });
+
+        PairSet candidates = new PairSet();
+        transactions.forEachBlock((TransactionDatabase block) -> {
+            int[] ranks = new int[16];
+            for (int t = 0; t < block.size(); t++) {
+                int length = ranksOf(block, t, ranks = ensureCapacity(ranks, block.getLength(t)));
+                for (int a = 0; a < length; a++)
+                    for (int b = a+1; b < length; b++)
+                        if (buckets[bucketOf(ranks[a], ranks[b])] >= absoluteMinSupport)
+                            candidates.add((long)ranks[a] * items.length + ranks[b]);
+            }
+        });
+
+        List<ItemSet> candidatePairs = new ArrayList<ItemSet>();
+        for (long key : candidates.toSortedArray())
+            candidatePairs.add(pair((int)(key / items.length), (int)(key % items.length), 0));
+        return candidatePairs;
+    }
+
+    /** Counts the pairs of the transactions from start (inclusive) to end (exclusive) into the given matrix.
+     * @return The number of pair occurrences counted. **/
+    private long countChunk(TransactionDatabase transactions, int start, int end, int[] chunkCounts, int[] matches) {
+        long occurrences = 0;
+        int[] ranks = new int[16];
+        for (int t = start; t < end; t++) {
+            int length = ranksOf(transactions, t, ranks = ensureCapacity(ranks, transactions.getLength(t)));
+            int weight = transactions.getWeight(t);
+            for (int a = 0; a < length; a++) {
+                int base = rowBase[ranks[a]];
+                for (int b = a+1; b < length; b++)
+                    chunkCounts[base + ranks[b]] += weight;
+            }
+
+            long pairs = (long)length * (length-1) / 2;
+            occurrences += pairs * weight;
+            if (matches != null)
+                matches[t] = (int)Math.min(Integer.MAX_VALUE, pairs);
+        }
+        return occurrences;
+    }
+
+    /** Stores the ranks of the frequent items of the given transaction, in increasing order, in the given array.
+     * @return The number of frequent items in the transaction. **/
+    private int ranksOf(TransactionDatabase transactions, int transaction, int[] ranks) {
+        int[] transactionItems = transactions.getItems();
+        int length = 0;
+        for (int i = transactions.getStart(transaction); i < transactions.getEnd(transaction); i++)
+            if (rankOf[transactionItems[i]] >= 0)
+                ranks[length++] = rankOf[transactionItems[i]];
+        return length;
+    }
+
+    /** @return The given array, or a larger one if it is shorter than the given length. **/
+    private static int[] ensureCapacity(int[] array, int length) {
+        return (array.length >= length) ? array : new int[Math.max(length, array.length*2)];
+    }
+
+    /** @return The bucket the pair of the given ranks is hashed into. **/
+    private static int bucketOf(int i, int j) {
+        int hash = i * 0x9E3779B9 + j;
+        hash ^= hash >>> 16;
+        return hash & (FILTER_BUCKETS-1);
+    }
+
+    /** @return A new 2-itemset of the items of the given ranks, with the given frequency count. **/
+    private ItemSet pair(int i, int j, int count) {
+        ItemSet itemSet = new ItemSet();
+        itemSet.add(items[i]);
+        itemSet.add(items[j]);
+        itemSet.incFrequency(count);
+        return itemSet;
+    }
+
+    /*
+     * A set of pairs of ranks, each kept as the long i*n + j for n frequent
+     * items, in an open-addressing table that doubles when it is half full.
+     */
+    private static final class PairSet {
+        private static final long EMPTY = -1;
+
+        private long[] keys = newTable(1 << 10);
+        private int size = 0;
+
+        /** Adds the given key to this set, unless it is already there. **/
+        void add(long key) {
+            int slot = find(keys, key);
+            if (keys[slot] == key)
+                return;
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                long[] oldKeys = keys;
+                keys = newTable(oldKeys.length * 2);
+                for (long oldKey : oldKeys)
+                    if (oldKey != EMPTY)
+                        keys[find(keys, oldKey)] = oldKey;
+            }
+        }
+
+        /** @return The keys of this set, in ascending order. **/
+        long[] toSortedArray() {
+            long[] sorted = new long[size];
+            int i = 0;
+            for (long key : keys)
+                if (key != EMPTY)
+                    sorted[i++] = key;
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        /** @return The slot of the given table that holds the given key, or the empty slot where it belongs. **/
+        private static int find(long[] table, long key) {
+            int mask = table.length-1;
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int slot = (int)(hash ^ (hash >>> 32)) & mask;
+            while (table[slot] != EMPTY && table[slot] != key)
+                slot = (slot+1) & mask;
+            return slot;
+        }
+
+        /** @return A new empty table of the given number of slots, a power of 2. **/
+        private static long[] newTable(int slots) {
+            long[] table = new long[slots];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+    }
+
+}
@@ -0,0 +1,248 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Finds frequent itemsets with the partition algorithm of Savasere,
+ * Omiecinski and Navathe, which reads the transactions only twice.
+ *
+ * The first scan splits the transactions into partitions small enough to
+ * be mined in memory, and mines each one with Apriori at a support scaled
+ * to its size. An itemset that is frequent overall must be frequent in at
+ * least one partition, so the union of the partitions' frequent itemsets
+ * holds every frequent itemset. The second scan counts that union over all
+ * transactions, in one hash tree per length, and keeps the itemsets that
+ * meet the minimum support.
+ *
+ * The partitions are independent, so they are mined concurrently on a
+ * thread pool, each by an Apriori miner of its own.
+ */
+public class PartitionMiner implements FrequentItemSetMiner {
+    private static final int PARTITIONS_DEFAULT = 4;
+    private static final int MAX_BUCKET_SIZE_DEFAULT = 5;
+    private static final int CHILDREN_DEFAULT = 3;
+
+    private List<HashTree> hashTrees;
+    private int numOfPartitionsMined; // the number of partitions the last run mined
+    private long numOfGlobalCandidates; // the number of itemsets frequent in some partition of the last run
+    private int maxCandidateLength; // the number of items of the longest of those itemsets
+    private int numOfPartitions = PARTITIONS_DEFAULT;
+    private int numOfThreads = 1;
+    private int maxBucketSize = MAX_BUCKET_SIZE_DEFAULT;
+    private int childrenPerNode = CHILDREN_DEFAULT;
+
+    private static PartitionMiner partitionMiner; // singleton
+
+    private PartitionMiner() {
+    }
+
+    public static PartitionMiner getPartitionMiner() {
+        if (partitionMiner == null)
+            partitionMiner = new PartitionMiner();
+        return partitionMiner;
+    }
+
+    /** Sets the number of partitions the transactions are split into. Each partition must fit in memory. **/
+    public void setNumberOfPartitions(int numOfPartitions) {
+        if (numOfPartitions < 1)
+            throw new IllegalArgumentException("The number of partitions must be at least 1");
+        this.numOfPartitions = numOfPartitions;
+    }
+
+    /** Sets the number of threads the partitions are mined on, and the final scan is counted on. **/
+    public void setNumberOfThreads(int numOfThreads) {
+        if (numOfThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.numOfThreads = numOfThreads;
+    }
+
+    /** Sets the shape of the hash trees used by the partitions' miners and by the final scan. **/
+    public void setHashTreeParameters(int maxBucketSize, int childrenPerNode) {
+        this.maxBucketSize = maxBucketSize;
+        this.childrenPerNode = childrenPerNode;
+    }
+
+    /**
+     * Runs the partition algorithm on the given encoded transactions, split into partitions of consecutive transactions.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        ExecutorService pool = Executors.newFixedThreadPool(numOfThreads);
+
+        try {
+            // first scan: mine every partition at once
+            List<Future<List<ItemSet>>> partitions = new ArrayList<Future<List<ItemSet>>>();
+            int partitionSize = (transactions.size() + numOfPartitions-1) / numOfPartitions;
+            int numOfTransactions = transactions.getTotalWeight();
+            for (int from = 0; from < transactions.size(); from += partitionSize) {
+                TransactionDatabase partition = transactions.subset(from, Math.min(from + partitionSize, transactions.size()));
+                partitions.add(pool.submit(() -> minePartition(partition, absoluteMinSupport, numOfTransactions)));
+            }
+
+            List<HashTree> candidates = new ArrayList<HashTree>();
+            Set<ItemSetKey> seen = new HashSet<ItemSetKey>();
+            for (Future<List<ItemSet>> partition : partitions)
+                addCandidates(candidates, seen, partition.get(), absoluteMinSupport);
+            recordCandidates(candidates, partitions.size());
+
+            // second scan: count the union of the partitions' frequent itemsets over all transactions
+            for (HashTree tree : candidates)
+                tree.countCandidates(transactions, (numOfThreads > 1) ? pool : null, numOfThreads, null);
+            keepFrequent(candidates);
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Mining the partitions failed", e); }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the partition algorithm out of core, on transactions spilled to disk. Each partition is one block of the
+     * spill, and the partitions are mined as they are read, at most one per thread at a time, so only that many
+     * partitions are ever in memory. The final scan streams the spill again, counting every level's candidates
+     * in each block before reading the next.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    public void run(TransactionSpill transactions, int absoluteMinSupport) {
+        ExecutorService pool = Executors.newFixedThreadPool(numOfThreads);
+
+        // a block falls short of its size by less than a transaction, so allow for one; otherwise a small extra
+        // partition could be left over at the end, which would be mined at a tiny local support
+        int itemsPerPartition = (int)Math.min(Integer.MAX_VALUE - 8,
+                (transactions.getTotalLength() + numOfPartitions-1) / numOfPartitions + transactions.getMaxLength());
+
+        try {
+            // first scan: mine each partition as it is read, keeping at most one partition per thread in memory
+            List<HashTree> candidates = new ArrayList<HashTree>();
+            Set<ItemSetKey> seen = new HashSet<ItemSetKey>();
+            List<Future<List<ItemSet>>> pending = new ArrayList<Future<List<ItemSet>>>();
+            int[] numOfPartitionsMined = new int[1];
+
+            transactions.forEachBlock(itemsPerPartition, (TransactionDatabase block) -> {
+                TransactionDatabase partition = block.copy(); // the block's arrays are reused for the next block
+                pending.add(pool.submit(() -> minePartition(partition, absoluteMinSupport, transactions.size())));
+                numOfPartitionsMined[0]++;
+                if (pending.size() == numOfThreads)
+                    addCandidates(candidates, seen, waitFor(pending.remove(0)), absoluteMinSupport);
+            });
+            while (!pending.isEmpty())
+                addCandidates(candidates, seen, waitFor(pending.remove(0)), absoluteMinSupport);
+            recordCandidates(candidates, numOfPartitionsMined[0]);
+
+            // second scan: count the union of the partitions' frequent itemsets over all transactions
+            transactions.forEachBlock(itemsPerPartition, (TransactionDatabase block) -> {
+                for (HashTree tree : candidates)
+                    tree.countCandidates(block, (numOfThreads > 1) ? pool : null, numOfThreads, null);
+            });
+            keepFrequent(candidates);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.hashTrees.get(k-1).toArray()); // k-itemset tree is at index k-1
+    }
+
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+
+        for (HashTree tree : hashTrees)
+            itemSets.addAll(tree.toArray());
+
+        return itemSets;
+    }
+
+    /** @return A sorted list of all hash trees (containing frequent itemsets) found by the algorithm. **/
+    public List<HashTree> getHashTrees() {
+        if (hashTrees == null)
+            throw new RuntimeException("The algorithm must be run before the hash trees can be accessed.");
+        return hashTrees;
+    }
+
+    /** Mines a partition with an Apriori miner of its own, at the minimum support scaled to the partition's total weight
+     * (rounded up, so that an itemset below it in every partition is below the minimum support overall).
+     * @return The frequent itemsets of the partition. **/
+    private List<ItemSet> minePartition(TransactionDatabase partition, int absoluteMinSupport, int numOfTransactions) {
+        int localMinSupport = (int)Math.max(1, ((long)absoluteMinSupport * partition.getTotalWeight() + numOfTransactions-1) / numOfTransactions);
+
+        Apriori apriori = new Apriori();
+        apriori.setPrintProgress(false);
+        apriori.setHashTreeParameters(maxBucketSize, childrenPerNode);
+        apriori.run(partition, localMinSupport);
+        return apriori.getAllFrequentItemSets();
+    }
+
+    /** Adds the frequent itemsets of a partition to the candidate trees, unless another partition already added them.
+     * The candidates are new itemsets, with a frequency count of 0. **/
+    private void addCandidates(List<HashTree> candidates, Set<ItemSetKey> seen, List<ItemSet> partitionItemSets,
+            int absoluteMinSupport) {
+        for (ItemSet itemSet : partitionItemSets) {
+            if (!seen.add(new ItemSetKey(itemSet)))
+                continue;
+
+            while (candidates.size() < itemSet.size())
+                candidates.add(new HashTree(candidates.size()+1, absoluteMinSupport, maxBucketSize, childrenPerNode));
+            candidates.get(itemSet.size()-1).addItemSet(new ItemSet(itemSet));
+        }
+    }
+
+    /** Removes the candidates that do not meet minimum support, and keeps the trees of the levels left as the result. **/
+    private void keepFrequent(List<HashTree> candidates) {
+        hashTrees = new ArrayList<HashTree>();
+        for (HashTree tree : candidates) {
+            tree.removeNoMinSupport();
+            if (tree.isEmpty())
+                break; // no longer itemset can be frequent if none of this length is
+            hashTrees.add(tree);
+        }
+    }
+
+    /** Records the number of partitions mined and of the global candidates they gave, for the summary of the run. **/
+    private void recordCandidates(List<HashTree> candidates, int numOfPartitions) {
+        numOfPartitionsMined = numOfPartitions;
+        numOfGlobalCandidates = 0;
+        for (HashTree tree : candidates)
+            numOfGlobalCandidates += tree.toArray().size();
+        maxCandidateLength = candidates.size();
+    }
+
+    /** @return The number of partitions the last run mined. **/
+    public int getNumberOfPartitionsMined() {
+        return numOfPartitionsMined;
+    }
+
+    /** @return The number of global candidates of the last run: the itemsets frequent in at least one partition. **/
+    public long getNumberOfGlobalCandidates() {
+        return numOfGlobalCandidates;
+    }
+
+    /** @return The number of items of the longest global candidate of the last run. **/
+    public int getMaxCandidateLength() {
+        return maxCandidateLength;
+    }
+
+    /** @return The result of the given mined partition, once it is done. **/
+    private static List<ItemSet> waitFor(Future<List<ItemSet>> partition) {
+        try {
+            return partition.get();
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Mining the partitions failed", e); }
+    }
+
+}
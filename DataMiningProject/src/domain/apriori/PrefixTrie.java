@@ -0,0 +1,392 @@
+package domain.apriori;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*
+ * Holds the k-itemsets of a level in a prefix trie of their item codes, as
+ * an alternative to a hash tree that has no parameters to tune and does not
+ * depend on how evenly item IDs hash. Each node of the trie stands for a
+ * prefix shared by candidates, and its children are the codes that extend
+ * it, in ascending order. The children of every node are kept in one flat
+ * array for the whole trie, with the node (or, for a whole candidate, the
+ * index of the candidate) each child leads to in a parallel array. The
+ * children of the root are indexed by code instead, since the codes are
+ * dense.
+ *
+ * The candidates are kept in lexicographic order of their codes, which is
+ * the order a CandidateJoin generates them in, so the candidates of the
+ * next level are put straight into a trie of their own without being
+ * sorted, and removing the infrequent ones keeps the order.
+ *
+ * A transaction, whose codes are sorted, is counted by walking the trie
+ * along it. At each node, the transaction's remaining items are matched to
+ * the node's children by a merge of the two sorted lists, skipping ahead
+ * by binary search through long runs of children. An item is only tried
+ * while enough items follow it to complete a candidate, and a node is left
+ * as soon as its children are exhausted.
+ */
+final class PrefixTrie implements CandidateStore {
+    private static final String LINE_SEPARATOR = String.format("%n");
+    private static final int MAX_LINEAR_SKIP = 8; // children skipped one at a time, beyond which they are binary searched
+
+    private final int numOfItemsPerItemSet;
+    private final int absoluteMinimumSupport;
+    private ItemSet[] candidates; // in lexicographic order of their codes
+    private int[] rootChildren; // the node (or candidate, for 1-itemsets) each code leads to from the root, or -1
+    private int[] childStart; // where the children of each node start in childCodes; the last entry ends the last node
+    private int[] childCodes;
+    private int[] childTargets; // the node each child leads to, or the candidate if the child ends a k-itemset
+
+    /** Builds a trie of the given k-itemsets, whose items must be encoded (EncodedItem). Itemsets given in lexicographic
+     * order of their codes, as a CandidateJoin generates them, are not sorted again.
+     * @param absoluteMinSupport The support an itemset needs to be kept by removeNoMinSupport(). **/
+    PrefixTrie(List<ItemSet> candidates, int itemsPerItemSet, int absoluteMinSupport) {
+        this.numOfItemsPerItemSet = itemsPerItemSet;
+        this.absoluteMinimumSupport = absoluteMinSupport;
+        this.candidates = candidates.toArray(new ItemSet[0]);
+        if (!isSortedByCodes(this.candidates, itemsPerItemSet))
+            sortByCodes(this.candidates, itemsPerItemSet);
+        index();
+    }
+
+    /** Indexes the candidates, which are in lexicographic order of their codes, in the arrays of the trie. The codes of
+     * the candidates are read from their items in each of two passes, so they are never all held at once. **/
+    private void index() {
+        int k = numOfItemsPerItemSet;
+        int[] codes = new int[k];
+        int[] previousCodes = new int[k];
+
+        // the nodes of each depth, and the children of each length of prefix, are numbered in the order of their prefixes
+        int[] numOfPrefixes = new int[k+1];
+        int maxCode = -1;
+        for (int i = 0; i < candidates.length; i++) {
+            codesOf(candidates[i], codes);
+            for (int length = firstNewPrefix(i, previousCodes, codes); length <= k; length++)
+                numOfPrefixes[length]++;
+            maxCode = Math.max(maxCode, codes[0]);
+            int[] swap = previousCodes;
+            previousCodes = codes;
+            codes = swap;
+        }
+        int[] nodeBase = new int[k+1]; // the number of the first node of each depth from 1 to k-1
+        int[] childBase = new int[k+2]; // the index of the first child ending a prefix of each length from 2 to k
+        for (int length = 2; length <= k; length++) {
+            nodeBase[length] = nodeBase[length-1] + numOfPrefixes[length-1];
+            childBase[length+1] = childBase[length] + numOfPrefixes[length];
+        }
+
+        int numOfNodes = (k > 1) ? nodeBase[k] : 0;
+        this.rootChildren = new int[maxCode+1];
+        Arrays.fill(rootChildren, -1);
+        this.childStart = new int[numOfNodes+1];
+        this.childCodes = new int[childBase[k+1]];
+        this.childTargets = new int[childBase[k+1]];
+
+        int[] numbered = new int[k+1]; // the number of prefixes of each length numbered so far
+        for (int i = 0; i < candidates.length; i++) {
+            codesOf(candidates[i], codes);
+            int firstNew = firstNewPrefix(i, previousCodes, codes);
+            for (int length = firstNew; length <= k; length++) {
+                int number = numbered[length]++;
+                int target = (length == k) ? i : nodeBase[length] + number;
+                if (length == 1) {
+                    rootChildren[codes[0]] = target;
+                    continue;
+                }
+                int child = childBase[length] + number;
+                childCodes[child] = codes[length-1];
+                childTargets[child] = target;
+                if (length > firstNew) // the parent is new too, and this is its first child
+                    childStart[nodeBase[length-1] + numbered[length-1]-1] = child;
+            }
+            int[] swap = previousCodes;
+            previousCodes = codes;
+            codes = swap;
+        }
+        childStart[numOfNodes] = childCodes.length;
+    }
+
+    /** @return The length of the shortest prefix of the candidate of the given index, whose codes are given, that the
+     * candidate before it, whose codes are also given, lacks. **/
+    private int firstNewPrefix(int index, int[] previousCodes, int[] codes) {
+        return (index == 0) ? 1 : sharedPrefixLength(previousCodes, codes, numOfItemsPerItemSet) + 1;
+    }
+
+    /** @return k for this trie of k-itemsets. **/
+    @Override
+    public int getNumberOfItemsPerItemSet() {
+        return numOfItemsPerItemSet;
+    }
+
+    /** @return True if this trie holds no itemsets. False otherwise. **/
+    @Override
+    public boolean isEmpty() {
+        return candidates.length == 0;
+    }
+
+    /** @return The itemsets of this trie, in lexicographic order of their codes. **/
+    @Override
+    public List<ItemSet> toArray() {
+        return new ArrayList<ItemSet>(Arrays.asList(candidates));
+    }
+
+    /** Calls the given action on every itemset in this trie, in the order of toArray(), without collecting them. **/
+    @Override
+    public void forEachItemSet(Consumer<ItemSet> action) {
+        for (ItemSet candidate : candidates)
+            action.accept(candidate);
+    }
+
+    /** Generates the candidate (k+1)-itemsets of the given run of joins into a new trie. The candidates of each chunk of
+     * joins are taken in the order of the chunks, so they reach the new trie in the order they were generated in, which
+     * is already lexicographic.
+     * @see CandidateStore#generateNextCandidates(CandidateJoin, int, int, ExecutorService, int) **/
+    @Override
+    public PrefixTrie generateNextCandidates(CandidateJoin join, int run, int numOfRuns, ExecutorService pool, int numOfWorkers) {
+        List<ItemSet> nextCandidates = new ArrayList<ItemSet>();
+        long firstJoin = join.partStart(run, numOfRuns);
+        long lastJoin = join.partStart(run+1, numOfRuns);
+
+        if (pool == null || numOfWorkers <= 1)
+            join.join(firstJoin, lastJoin, nextCandidates::add);
+        else {
+            long joinsPerChunk = Math.max(1, (lastJoin - firstJoin) / (numOfWorkers * CHUNKS_PER_WORKER));
+            List<Future<List<ItemSet>>> chunks = new ArrayList<Future<List<ItemSet>>>();
+
+            for (long first = firstJoin; first < lastJoin; first += joinsPerChunk) {
+                long from = first;
+                long to = Math.min(first + joinsPerChunk, lastJoin);
+                chunks.add(pool.submit(() -> {
+                    List<ItemSet> chunkCandidates = new ArrayList<ItemSet>();
+                    join.join(from, to, chunkCandidates::add);
+                    return chunkCandidates;
+                }));
+            }
+
+            try {
+                for (int i = 0; i < chunks.size(); i++) {
+                    nextCandidates.addAll(chunks.get(i).get());
+                    chunks.set(i, null); // drop the chunk's list once it is taken
+                }
+            }
+            catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Generating candidates failed", e); }
+        }
+        return new PrefixTrie(nextCandidates, numOfItemsPerItemSet+1, absoluteMinimumSupport);
+    }
+
+    /** Finds all candidate itemsets in the given transactions and increases their frequency counts in this trie,
+     * in chunks of transactions as countInChunks splits them.
+     * @param matches If not null, the number of candidates found in each transaction is stored in this array. **/
+    @Override
+    public void countCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches) {
+        countCandidates(transactions, pool, numOfWorkers, matches, null);
+    }
+
+    /** Counts the candidates like countCandidates(TransactionDatabase, ExecutorService, int, int[]), also recording
+     * which candidates each transaction contains, so that AprioriTid can count the next level without the transactions.
+     * @return The candidates found in each transaction, identified by their index in toArray(). **/
+    @Override
+    public CandidateIdTable countAndRecordCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers,
+            int[] matches) {
+        int[][] recorded = new int[transactions.size()][];
+        countCandidates(transactions, pool, numOfWorkers, matches, recorded);
+        return CandidateIdTable.of(recorded, transactions.getWeights(), candidates.length);
+    }
+
+    /** Counts the candidates in the given transactions on the given pool, giving each candidate its index as it would be
+     * recorded, which it keeps once the candidates are pruned.
+     * @param recorded If not null, the indices of the candidates found in each transaction are stored in this array. **/
+    private void countCandidates(TransactionDatabase transactions, ExecutorService pool, int numOfWorkers, int[] matches,
+            int[][] recorded) {
+        for (int i = 0; i < candidates.length; i++)
+            candidates[i].setIndex(i);
+        int[] counts = countInChunks(transactions.size(), candidates.length, pool, numOfWorkers,
+            (start, end, chunkCounts) -> countChunk(transactions, start, end, chunkCounts, matches, recorded));
+        for (int i = 0; i < counts.length; i++)
+            candidates[i].incFrequency(counts[i]);
+    }
+
+    /** Adds the counts of the candidates contained in the transactions from start (inclusive) to end (exclusive)
+     * to the given array.
+     * @param matches If not null, the number of candidates found in each transaction is stored in this array.
+     * @param recorded If not null, the indices of the candidates found in each transaction are stored in this array. **/
+    private void countChunk(TransactionDatabase transactions, int start, int end, int[] counts, int[] matches, int[][] recorded) {
+        int[] items = transactions.getItems();
+        int[] found = (recorded != null) ? new int[counts.length] : null; // a transaction contains each candidate at most once
+        for (int t = start; t < end; t++) {
+            int numOfFound = 0;
+            if (transactions.getLength(t) >= numOfItemsPerItemSet)
+                numOfFound = countTransaction(items, transactions.getStart(t), transactions.getEnd(t), counts, transactions.getWeight(t), found);
+            if (matches != null)
+                matches[t] = numOfFound;
+            if (recorded != null)
+                recorded[t] = Arrays.copyOf(found, numOfFound);
+        }
+    }
+
+    /** Adds the given weight to the count of every candidate contained in the transaction of the given sorted codes,
+     * from start (inclusive) to end (exclusive).
+     * @param found If not null, the indices of the candidates found are stored in this array.
+     * @return The number of candidates found. **/
+    private int countTransaction(int[] items, int start, int end, int[] counts, int weight, int[] found) {
+        int numOfFound = 0;
+        for (int i = start; i <= end - numOfItemsPerItemSet && items[i] < rootChildren.length; i++) {
+            int target = rootChildren[items[i]];
+            if (target < 0)
+                continue;
+            if (numOfItemsPerItemSet == 1) {
+                counts[target] += weight;
+                if (found != null)
+                    found[numOfFound] = target;
+                numOfFound++;
+            } else
+                numOfFound = countBelow(target, items, i+1, end, 2, counts, weight, found, numOfFound);
+        }
+        return numOfFound;
+    }
+
+    /** Adds the given weight to the count of every candidate below the given node, whose children end prefixes of the
+     * given length, that the sorted codes from the given index (inclusive) to end (exclusive) complete.
+     * @param found If not null, the indices of the candidates found are stored in this array, after the given number
+     *        of candidates already found in the transaction.
+     * @return The number of candidates found in the transaction so far, including those found before. **/
+    private int countBelow(int node, int[] items, int from, int end, int length, int[] counts, int weight, int[] found, int numOfFound) {
+        int child = childStart[node];
+        int lastChild = childStart[node+1];
+        int lastItem = end - (numOfItemsPerItemSet - length); // the items after the last one cannot complete a candidate
+
+        for (int i = from; i < lastItem && child < lastChild; i++) {
+            int code = items[i];
+            if (lastChild - child > MAX_LINEAR_SKIP && childCodes[child + MAX_LINEAR_SKIP] < code)
+                child = lowerBound(child + MAX_LINEAR_SKIP, lastChild, code);
+            else
+                while (child < lastChild && childCodes[child] < code)
+                    child++;
+            if (child == lastChild || childCodes[child] != code)
+                continue;
+
+            if (length == numOfItemsPerItemSet) {
+                counts[childTargets[child]] += weight;
+                if (found != null)
+                    found[numOfFound] = childTargets[child];
+                numOfFound++;
+            } else
+                numOfFound = countBelow(childTargets[child], items, i+1, end, length+1, counts, weight, found, numOfFound);
+            child++;
+        }
+        return numOfFound;
+    }
+
+    /** @return The first index from start (inclusive) to end (exclusive) whose child code is at least the given code,
+     * or end if there is none. **/
+    private int lowerBound(int start, int end, int code) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (childCodes[middle] < code)
+                low = middle+1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /** Removes all itemsets that have a frequency count lower than minimum support, keeping the others in order, and
+     * indexes the trie again for them.
+     * @return True if removal results in an empty trie. False otherwise. **/
+    @Override
+    public boolean removeNoMinSupport() {
+        int numOfKept = 0;
+        for (ItemSet candidate : candidates)
+            if (candidate.getFrequency() >= absoluteMinimumSupport)
+                candidates[numOfKept++] = candidate;
+        candidates = Arrays.copyOf(candidates, numOfKept);
+        index();
+        return isEmpty();
+    }
+
+    /** Writes the itemsets of this trie to the given output, one per line in the order of toArray(), after the same
+     * title as a hash tree's. **/
+    @Override
+    public void writeTree(Appendable out) throws IOException {
+        out.append("L_").append(String.valueOf(numOfItemsPerItemSet)).append(": frequent ")
+            .append(String.valueOf(numOfItemsPerItemSet)).append("-itemsets ({ set }:count): ").append(LINE_SEPARATOR);
+        for (ItemSet candidate : candidates) {
+            out.append(' ');
+            candidate.writeTo(out);
+            out.append(LINE_SEPARATOR);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        try {
+            writeTree(result);
+        }
+        catch (IOException e) { throw new RuntimeException(e); } // appending to a StringBuilder does not throw
+        return result.toString();
+    }
+
+    /** Writes the codes of the given itemset's (encoded) items, in order, to the given array. **/
+    private static void codesOf(ItemSet itemSet, int[] codes) {
+        int i = 0;
+        for (Item item : itemSet)
+            codes[i++] = ((EncodedItem)item).getCode();
+    }
+
+    /** @return The number of leading codes that the given k-codes share. **/
+    private static int sharedPrefixLength(int[] a, int[] b, int k) {
+        int length = 0;
+        while (length < k && a[length] == b[length])
+            length++;
+        return length;
+    }
+
+    /** @return True if the given k-itemsets are in strictly ascending lexicographic order of their codes. **/
+    private static boolean isSortedByCodes(ItemSet[] itemSets, int k) {
+        int[] codes = new int[k];
+        int[] previousCodes = new int[k];
+        for (int i = 0; i < itemSets.length; i++) {
+            codesOf(itemSets[i], codes);
+            int shared = sharedPrefixLength(previousCodes, codes, k);
+            if (i > 0 && (shared == k || previousCodes[shared] > codes[shared]))
+                return false;
+            int[] swap = previousCodes;
+            previousCodes = codes;
+            codes = swap;
+        }
+        return true;
+    }
+
+    /** Sorts the given k-itemsets lexicographically by their codes. **/
+    private static void sortByCodes(ItemSet[] itemSets, int k) {
+        int[][] codes = new int[itemSets.length][];
+        Integer[] order = new Integer[itemSets.length];
+        for (int i = 0; i < order.length; i++) {
+            codes[i] = new int[k];
+            codesOf(itemSets[i], codes[i]);
+            order[i] = i;
+        }
+
+        Arrays.sort(order, (Integer a, Integer b) -> {
+            for (int i = 0; i < k; i++)
+                if (codes[a][i] != codes[b][i])
+                    return Integer.compare(codes[a][i], codes[b][i]);
+            return 0;
+        });
+
+        ItemSet[] unsortedItemSets = itemSets.clone();
+        for (int i = 0; i < order.length; i++)
+            itemSets[i] = unsortedItemSets[order[i]];
+    }
+
+}
@@ -0,0 +1,256 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Derives association rules from frequent itemsets, as the rule generation
+ * step of Agrawal and Srikant does, without reading the transactions again.
+ *
+ * The supports of all frequent itemsets are indexed by their item codes, in
+ * one ItemSetIndex per length, so the support of any subset of a frequent
+ * itemset is found in constant time. For each frequent itemset, rules with a
+ * consequent of one item are tried first, then consequents are grown one
+ * item at a time by joining the consequents of the rules that met the
+ * minimum confidence. Moving an item from the antecedent to the consequent
+ * can only lower the confidence, since the antecedent's support can only
+ * rise, so a consequent is only tried if every consequent one item shorter
+ * made a confident rule.
+ *
+ * The itemsets are independent of each other, so they are split into chunks
+ * that are turned into rules concurrently on a thread pool.
+ */
+public class RuleGenerator {
+    private static final double MIN_CONFIDENCE_DEFAULT = 0.5;
+    private static final int CHUNKS_PER_WORKER = 8; // work is split into more chunks than workers to balance their load
+
+    private double minConfidence = MIN_CONFIDENCE_DEFAULT;
+    private int numOfThreads = 1;
+
+    private static RuleGenerator ruleGenerator; // singleton
+
+    private RuleGenerator() {
+    }
+
+    public static RuleGenerator getRuleGenerator() {
+        if (ruleGenerator == null)
+            ruleGenerator = new RuleGenerator();
+        return ruleGenerator;
+    }
+
+    /** Sets the minimum confidence a rule needs to be generated, from 0 to 1. **/
+    public void setMinimumConfidence(double minConfidence) {
+        if (minConfidence < 0 || minConfidence > 1)
+            throw new IllegalArgumentException("The minimum confidence must be from 0 to 1");
+        this.minConfidence = minConfidence;
+    }
+
+    /** Sets the number of threads rules are generated on. **/
+    public void setNumberOfThreads(int numOfThreads) {
+        if (numOfThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.numOfThreads = numOfThreads;
+    }
+
+    /**
+     * Generates every rule that meets the minimum confidence from the given frequent itemsets, such as those returned by
+     * FrequentItemSetMiner.getAllFrequentItemSets(). Every subset of a given itemset must also be given, as it is in the
+     * result of any miner, since the supports of the subsets are looked up among them.
+     * @param numOfTransactions The number of transactions the itemsets were mined from, which the lift is relative to.
+     * @return The rules, grouped by the itemset they were derived from, in the order of the itemsets.
+     */
+    public List<AssociationRule> generate(List<ItemSet> frequentItemSets, int numOfTransactions) {
+        SupportIndex supports = new SupportIndex(frequentItemSets, numOfTransactions);
+        List<AssociationRule> rules = new ArrayList<AssociationRule>();
+
+        if (numOfThreads <= 1 || frequentItemSets.size() < numOfThreads) {
+            generateChunk(frequentItemSets, supports, rules);
+            return rules;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            List<Future<List<AssociationRule>>> chunks = new ArrayList<Future<List<AssociationRule>>>();
+            int chunkSize = Math.max(1, frequentItemSets.size() / (numOfThreads * CHUNKS_PER_WORKER));
+            for (int start = 0; start < frequentItemSets.size(); start += chunkSize) {
+                List<ItemSet> chunk = frequentItemSets.subList(start, Math.min(start + chunkSize, frequentItemSets.size()));
+                chunks.add(pool.submit(() -> {
+                    List<AssociationRule> chunkRules = new ArrayList<AssociationRule>();
+                    generateChunk(chunk, supports, chunkRules);
+                    return chunkRules;
+                }));
+            }
+
+            for (Future<List<AssociationRule>> chunk : chunks)
+                rules.addAll(chunk.get());
+        }
+        catch (InterruptedException | ExecutionException e) { throw new RuntimeException("Generating rules failed", e); }
+        finally {
+            pool.shutdown();
+        }
+        return rules;
+    }
+
+    /** Adds the rules of each of the given itemsets to the given list. **/
+    private void generateChunk(List<ItemSet> itemSets, SupportIndex supports, List<AssociationRule> rules) {
+        for (ItemSet itemSet : itemSets)
+            if (itemSet.size() > 1)
+                generateRules(new ItemSetKey(itemSet).getCodes(), itemSet.getFrequency(), supports, rules);
+    }
+
+    /** Adds the rules derived from the frequent itemset of the given sorted codes to the given list, growing the
+     * consequents of the confident rules level by level. **/
+    private void generateRules(int[] codes, int support, SupportIndex supports, List<AssociationRule> rules) {
+        List<int[]> consequents = new ArrayList<int[]>();
+        for (int code : codes)
+            consequents.add(new int[] { code });
+
+        for (int m = 1; m < codes.length && !consequents.isEmpty(); m++) {
+            List<int[]> confident = new ArrayList<int[]>();
+            for (int[] consequent : consequents) {
+                int[] antecedent = difference(codes, consequent);
+                double confidence = (double)support / supports.supportOf(antecedent);
+                if (confidence >= minConfidence) {
+                    confident.add(consequent);
+                    double lift = confidence / supports.relativeSupportOf(consequent);
+                    rules.add(new AssociationRule(supports.itemsOf(antecedent), supports.itemsOf(consequent), support, confidence, lift));
+                }
+            }
+            consequents = (m+1 < codes.length) ? joinConsequents(confident) : new ArrayList<int[]>();
+        }
+    }
+
+    /** Joins the given sorted m-item consequents that share their first m-1 items into (m+1)-item consequents, keeping
+     * only those whose m-item subsets are all among the given consequents. The given consequents must be in
+     * lexicographic order, as are the joined ones. **/
+    private static List<int[]> joinConsequents(List<int[]> consequents) {
+        List<int[]> joined = new ArrayList<int[]>();
+        if (consequents.size() < 2)
+            return joined;
+
+        int m = consequents.get(0).length;
+        Set<ItemSetKey> present = new HashSet<ItemSetKey>();
+        for (int[] consequent : consequents)
+            present.add(keyOf(consequent));
+
+        for (int i = 0; i < consequents.size(); i++) {
+            int[] first = consequents.get(i);
+            for (int j = i+1; j < consequents.size() && sharePrefix(first, consequents.get(j), m-1); j++) {
+                int[] candidate = new int[m+1];
+                System.arraycopy(first, 0, candidate, 0, m);
+                candidate[m] = consequents.get(j)[m-1];
+                if (allSubsetsPresent(candidate, present))
+                    joined.add(candidate);
+            }
+        }
+        return joined;
+    }
+
+    /** @return True if every subset of the given codes that is one code shorter is in the given set. The two subsets
+     * without one of the last two codes are the consequents the codes were joined from, so they are not checked. **/
+    private static boolean allSubsetsPresent(int[] codes, Set<ItemSetKey> present) {
+        for (int skip = 0; skip < codes.length-2; skip++) {
+            ItemSetKey key = new ItemSetKey(codes.length-1);
+            for (int i = 0, j = 0; i < codes.length; i++)
+                if (i != skip)
+                    key.getCodes()[j++] = codes[i];
+            key.rehash();
+            if (!present.contains(key))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return True if the given arrays have the same first length codes. **/
+    private static boolean sharePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++)
+            if (a[i] != b[i])
+                return false;
+        return true;
+    }
+
+    /** @return A key holding the given codes. **/
+    private static ItemSetKey keyOf(int[] codes) {
+        ItemSetKey key = new ItemSetKey(codes.length);
+        System.arraycopy(codes, 0, key.getCodes(), 0, codes.length);
+        key.rehash();
+        return key;
+    }
+
+    /** @return The sorted codes of the first given codes that are not among the second, both sorted. **/
+    private static int[] difference(int[] codes, int[] removed) {
+        int[] result = new int[codes.length - removed.length];
+        int r = 0;
+        int j = 0;
+        for (int code : codes) {
+            if (j < removed.length && removed[j] == code)
+                j++;
+            else
+                result[r++] = code;
+        }
+        return result;
+    }
+
+    /*
+     * The supports of a collection of frequent itemsets, looked up by the
+     * sorted codes of their items, and the item of each code.
+     */
+    private static final class SupportIndex {
+        private final ItemSetIndex[] byLength; // the index of the k-itemsets is at index k
+        private final EncodedItem[] items; // indexed by code
+        private final int numOfTransactions;
+
+        SupportIndex(List<ItemSet> itemSets, int numOfTransactions) {
+            List<List<ItemSet>> levels = new ArrayList<List<ItemSet>>();
+            int maxCode = -1;
+            for (ItemSet itemSet : itemSets) {
+                while (levels.size() <= itemSet.size())
+                    levels.add(new ArrayList<ItemSet>());
+                levels.get(itemSet.size()).add(itemSet);
+                if (itemSet.size() == 1)
+                    maxCode = Math.max(maxCode, ((EncodedItem)itemSet.first()).getCode());
+            }
+
+            this.byLength = new ItemSetIndex[levels.size()];
+            for (int k = 1; k < levels.size(); k++)
+                byLength[k] = new ItemSetIndex(levels.get(k), k);
+
+            this.items = new EncodedItem[maxCode+1];
+            if (levels.size() > 1)
+                for (ItemSet itemSet : levels.get(1))
+                    items[((EncodedItem)itemSet.first()).getCode()] = (EncodedItem)itemSet.first();
+            this.numOfTransactions = numOfTransactions;
+        }
+
+        /** @return The frequency count of the itemset of the given sorted codes. **/
+        int supportOf(int[] codes) {
+            int support = (codes.length < byLength.length) ? byLength[codes.length].supportOf(codes) : -1;
+            if (support < 0)
+                throw new IllegalArgumentException("The frequent itemsets must include every subset of each itemset");
+            return support;
+        }
+
+        /** @return The fraction of the transactions that contain the itemset of the given sorted codes. **/
+        double relativeSupportOf(int[] codes) {
+            return (double)supportOf(codes) / numOfTransactions;
+        }
+
+        /** @return The items of the given codes. **/
+        Item[] itemsOf(int[] codes) {
+            Item[] result = new Item[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] >= items.length || items[codes[i]] == null)
+                    throw new IllegalArgumentException("The frequent itemsets must include every subset of each itemset");
+                result[i] = items[codes[i]];
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Finds frequent itemsets with Toivonen's sampling algorithm, which mines a
+ * random sample of the transactions instead of all of them, then verifies
+ * the result in a single scan of the full transactions.
+ *
+ * The sample is mined with Apriori at a support lowered below the minimum
+ * support scaled to the sample's size, so that an itemset frequent overall
+ * is unlikely to be missed by chance. The itemsets frequent in the sample
+ * are then counted over all transactions, together with their negative
+ * border: the itemsets that are not frequent in the sample but whose
+ * subsets all are. For every length k, these are exactly the candidates
+ * Apriori generates from the sample's frequent (k-1)-itemsets.
+ *
+ * If no itemset of the negative border turns out to be frequent, every
+ * frequent itemset was counted and the result is exact. Otherwise, some
+ * superset of a frequent border itemset may be frequent without having been
+ * counted, and a second pass (a larger sample, more slack, or an exact
+ * engine) is needed to be sure of the result.
+ */
+public class SamplingMiner implements FrequentItemSetMiner {
+    // the sample size for which the support of an itemset in the sample is within 0.01 of its real support
+    // with a probability of 99%, by the Chernoff bound used by Toivonen: ln(2 / 0.01) / (2 * 0.01^2)
+    private static final int SAMPLE_SIZE_DEFAULT = 26492;
+    private static final double SUPPORT_SLACK_DEFAULT = 0.2;
+    private static final double MEMORY_FRACTION_FOR_PAIR_COUNTS = 0.5; // of the free heap, for the triangular matrix
+    private static final int MAX_BUCKET_SIZE_DEFAULT = 5;
+    private static final int CHILDREN_DEFAULT = 3;
+
+    private List<HashTree> hashTrees;
+    private List<ItemSet> missedItemSets; // the frequent itemsets of the negative border
+    private int numOfSampledTransactions; // the total weight of the sample of the last run
+    private int sampleMinSupport; // the support the sample of the last run was mined at
+    private int numOfFrequentInSample; // the number of itemsets frequent in the sample of the last run
+    private long numOfBorderItemSets; // the number of itemsets in the negative border of the last run
+    private int sampleSize = SAMPLE_SIZE_DEFAULT;
+    private double supportSlack = SUPPORT_SLACK_DEFAULT;
+    private int numOfThreads = 1;
+    private int maxBucketSize = MAX_BUCKET_SIZE_DEFAULT;
+    private int childrenPerNode = CHILDREN_DEFAULT;
+    private Random random = new Random();
+
+    private static SamplingMiner samplingMiner; // singleton
+
+    private SamplingMiner() {
+    }
+
+    public static SamplingMiner getSamplingMiner() {
+        if (samplingMiner == null)
+            samplingMiner = new SamplingMiner();
+        return samplingMiner;
+    }
+
+    /** Sets the number of transactions drawn for the sample. If there are no more transactions than this, all of them are mined. **/
+    public void setSampleSize(int sampleSize) {
+        if (sampleSize < 1)
+            throw new IllegalArgumentException("The sample size must be at least 1");
+        this.sampleSize = sampleSize;
+    }
+
+    /** Sets the fraction by which the minimum support, scaled to the sample's size, is lowered to mine the sample.
+     * More slack makes a missed frequent itemset less likely, at the cost of more itemsets to count in the full scan. **/
+    public void setSupportSlack(double supportSlack) {
+        if (supportSlack < 0 || supportSlack >= 1)
+            throw new IllegalArgumentException("The support slack must be at least 0 and less than 1");
+        this.supportSlack = supportSlack;
+    }
+
+    /** Sets the number of threads the sample is mined on, and the full scan is counted on. **/
+    public void setNumberOfThreads(int numOfThreads) {
+        if (numOfThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.numOfThreads = numOfThreads;
+    }
+
+    /** Sets the shape of the hash trees used by the sample's miner and by the full scan. **/
+    public void setHashTreeParameters(int maxBucketSize, int childrenPerNode) {
+        this.maxBucketSize = maxBucketSize;
+        this.childrenPerNode = childrenPerNode;
+    }
+
+    /** Sets the random number generator the sample is drawn with, e.g. a seeded one for repeatable runs. **/
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Runs the sampling algorithm on the given encoded transactions: mines a random sample, then counts its frequent
+     * itemsets and their negative border over all transactions.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport The minimum number of occurrences an itemset needs to be considered frequent.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        int numOfTransactions = transactions.getTotalWeight();
+        TransactionDatabase sample = drawSample(transactions, numOfTransactions);
+        this.numOfSampledTransactions = sample.getTotalWeight();
+        this.sampleMinSupport = (int)Math.max(1,
+                Math.floor((1 - supportSlack) * absoluteMinSupport * sample.getTotalWeight() / Math.max(1, numOfTransactions)));
+
+        Apriori apriori = new Apriori();
+        apriori.setPrintProgress(false);
+        apriori.setNumberOfThreads(numOfThreads);
+        apriori.setHashTreeParameters(maxBucketSize, childrenPerNode);
+        apriori.run(sample, sampleMinSupport);
+        List<HashTree> sampleTrees = apriori.getHashTrees();
+
+        // the candidates of length 1 are all items, which are counted by their occurrences; only the frequent ones are kept
+        int[] itemCounts = transactions.countItems();
+        List<HashTree> candidates = new ArrayList<HashTree>();
+        candidates.add(new HashTree(1, absoluteMinSupport, maxBucketSize, childrenPerNode));
+        long numOfCandidates = itemCounts.length;
+        for (int code = 0; code < itemCounts.length; code++) {
+            if (itemCounts[code] >= absoluteMinSupport) {
+                ItemSet itemSet = new ItemSet();
+                itemSet.add(transactions.getItem(code));
+                itemSet.incFrequency(itemCounts[code]);
+                candidates.get(0).addItemSet(itemSet);
+            }
+        }
+
+        // the candidates of length 2 are every pair of the sample's frequent items, which are counted in a triangular
+        // matrix if it fits in memory; only the pairs that turn out frequent are put in a tree
+        PairCounter pairs = null;
+        if (!sampleTrees.isEmpty()) {
+            pairs = new PairCounter(sampleTrees.get(0), transactions.getNumberOfItems());
+            if (!pairs.fitsInArray() || pairs.getMatrixSizeInBytes() > Apriori.memoryBudget(MEMORY_FRACTION_FOR_PAIR_COUNTS))
+                pairs = null;
+        }
+
+        // the candidates of length k+1 are generated from the sample's frequent k-itemsets, as Apriori would
+        Set<ItemSetKey> frequentInSample = new HashSet<ItemSetKey>();
+        for (HashTree sampleTree : sampleTrees) {
+            for (ItemSet itemSet : sampleTree.toArray())
+                frequentInSample.add(new ItemSetKey(itemSet));
+
+            if (pairs != null && sampleTree.getNumberOfItemsPerItemSet() == 1) {
+                candidates.add(null); // counted in the matrix by the full scan
+                numOfCandidates += pairs.getNumberOfPairs();
+                continue;
+            }
+            HashTree tree = new HashTree(sampleTree.getNumberOfItemsPerItemSet()+1, absoluteMinSupport, maxBucketSize, childrenPerNode);
+            for (ItemSet candidate : sampleTree.generateNextCandidateTree().toArray()) {
+                tree.addItemSet(candidate);
+                numOfCandidates++;
+            }
+            if (!tree.isEmpty())
+                candidates.add(tree);
+        }
+
+        // the full scan: count every longer candidate over all transactions, stripped of the items that are in none,
+        // i.e. those not frequent in the sample
+        TransactionDatabase scanned = transactions;
+        if (!sampleTrees.isEmpty()) {
+            boolean[] keepItem = new boolean[transactions.getNumberOfItems()];
+            for (ItemSet itemSet : sampleTrees.get(0).toArray())
+                keepItem[((EncodedItem)itemSet.first()).getCode()] = true;
+            scanned = transactions.copy();
+            scanned.reduce(keepItem, null, 2);
+        }
+
+        ExecutorService pool = (numOfThreads > 1) ? Executors.newFixedThreadPool(numOfThreads) : null;
+        try {
+            for (HashTree tree : candidates.subList(1, candidates.size()))
+                if (tree != null)
+                    tree.countCandidates(scanned, pool, numOfThreads, null);
+
+            if (pairs != null) {
+                // every worker counts into a matrix of its own, so use no more workers than there are matrices that fit
+                long budget = Apriori.memoryBudget(MEMORY_FRACTION_FOR_PAIR_COUNTS);
+                pairs.count(scanned, pool, (int)Math.max(1, Math.min(numOfThreads, budget / Math.max(1, pairs.getMatrixSizeInBytes()))), null);
+                HashTree frequentPairs = new HashTree(2, absoluteMinSupport, maxBucketSize, childrenPerNode);
+                for (ItemSet pair : pairs.frequentPairs(absoluteMinSupport))
+                    frequentPairs.addItemSet(pair);
+                candidates.set(1, frequentPairs);
+            }
+        }
+        finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        // the itemsets not frequent in the sample are its negative border, which must all turn out infrequent
+        missedItemSets = new ArrayList<ItemSet>();
+        keepFrequent(candidates);
+        for (HashTree tree : hashTrees)
+            for (ItemSet itemSet : tree.toArray())
+                if (!frequentInSample.contains(new ItemSetKey(itemSet)))
+                    missedItemSets.add(itemSet);
+        this.numOfFrequentInSample = frequentInSample.size();
+        this.numOfBorderItemSets = numOfCandidates - frequentInSample.size();
+    }
+
+    /** @return The total weight of the transactions drawn for the sample of the last run. **/
+    public int getNumberOfSampledTransactions() {
+        return numOfSampledTransactions;
+    }
+
+    /** @return The minimum support the sample of the last run was mined at. **/
+    public int getSampleMinimumSupport() {
+        return sampleMinSupport;
+    }
+
+    /** @return The number of itemsets that were frequent in the sample of the last run. **/
+    public int getNumberOfFrequentInSample() {
+        return numOfFrequentInSample;
+    }
+
+    /** @return The number of itemsets in the negative border of the sample of the last run. **/
+    public long getNumberOfBorderItemSets() {
+        return numOfBorderItemSets;
+    }
+
+    /** @return True if the last run found every frequent itemset, because none of its negative border was frequent.
+     * False if a frequent itemset may have been missed, in which case a second pass is needed. **/
+    public boolean isExact() {
+        if (missedItemSets == null)
+            throw new RuntimeException("The algorithm must be run before its result can be verified.");
+        return missedItemSets.isEmpty();
+    }
+
+    /** @return The itemsets of the negative border that turned out to be frequent in the last run.
+     * Their supersets were not counted, and may be frequent. **/
+    public List<ItemSet> getMissedItemSets() {
+        if (missedItemSets == null)
+            throw new RuntimeException("The algorithm must be run before its result can be verified.");
+        return missedItemSets;
+    }
+
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.hashTrees.get(k-1).toArray()); // k-itemset tree is at index k-1
+    }
+
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+
+        for (HashTree tree : hashTrees)
+            itemSets.addAll(tree.toArray());
+
+        return itemSets;
+    }
+
+    /** @return A sorted list of all hash trees (containing frequent itemsets) found by the algorithm. **/
+    public List<HashTree> getHashTrees() {
+        if (hashTrees == null)
+            throw new RuntimeException("The algorithm must be run before the hash trees can be accessed.");
+        return hashTrees;
+    }
+
+    /** @return A simple random sample of this.sampleSize of the given transactions (all of them, if there are no more),
+     * kept in their original order. Each occurrence of a distinct transaction may be drawn, so a distinct transaction
+     * is in the sample with the number of its occurrences drawn as its weight.
+     * @param numOfTransactions The total weight of the given transactions. **/
+    private TransactionDatabase drawSample(TransactionDatabase transactions, int numOfTransactions) {
+        if (numOfTransactions <= sampleSize)
+            return transactions;
+
+        // a partial Fisher-Yates shuffle: the first sampleSize occurrences end up a uniform sample without replacement
+        int[] occurrences = new int[numOfTransactions];
+        for (int i = 0; i < occurrences.length; i++)
+            occurrences[i] = i;
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(occurrences.length - i);
+            int swap = occurrences[i];
+            occurrences[i] = occurrences[j];
+            occurrences[j] = swap;
+        }
+
+        // the occurrences of transaction t are numbered from the total weight of the transactions before it
+        int[] chosen = Arrays.copyOf(occurrences, sampleSize);
+        Arrays.sort(chosen);
+        int[] indices = new int[sampleSize];
+        int[] weights = new int[sampleSize];
+        int numOfChosen = 0;
+        int t = 0;
+        int end = transactions.getWeight(0); // one past the last occurrence of transaction t
+        for (int occurrence : chosen) {
+            while (occurrence >= end)
+                end += transactions.getWeight(++t);
+            if (numOfChosen == 0 || indices[numOfChosen-1] != t)
+                indices[numOfChosen++] = t;
+            weights[numOfChosen-1]++;
+        }
+
+        return transactions.select(Arrays.copyOf(indices, numOfChosen), weights);
+    }
+
+    /** Removes the candidates that do not meet minimum support, and keeps the trees of the levels left as the result. **/
+    private void keepFrequent(List<HashTree> candidates) {
+        hashTrees = new ArrayList<HashTree>();
+        for (HashTree tree : candidates) {
+            tree.removeNoMinSupport();
+            if (tree.isEmpty())
+                break; // no longer itemset can be frequent if none of this length is
+            hashTrees.add(tree);
+        }
+    }
+
+}
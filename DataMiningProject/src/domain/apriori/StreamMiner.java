@@ -0,0 +1,384 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Finds the frequent itemsets of the most recent baskets of a stream, one
+ * basket at a time, with approximate counts in bounded memory. The baskets
+ * are kept in a sliding window of panes: the open pane the baskets arrive
+ * in, and the panes closed before it. When the open pane is full, it is
+ * closed, the oldest pane leaves the window, and a new pane is opened, so
+ * the window holds between windowSize - paneSize and windowSize baskets.
+ *
+ * The itemsets of at most maxLength items that occur in the window are
+ * counted in a prefix tree of their items, in code order, with a count per
+ * pane in each node. The counts of the open pane are exact. When a pane is
+ * closed, its counts of at most floor(error * paneSize) are dropped, as
+ * Lossy Counting drops counts at the end of a bucket. Nodes left with no
+ * count in any pane of the window are removed. The count of every itemset
+ * in the window is then underestimated by at most the sum of the counts
+ * dropped from the closed panes of the window, which is at most error times
+ * the size of the window:
+ *
+ *     f(X) - error * windowSize <= estimate(X) <= f(X)
+ *
+ * Itemsets whose estimated count is at least the minimum support less this
+ * bound are reported, so no itemset that is frequent in the window is
+ * missed, and none is reported that falls short of the minimum support by
+ * more than the bound. The estimate of an itemset is never above that of
+ * its subsets, so the itemsets reported hold every subset of each itemset.
+ *
+ * A basket of n items updates the counts of the subsets of at most
+ * maxLength of its items, however long the stream has run. Closing a pane
+ * visits every node, but each closed pane keeps fewer than
+ * (subsets per basket) / error nodes, so this takes constant time per
+ * basket, amortized over the baskets of the pane. Items are encoded as
+ * they first arrive, and forgotten when they leave the prefix tree.
+ */
+public class StreamMiner implements FrequentItemSetMiner {
+    private static final int WINDOW_SIZE_DEFAULT = 10000;
+    private static final int PANES_DEFAULT = 10;
+    private static final double ERROR_DEFAULT = 0.001;
+    private static final int MAX_LENGTH_DEFAULT = 3;
+    private static final int MIN_CHILD_SLOTS = 4;
+
+    private int windowSize = WINDOW_SIZE_DEFAULT;
+    private int numOfPanes = PANES_DEFAULT;
+    private double error = ERROR_DEFAULT;
+    private int maxLength = MAX_LENGTH_DEFAULT;
+
+    private int paneSize;
+    private int openPane; // the index of the pane baskets are added to
+    private int[] paneBaskets; // the number of baskets in each pane
+    private int[] paneErrors; // the largest count dropped from each closed pane
+    private WindowNode root;
+    private Map<Item, EncodedItem> dictionary; // the items in the prefix tree
+    private int nextCode;
+    private long numOfBaskets; // the number of baskets added since the stream started
+    private List<List<ItemSet>> frequentItemSets; // frequent k-itemsets are at index k-1
+
+    private static StreamMiner streamMiner; // singleton
+
+    private StreamMiner() {
+        reset();
+    }
+
+    public static StreamMiner getStreamMiner() {
+        if (streamMiner == null)
+            streamMiner = new StreamMiner();
+        return streamMiner;
+    }
+
+    /** Sets the number of most recent baskets the window holds, and the number of panes it is split into, then
+     * starts a new stream. **/
+    public void setWindow(int windowSize, int numOfPanes) {
+        if (numOfPanes < 2)
+            throw new IllegalArgumentException("The window must have at least 2 panes");
+        if (windowSize < numOfPanes)
+            throw new IllegalArgumentException("The window must hold at least one basket per pane");
+        this.windowSize = windowSize;
+        this.numOfPanes = numOfPanes;
+        reset();
+    }
+
+    /** Sets the fraction of the window size that the count of an itemset may be underestimated by, then starts a
+     * new stream. **/
+    public void setError(double error) {
+        if (error <= 0 || error >= 1)
+            throw new IllegalArgumentException("The error must be between 0 and 1");
+        this.error = error;
+        reset();
+    }
+
+    /** Sets the maximum length of the itemsets counted, then starts a new stream. **/
+    public void setMaxLength(int maxLength) {
+        if (maxLength < 1)
+            throw new IllegalArgumentException("The maximum length must be at least 1");
+        this.maxLength = maxLength;
+        reset();
+    }
+
+    /** Forgets every basket added, starting a new stream. **/
+    public void reset() {
+        this.paneSize = (windowSize + numOfPanes-1) / numOfPanes;
+        this.openPane = 0;
+        this.paneBaskets = new int[numOfPanes];
+        this.paneErrors = new int[numOfPanes];
+        this.root = new WindowNode(null, numOfPanes);
+        this.dictionary = new HashMap<Item, EncodedItem>();
+        this.nextCode = 0;
+        this.numOfBaskets = 0;
+        this.frequentItemSets = new ArrayList<List<ItemSet>>();
+    }
+
+    /** Adds a basket of (decoded) items to the window, closing the open pane first if it is full. Repeated items are
+     * counted once. **/
+    public void addBasket(Collection<? extends Item> basket) {
+        if (paneBaskets[openPane] == paneSize)
+            closePane();
+
+        EncodedItem[] items = new EncodedItem[basket.size()];
+        int length = 0;
+        for (Item item : basket) {
+            EncodedItem encoded = dictionary.get(item);
+            if (encoded == null) {
+                encoded = new EncodedItem(nextCode++, item);
+                dictionary.put(item, encoded);
+            }
+            items[length++] = encoded;
+        }
+        Arrays.sort(items);
+        length = removeRepeats(items);
+
+        count(root, items, length, 0, 1);
+        paneBaskets[openPane]++;
+        numOfBaskets++;
+    }
+
+    /** @return The number of baskets in the window. **/
+    public int getWindowSize() {
+        int size = 0;
+        for (int baskets : paneBaskets)
+            size += baskets;
+        return size;
+    }
+
+    /** @return The most that the count of any itemset in the window is underestimated by. **/
+    public int getMaximumError() {
+        int maxError = 0;
+        for (int pane = 0; pane < numOfPanes; pane++)
+            if (pane != openPane)
+                maxError += paneErrors[pane];
+        return maxError;
+    }
+
+    /** @return The number of baskets added since the stream started. **/
+    public long getNumberOfBaskets() {
+        return numOfBaskets;
+    }
+
+    /**
+     * Finds the frequent itemsets of the baskets in the window, which are also returned by getAllFrequentItemSets()
+     * until this is called again. The frequency count of each itemset is its estimated count in the window.
+     * @param absoluteMinSupport The count in the window an itemset must have to be frequent. Itemsets whose estimated
+     *                           count is below it by no more than getMaximumError() are also found.
+     * @return The frequent itemsets, shortest first.
+     */
+    public List<ItemSet> findFrequentItemSets(int absoluteMinSupport) {
+        this.frequentItemSets = new ArrayList<List<ItemSet>>();
+        collect(root, new EncodedItem[maxLength], 0, Math.max(1, absoluteMinSupport - getMaximumError()));
+        return getAllFrequentItemSets();
+    }
+
+    /**
+     * Adds the given transactions to a new stream, in order, then finds the frequent itemsets of the window they
+     * leave, as findFrequentItemSets does.
+     * @param transactions The transactions to stream. A transaction of weight w is added as w baskets.
+     * @param absoluteMinSupport The count in the window an itemset must have to be frequent.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        reset();
+        int[] items = transactions.getItems();
+        for (int t = 0; t < transactions.size(); t++) {
+            List<Item> basket = new ArrayList<Item>(transactions.getLength(t));
+            for (int i = transactions.getStart(t); i < transactions.getEnd(t); i++)
+                basket.add(transactions.getItem(items[i]).getDecodedItem());
+            for (int w = 0; w < transactions.getWeight(t); w++)
+                addBasket(basket);
+        }
+        findFrequentItemSets(absoluteMinSupport);
+    }
+
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.frequentItemSets.get(k-1));
+    }
+
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+
+        for (List<ItemSet> kItemSets : frequentItemSets)
+            itemSets.addAll(kItemSets);
+
+        return itemSets;
+    }
+
+    /** Adds one to the open pane's count of every itemset made of the given node's itemset plus at least one of the
+     * given items, sorted by code, from the given index on, up to maxLength items, creating the nodes missing. **/
+    private void count(WindowNode node, EncodedItem[] items, int length, int from, int depth) {
+        for (int i = from; i < length; i++) {
+            WindowNode child = node.getChild(items[i].getCode());
+            if (child == null)
+                child = node.addChild(items[i], numOfPanes);
+            child.counts[openPane]++;
+            child.total++;
+            if (depth < maxLength)
+                count(child, items, length, i+1, depth+1);
+        }
+    }
+
+    /** Closes the open pane, dropping its counts of at most floor(error * paneSize), and opens the pane of the oldest
+     * baskets in its place, dropping all their counts. Nodes left with no counts are removed. **/
+    private void closePane() {
+        int closed = openPane;
+        paneErrors[closed] = (int)(error * paneBaskets[closed]);
+        openPane = (openPane + 1) % numOfPanes;
+        paneBaskets[openPane] = 0;
+        paneErrors[openPane] = 0;
+        prune(root, closed, paneErrors[closed], 1);
+    }
+
+    /** Drops the counts of the closed pane of at most maxDropped, and the counts of the open pane, from the descendants
+     * of the given node, removing those left with no counts along with their descendants. **/
+    private void prune(WindowNode node, int closed, int maxDropped, int depth) {
+        if (node.children == null)
+            return;
+        boolean removed = false;
+        for (int slot = 0; slot < node.children.length; slot++) {
+            WindowNode child = node.children[slot];
+            if (child == null)
+                continue;
+            if (child.counts[closed] <= maxDropped) {
+                child.total -= child.counts[closed];
+                child.counts[closed] = 0;
+            }
+            child.total -= child.counts[openPane];
+            child.counts[openPane] = 0;
+
+            // a child's count in a pane is never above its parent's, so its descendants have no counts left either
+            if (child.total == 0) {
+                node.children[slot] = null;
+                node.numOfChildren--;
+                removed = true;
+                if (depth == 1)
+                    dictionary.remove(child.item.getDecodedItem());
+            }
+            else if (depth < maxLength)
+                prune(child, closed, maxDropped, depth+1);
+        }
+        if (removed)
+            node.rehashChildren();
+    }
+
+    /** Adds the itemset of each descendant of the given node whose count is at least minSupport to the results. The
+     * items of the given node's itemset are the first depth of the given items. **/
+    private void collect(WindowNode node, EncodedItem[] items, int depth, int minSupport) {
+        if (node.children == null)
+            return;
+        for (WindowNode child : node.children) {
+            if (child == null || child.total < minSupport)
+                continue;
+            items[depth] = child.item;
+
+            ItemSet itemSet = new ItemSet();
+            for (int i = 0; i <= depth; i++)
+                itemSet.add(items[i]);
+            itemSet.incFrequency(child.total);
+            while (frequentItemSets.size() <= depth)
+                frequentItemSets.add(new ArrayList<ItemSet>());
+            frequentItemSets.get(depth).add(itemSet);
+
+            collect(child, items, depth+1, minSupport);
+        }
+    }
+
+    /** Moves the distinct items of the given items, sorted by code, to their front.
+     * @return The number of distinct items. **/
+    private static int removeRepeats(EncodedItem[] items) {
+        if (items.length == 0)
+            return 0;
+        int length = 1;
+        for (int i = 1; i < items.length; i++)
+            if (items[i].getCode() != items[length-1].getCode())
+                items[length++] = items[i];
+        return length;
+    }
+
+    /*
+     * A node of the prefix tree, standing for the itemset of the items on
+     * the path to it, with its count in each pane and their total.
+     */
+    private static class WindowNode {
+        private final EncodedItem item;
+        private final int[] counts;
+        private int total;
+        private WindowNode[] children; // an open-addressing table by the code of their item; null until the first is added
+        private int[] childCodes; // the code of the child in each slot of children
+        private int numOfChildren;
+
+        private WindowNode(EncodedItem item, int numOfPanes) {
+            this.item = item;
+            this.counts = new int[numOfPanes];
+        }
+
+        private WindowNode getChild(int code) {
+            if (children == null)
+                return null;
+            int mask = children.length-1;
+            for (int slot = slot(code, mask); children[slot] != null; slot = (slot+1) & mask)
+                if (childCodes[slot] == code)
+                    return children[slot];
+            return null;
+        }
+
+        private WindowNode addChild(EncodedItem item, int numOfPanes) {
+            if (children == null || 2*(numOfChildren+1) > children.length)
+                resizeChildren(Math.max(MIN_CHILD_SLOTS, 2*powerOfTwoAtLeast(numOfChildren+1)));
+            WindowNode child = new WindowNode(item, numOfPanes);
+            insertChild(child);
+            numOfChildren++;
+            return child;
+        }
+
+        /** Rebuilds the table of children after some have been removed from their slots, which breaks probe sequences. **/
+        private void rehashChildren() {
+            if (numOfChildren == 0) {
+                children = null;
+                childCodes = null;
+            }
+            else
+                resizeChildren(Math.max(MIN_CHILD_SLOTS, 2*powerOfTwoAtLeast(numOfChildren)));
+        }
+
+        /** Moves the children to a table of the given number of slots, a power of two. **/
+        private void resizeChildren(int slots) {
+            WindowNode[] oldChildren = children;
+            children = new WindowNode[slots];
+            childCodes = new int[slots];
+            if (oldChildren != null)
+                for (WindowNode child : oldChildren)
+                    if (child != null)
+                        insertChild(child);
+        }
+
+        private void insertChild(WindowNode child) {
+            int code = child.item.getCode();
+            int mask = children.length-1;
+            int slot = slot(code, mask);
+            while (children[slot] != null)
+                slot = (slot+1) & mask;
+            children[slot] = child;
+            childCodes[slot] = code;
+        }
+
+        /** @return The smallest power of two that is at least the given number. **/
+        private static int powerOfTwoAtLeast(int number) {
+            return Integer.highestOneBit(Math.max(1, number-1)) << 1;
+        }
+
+        private static int slot(int code, int mask) {
+            int hash = code * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package domain.apriori;
+
+import java.util.Arrays;
+
+/*
+ * A set of transaction IDs (tids), used by the vertical Eclat algorithm.
+ * Each set picks its own representation by density: sparse sets are sorted
+ * int arrays, while dense sets are bitmaps with one bit per transaction,
+ * whichever takes less memory. Sets are never modified once created.
+ *
+ * A set also knows its weight, the sum of the weights of its transactions,
+ * which is the support of the itemset whose tid-list it is.
+ */
+final class TidSet {
+    private static final int BITS_PER_WORD = 64;
+    private static final int BITS_PER_INT = 32;
+
+    private final int[] tids; // sorted tids, or null if this set is a bitmap
+    private final long[] bits; // the bitmap, or null if this set is a sorted array
+    private final int size;
+    private final int weight;
+
+    private TidSet(int[] tids, long[] bits, int size, int weight) {
+        this.tids = tids;
+        this.bits = bits;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /** @return A set holding the first size tids of the given sorted array, in whichever
+     * representation is smaller for a database of numOfTransactions transactions.
+     * @param weights The weight of each transaction. **/
+    static TidSet of(int[] sortedTids, int size, int numOfTransactions, int[] weights) {
+        int weight = 0;
+        for (int i = 0; i < size; i++)
+            weight += weights[sortedTids[i]];
+
+        if (!isDense(size, numOfTransactions))
+            return new TidSet(Arrays.copyOf(sortedTids, size), null, size, weight);
+
+        long[] bits = new long[numOfWords(numOfTransactions)];
+        for (int i = 0; i < size; i++)
+            bits[sortedTids[i] / BITS_PER_WORD] |= 1L << sortedTids[i];
+        return new TidSet(null, bits, size, weight);
+    }
+
+    /** @return The tid-list of every item of the given transactions whose count is at least minCount, indexed by item
+     * code, with null for the other items. A tid-list holds each distinct transaction once, however much it weighs.
+     * @param itemCounts The count of each item, as TransactionDatabase.countItems() returns them. **/
+    static TidSet[] ofItems(TransactionDatabase transactions, int[] itemCounts, int minCount) {
+        int[][] tids = new int[itemCounts.length][];
+        int[] sizes = new int[itemCounts.length];
+        int[] items = transactions.getItems();
+
+        int[] numOfTids = new int[itemCounts.length];
+        for (int i = 0; i < transactions.getTotalLength(); i++)
+            numOfTids[items[i]]++;
+        for (int code = 0; code < itemCounts.length; code++)
+            if (itemCounts[code] >= minCount)
+                tids[code] = new int[numOfTids[code]];
+
+        // transactions are visited in order, so every tid-list comes out sorted
+        for (int t = 0; t < transactions.size(); t++)
+            for (int i = transactions.getStart(t); i < transactions.getEnd(t); i++)
+                if (tids[items[i]] != null)
+                    tids[items[i]][sizes[items[i]]++] = t;
+
+        TidSet[] result = new TidSet[itemCounts.length];
+        for (int code = 0; code < itemCounts.length; code++)
+            if (tids[code] != null)
+                result[code] = of(tids[code], sizes[code], transactions.size(), transactions.getWeights());
+        return result;
+    }
+
+    /** @return The number of transactions in this set. **/
+    int size() {
+        return size;
+    }
+
+    /** @return The sum of the weights of the transactions in this set. **/
+    int getWeight() {
+        return weight;
+    }
+
+    /** @return True if this set is stored as a bitmap. False if it is a sorted array. **/
+    boolean isBitmap() {
+        return bits != null;
+    }
+
+    /** @return The set of tids in both this set and the other set. **/
+    TidSet intersect(TidSet other, int numOfTransactions, int[] weights) {
+        if (this.isBitmap() && other.isBitmap()) {
+            long[] result = new long[this.bits.length];
+            for (int w = 0; w < result.length; w++)
+                result[w] = this.bits[w] & other.bits[w];
+            return fromBits(result, numOfTransactions, weights);
+        }
+
+        if (this.isBitmap())
+            return other.intersect(this, numOfTransactions, weights);
+
+        // this set is a sorted array, so the result is no larger than it
+        int[] result = new int[this.size];
+        int resultSize = 0;
+        if (other.isBitmap()) {
+            for (int i = 0; i < this.size; i++)
+                if (other.contains(this.tids[i]))
+                    result[resultSize++] = this.tids[i];
+        } else {
+            for (int i = 0, j = 0; i < this.size && j < other.size; ) {
+                if (this.tids[i] < other.tids[j])
+                    i++;
+                else if (this.tids[i] > other.tids[j])
+                    j++;
+                else {
+                    result[resultSize++] = this.tids[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return of(result, resultSize, numOfTransactions, weights);
+    }
+
+    /** @return The set of tids in this set but not in the other set. **/
+    TidSet subtract(TidSet other, int numOfTransactions, int[] weights) {
+        if (this.isBitmap()) {
+            long[] result = Arrays.copyOf(this.bits, this.bits.length);
+            if (other.isBitmap()) {
+                for (int w = 0; w < result.length; w++)
+                    result[w] &= ~other.bits[w];
+            } else {
+                for (int i = 0; i < other.size; i++)
+                    result[other.tids[i] / BITS_PER_WORD] &= ~(1L << other.tids[i]);
+            }
+            return fromBits(result, numOfTransactions, weights);
+        }
+
+        // this set is a sorted array, so the result is no larger than it
+        int[] result = new int[this.size];
+        int resultSize = 0;
+        if (other.isBitmap()) {
+            for (int i = 0; i < this.size; i++)
+                if (!other.contains(this.tids[i]))
+                    result[resultSize++] = this.tids[i];
+        } else {
+            int j = 0;
+            for (int i = 0; i < this.size; i++) {
+                while (j < other.size && other.tids[j] < this.tids[i])
+                    j++;
+                if (j == other.size || other.tids[j] != this.tids[i])
+                    result[resultSize++] = this.tids[i];
+            }
+        }
+        return of(result, resultSize, numOfTransactions, weights);
+    }
+
+    /** @return True if the given tid is in this set. False otherwise. **/
+    private boolean contains(int tid) {
+        if (isBitmap())
+            return (bits[tid / BITS_PER_WORD] & (1L << tid)) != 0;
+        return Arrays.binarySearch(tids, 0, size, tid) >= 0;
+    }
+
+    /** @return A set holding the tids of the given bitmap, converted to a sorted array if it has become sparse. **/
+    private static TidSet fromBits(long[] bits, int numOfTransactions, int[] weights) {
+        int size = 0;
+        for (long word : bits)
+            size += Long.bitCount(word);
+
+        int weight = 0;
+        for (int w = 0; w < bits.length; w++)
+            for (long word = bits[w]; word != 0; word &= word-1)
+                weight += weights[w * BITS_PER_WORD + Long.numberOfTrailingZeros(word)];
+
+        if (isDense(size, numOfTransactions))
+            return new TidSet(null, bits, size, weight);
+
+        int[] tids = new int[size];
+        int i = 0;
+        for (int w = 0; w < bits.length; w++)
+            for (long word = bits[w]; word != 0; word &= word-1)
+                tids[i++] = w * BITS_PER_WORD + Long.numberOfTrailingZeros(word);
+        return new TidSet(tids, null, size, weight);
+    }
+
+    /** @return True if a set of the given size takes less memory as a bitmap than as a sorted int array. **/
+    private static boolean isDense(int size, int numOfTransactions) {
+        return (long)size * BITS_PER_INT > numOfTransactions;
+    }
+
+    /** @return The number of words in a bitmap of the given number of transactions. **/
+    private static int numOfWords(int numOfTransactions) {
+        return (numOfTransactions + BITS_PER_WORD-1) / BITS_PER_WORD;
+    }
+
+}
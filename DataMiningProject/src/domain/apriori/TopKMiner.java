@@ -0,0 +1,226 @@
+package domain.apriori;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+ * Finds the k most frequent itemsets, optionally no longer than a maximum
+ * length, without being given a minimum support. The itemsets are explored
+ * depth-first over tid-lists, as Eclat explores them, while the best k
+ * found so far are kept in a min-heap keyed by support. Once the heap holds
+ * k itemsets, the support of its root is the lowest support the result can
+ * have, so it becomes the minimum support below which extensions are
+ * pruned, and it rises as better itemsets replace the root.
+ *
+ * Items, and the members of every equivalence class, are extended in
+ * descending order of support, so frequent itemsets are found early and
+ * the threshold rises as soon as possible. Since the support of an itemset
+ * is at most that of any of its subsets, no itemset of the result is ever
+ * pruned, however the threshold rises.
+ *
+ * Itemsets tied with the k-th best support are all kept, so the result can
+ * hold more than k itemsets. It is then every itemset, up to the maximum
+ * length, whose support is at least the final threshold, and like the
+ * result of any other miner it holds every subset of each itemset.
+ */
+public class TopKMiner implements FrequentItemSetMiner {
+    private static final int K_DEFAULT = 100;
+
+    private List<List<ItemSet>> frequentItemSets; // frequent k-itemsets are at index k-1
+    private TransactionDatabase transactions;
+    private int k = K_DEFAULT;
+    private int maxLength = 0; // 0 for no maximum
+    private int threshold; // the minimum support an itemset needs to be among the best found so far
+    private PriorityQueue<Candidate> best; // the best itemsets found so far, least frequent first
+    private Map<Integer, Integer> numWithSupport; // the number of itemsets in best with each support
+
+    private static TopKMiner topKMiner; // singleton
+
+    private TopKMiner() {
+    }
+
+    public static TopKMiner getTopKMiner() {
+        if (topKMiner == null)
+            topKMiner = new TopKMiner();
+        return topKMiner;
+    }
+
+    /** Sets the number of itemsets to find. **/
+    public void setK(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("The number of itemsets to find must be at least 1");
+        this.k = k;
+    }
+
+    /** Sets the maximum length of the itemsets to find, or 0 for no maximum. **/
+    public void setMaxLength(int maxLength) {
+        if (maxLength < 0)
+            throw new IllegalArgumentException("The maximum length must not be negative");
+        this.maxLength = maxLength;
+    }
+
+    /** @return The support of the least frequent itemset found by the last run, which every itemset found meets. **/
+    public int getMinimumSupport() {
+        return threshold;
+    }
+
+    /**
+     * Finds the k most frequent itemsets of the given encoded transactions.
+     * @param transactions The transactions to run the algorithm against.
+     * @param absoluteMinSupport A minimum support every itemset found must meet even if fewer than k do, or 0 or 1 for none.
+     */
+    @Override
+    public void run(TransactionDatabase transactions, int absoluteMinSupport) {
+        this.transactions = transactions;
+        this.frequentItemSets = new ArrayList<List<ItemSet>>();
+        this.threshold = Math.max(1, absoluteMinSupport);
+        this.best = new PriorityQueue<Candidate>((Candidate a, Candidate b) -> Integer.compare(a.support, b.support));
+        this.numWithSupport = new HashMap<Integer, Integer>();
+
+        // the single items are offered first, which raises the threshold before any tid-list is built
+        int[] itemCounts = transactions.countItems();
+        for (int code = 0; code < itemCounts.length; code++)
+            if (itemCounts[code] >= threshold)
+                offer(new int[] { code }, 1, itemCounts[code]);
+
+        TidSet[] tids = TidSet.ofItems(transactions, itemCounts, threshold);
+        List<ClassMember> items = new ArrayList<ClassMember>();
+        for (int code = 0; code < itemCounts.length; code++)
+            if (tids[code] != null)
+                items.add(new ClassMember(code, tids[code], itemCounts[code]));
+        sortBySupport(items);
+
+        if (maxLength != 1)
+            mine(items, new int[items.size()], 0);
+        if (!best.isEmpty())
+            threshold = best.peek().support; // may be above the floor given, if fewer than k itemsets met it
+
+        collectResults();
+        this.best = null;
+        this.numWithSupport = null;
+    }
+
+    /** @return A list of frequent k-itemsets (i.e. frequent itemsets of length k) **/
+    @Override
+    public List<ItemSet> getFrequentKItemSets(int k) {
+        return new ArrayList<ItemSet>(this.frequentItemSets.get(k-1));
+    }
+
+    /** @return A list of all frequent itemsets of any length **/
+    @Override
+    public List<ItemSet> getAllFrequentItemSets() {
+        List<ItemSet> itemSets = new ArrayList<ItemSet>();
+
+        for (List<ItemSet> kItemSets : frequentItemSets)
+            itemSets.addAll(kItemSets);
+
+        return itemSets;
+    }
+
+    /** Offers every itemset of at least two items made of the given prefix plus one or more of the items of its
+     * equivalence class, extending the members in the given order, which is by descending support. Members and
+     * extensions below the threshold are pruned, as the threshold stands when they are reached. **/
+    private void mine(List<ClassMember> members, int[] prefix, int prefixLength) {
+        int numOfTransactions = transactions.size();
+        int[] weights = transactions.getWeights();
+
+        for (int i = 0; i < members.size() && members.get(i).support >= threshold; i++) {
+            ClassMember member = members.get(i);
+            prefix[prefixLength] = member.code;
+            if (prefixLength > 0)
+                offer(prefix, prefixLength+1, member.support);
+            if (prefixLength+1 == maxLength)
+                continue;
+
+            List<ClassMember> newMembers = new ArrayList<ClassMember>();
+            for (int j = i+1; j < members.size() && members.get(j).support >= threshold; j++) {
+                ClassMember other = members.get(j);
+                TidSet tids = member.tids.intersect(other.tids, numOfTransactions, weights);
+                if (tids.getWeight() >= threshold)
+                    newMembers.add(new ClassMember(other.code, tids, tids.getWeight()));
+            }
+
+            if (!newMembers.isEmpty()) {
+                sortBySupport(newMembers);
+                mine(newMembers, prefix, prefixLength+1);
+            }
+        }
+    }
+
+    /** Adds the itemset made of the given item codes to the best found so far if its support meets the threshold,
+     * then drops the least frequent itemsets while at least k would be left, and raises the threshold to the
+     * support of the least frequent one left once there are at least k. **/
+    private void offer(int[] codes, int length, int support) {
+        if (support < threshold)
+            return;
+        int[] copy = new int[length];
+        System.arraycopy(codes, 0, copy, 0, length);
+        best.add(new Candidate(copy, support));
+        numWithSupport.merge(support, 1, Integer::sum);
+
+        while (best.size() - numWithSupport.get(best.peek().support) >= k) {
+            int lowest = best.peek().support;
+            while (!best.isEmpty() && best.peek().support == lowest)
+                best.poll();
+            numWithSupport.remove(lowest);
+        }
+        if (best.size() >= k)
+            threshold = Math.max(threshold, best.peek().support);
+    }
+
+    /** Turns the best itemsets found into the results, grouped by length, most frequent first. **/
+    private void collectResults() {
+        List<Candidate> found = new ArrayList<Candidate>(best);
+        found.sort((Candidate a, Candidate b) -> Integer.compare(b.support, a.support));
+
+        for (Candidate candidate : found) {
+            ItemSet itemSet = new ItemSet();
+            for (int code : candidate.codes)
+                itemSet.add(this.transactions.getItem(code));
+            itemSet.incFrequency(candidate.support);
+
+            while (this.frequentItemSets.size() < candidate.codes.length)
+                this.frequentItemSets.add(new ArrayList<ItemSet>());
+            this.frequentItemSets.get(candidate.codes.length-1).add(itemSet);
+        }
+    }
+
+    /** Sorts the given members by descending support, then by code. **/
+    private static void sortBySupport(List<ClassMember> members) {
+        members.sort((ClassMember a, ClassMember b) -> (a.support != b.support)
+                ? Integer.compare(b.support, a.support) : Integer.compare(a.code, b.code));
+    }
+
+    /*
+     * An itemset among the best found so far, as item codes, with its support.
+     */
+    private static class Candidate {
+        private final int[] codes;
+        private final int support;
+
+        private Candidate(int[] codes, int support) {
+            this.codes = codes;
+            this.support = support;
+        }
+    }
+
+    /*
+     * An item extending the prefix of an equivalence class, with the tid-list
+     * of the prefix extended by it and its support.
+     */
+    private static class ClassMember {
+        private final int code;
+        private final TidSet tids;
+        private final int support;
+
+        private ClassMember(int code, TidSet tids, int support) {
+            this.code = code;
+            this.tids = tids;
+            this.support = support;
+        }
+    }
+
+}
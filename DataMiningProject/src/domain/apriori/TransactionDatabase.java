@@ -0,0 +1,513 @@
+package domain.apriori;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+ * This class stores a set of transactions in a compact, primitive form.
+ * Every distinct item is dictionary-encoded once, at load time, into a
+ * dense int code (an EncodedItem). Codes are assigned in item order, so a
+ * sorted run of codes is also a sorted run of items.
+ *
+ * All transactions are stored back to back as sorted slices of codes in a
+ * single int array. Transaction t occupies the indices from offsets[t]
+ * (inclusive) to offsets[t+1] (exclusive) of that array.
+ *
+ * Identical transactions are only stored once, with a weight: the number of
+ * times the transaction occurred. Support is counted by adding the weight
+ * of each distinct transaction that contains an itemset, so duplicates are
+ * counted in full while each distinct transaction is only examined once.
+ *
+ * A database is read-only, except for a working copy made with copy(),
+ * which may be compacted in place with reduce().
+ */
+public class TransactionDatabase implements TransactionSource {
+
+    private final int[] items;
+    private final int[] offsets;
+    private final int[] weights;
+    private final EncodedItem[] dictionary;
+    private int numOfTransactions;
+
+    private TransactionDatabase(int[] items, int[] offsets, int[] weights, EncodedItem[] dictionary) {
+        this(items, offsets, weights, offsets.length-1, dictionary);
+    }
+
+    /** Initializes a database over the first numOfTransactions transactions held in the given arrays, without copying them. **/
+    TransactionDatabase(int[] items, int[] offsets, int[] weights, int numOfTransactions, EncodedItem[] dictionary) {
+        this.items = items;
+        this.offsets = offsets;
+        this.weights = weights;
+        this.dictionary = dictionary;
+        this.numOfTransactions = numOfTransactions;
+    }
+
+    /** @return A new database containing the given transactions. **/
+    public static TransactionDatabase encode(Collection<ItemSet> transactions) {
+        Builder builder = new Builder();
+
+        for (ItemSet transaction : transactions) {
+            for (Item item : transaction)
+                builder.addItem(item);
+            builder.endTransaction();
+        }
+
+        return builder.build();
+    }
+
+    /** @return The number of distinct transactions in this database. **/
+    public int size() {
+        return numOfTransactions;
+    }
+
+    /** @return The number of transactions this database was built from, counting each distinct transaction as many
+     * times as it occurred, i.e. the sum of the weights of all transactions. **/
+    @Override
+    public int getTotalWeight() {
+        int totalWeight = 0;
+        for (int t = 0; t < numOfTransactions; t++)
+            totalWeight += weights[t];
+        return totalWeight;
+    }
+
+    /** @return The number of distinct items in this database. Item codes range from 0 to this value (exclusive). **/
+    @Override
+    public int getNumberOfItems() {
+        return dictionary.length;
+    }
+
+    /** @return The contiguous array of item codes holding every transaction. Must not be modified. **/
+    public int[] getItems() {
+        return items;
+    }
+
+    /** @return The index in getItems() of the first item of the given transaction. **/
+    public int getStart(int transaction) {
+        return offsets[transaction];
+    }
+
+    /** @return The index in getItems() just past the last item of the given transaction. **/
+    public int getEnd(int transaction) {
+        return offsets[transaction+1];
+    }
+
+    /** @return The weight of the given transaction: the number of times it occurred. **/
+    public int getWeight(int transaction) {
+        return weights[transaction];
+    }
+
+    /** @return The weight of every transaction, indexed by transaction. Must not be modified. **/
+    public int[] getWeights() {
+        return weights;
+    }
+
+    /** @return The number of items in the given transaction. **/
+    public int getLength(int transaction) {
+        return offsets[transaction+1] - offsets[transaction];
+    }
+
+    /** @return The total number of items stored, over all transactions. **/
+    public int getTotalLength() {
+        return offsets[numOfTransactions];
+    }
+
+    /** @return The number of transactions each item occurs in (counting their weights), indexed by item code. **/
+    @Override
+    public int[] countItems() {
+        int[] counts = new int[dictionary.length];
+        for (int t = 0; t < numOfTransactions; t++)
+            for (int i = offsets[t]; i < offsets[t+1]; i++)
+                counts[items[i]] += weights[t];
+        return counts;
+    }
+    
+    /** @return The encoded item with the given code. **/
+    @Override
+    public EncodedItem getItem(int code) {
+        return dictionary[code];
+    }
+
+    /** Passes this whole database to the given action, as a single block. **/
+    @Override
+    public void forEachBlock(Consumer<TransactionDatabase> action) {
+        action.accept(this);
+    }
+
+    /** @return A working copy of this database, sharing its item dictionary, that may be reduced. **/
+    public TransactionDatabase copy() {
+        return new TransactionDatabase(
+                Arrays.copyOf(items, getTotalLength()),
+                Arrays.copyOf(offsets, numOfTransactions+1),
+                Arrays.copyOf(weights, numOfTransactions),
+                dictionary);
+    }
+
+    /** @return A new database holding the transactions from index from (inclusive) to index to (exclusive),
+     * sharing this database's item dictionary. **/
+    public TransactionDatabase subset(int from, int to) {
+        int[] subsetOffsets = new int[to-from+1];
+        for (int t = from; t <= to; t++)
+            subsetOffsets[t-from] = offsets[t] - offsets[from];
+        return new TransactionDatabase(Arrays.copyOfRange(items, offsets[from], offsets[to]), subsetOffsets,
+                Arrays.copyOfRange(weights, from, to), dictionary);
+    }
+
+    /** @return A new database holding the transactions at the given (ascending) indices, with the given weights,
+     * sharing this database's item dictionary. **/
+    public TransactionDatabase select(int[] transactions, int[] selectedWeights) {
+        int[] selectedOffsets = new int[transactions.length+1];
+        for (int i = 0; i < transactions.length; i++)
+            selectedOffsets[i+1] = selectedOffsets[i] + getLength(transactions[i]);
+
+        int[] selectedItems = new int[selectedOffsets[transactions.length]];
+        for (int i = 0; i < transactions.length; i++)
+            System.arraycopy(items, offsets[transactions[i]], selectedItems, selectedOffsets[i], getLength(transactions[i]));
+        return new TransactionDatabase(selectedItems, selectedOffsets, Arrays.copyOf(selectedWeights, transactions.length), dictionary);
+    }
+
+    /** Compacts this database in place: strips every item whose keepItem entry is false from every transaction,
+     * then removes every transaction whose keepTransaction entry is false or that is left with fewer than
+     * minLength items (empty transactions are always removed). The remaining transactions keep their order, but not their indices.
+     * Only working copies made with copy() should be reduced.
+     * @param keepItem Whether to keep each item, indexed by item code.
+     * @param keepTransaction Whether to keep each transaction, indexed by transaction. If null, all are kept. **/
+    public void reduce(boolean[] keepItem, boolean[] keepTransaction, int minLength) {
+        int newSize = 0;
+        int newLength = 0;
+        int oldStart = offsets[0];
+
+        for (int t = 0; t < numOfTransactions; t++) {
+            int oldEnd = offsets[t+1]; // read before the offsets of kept transactions overwrite it
+            int start = newLength;
+
+            // items and offsets never move forward, so they can be copied down in place
+            if (keepTransaction == null || keepTransaction[t])
+                for (int i = oldStart; i < oldEnd; i++)
+                    if (keepItem[items[i]])
+                        items[newLength++] = items[i];
+
+            if (newLength - start >= Math.max(1, minLength)) {
+                weights[newSize] = weights[t];
+                offsets[++newSize] = newLength;
+            } else
+                newLength = start;
+            oldStart = oldEnd;
+        }
+
+        numOfTransactions = newSize;
+    }
+
+    /** @return A new database holding the transactions of this one, with an item dictionary that also holds the given
+     * items, such as EncodedItem.getDecodedItem() returns, so that itemsets of them can be encoded alongside these
+     * transactions. The dictionary stays in item order, so the codes of this database's items may change. **/
+    public TransactionDatabase withItems(Collection<Item> decodedItems) {
+        Map<Item, Integer> positions = new HashMap<Item, Integer>();
+        List<Item> sorted = new ArrayList<Item>();
+        for (EncodedItem item : dictionary)
+            if (positions.putIfAbsent(item.getDecodedItem(), sorted.size()) == null)
+                sorted.add(item.getDecodedItem());
+        for (Item item : decodedItems)
+            if (positions.putIfAbsent(item, sorted.size()) == null)
+                sorted.add(item);
+        sorted.sort(null);
+
+        EncodedItem[] newDictionary = new EncodedItem[sorted.size()];
+        for (int code = 0; code < newDictionary.length; code++)
+            newDictionary[code] = new EncodedItem(code, sorted.get(code));
+        return encodeLike(newDictionary);
+    }
+
+    /** @return A new database holding the transactions of this one, encoded with the item dictionary of the given
+     * database. Items missing from that dictionary are dropped, along with the transactions they leave empty. **/
+    public TransactionDatabase encodeLike(TransactionDatabase other) {
+        return encodeLike(other.dictionary);
+    }
+
+    /** @return A new database holding the transactions of this one, encoded with the given item dictionary. Items
+     * missing from it are dropped, along with the transactions they leave empty. **/
+    private TransactionDatabase encodeLike(EncodedItem[] newDictionary) {
+        Map<Item, Integer> codes = new HashMap<Item, Integer>();
+        for (EncodedItem item : newDictionary)
+            codes.put(item.getDecodedItem(), item.getCode());
+        int[] newCodes = new int[dictionary.length];
+        for (int code = 0; code < dictionary.length; code++)
+            newCodes[code] = codes.getOrDefault(dictionary[code].getDecodedItem(), -1);
+
+        int[] newItems = new int[getTotalLength()];
+        int[] newOffsets = new int[numOfTransactions+1];
+        int[] newWeights = new int[numOfTransactions];
+        int newSize = 0;
+        int newLength = 0;
+        for (int t = 0; t < numOfTransactions; t++) {
+            int start = newLength;
+            for (int i = offsets[t]; i < offsets[t+1]; i++)
+                if (newCodes[items[i]] >= 0)
+                    newItems[newLength++] = newCodes[items[i]];
+            if (newLength == start)
+                continue;
+            Arrays.sort(newItems, start, newLength); // the new codes need not be in the order of the old ones
+            newWeights[newSize] = weights[t];
+            newOffsets[++newSize] = newLength;
+        }
+
+        return new TransactionDatabase(newItems, newOffsets, newWeights, newSize, newDictionary);
+    }
+
+    /** @return The given transaction as an itemset of encoded items. **/
+    public ItemSet getTransaction(int transaction) {
+        ItemSet itemSet = new ItemSet();
+        for (int i = offsets[transaction]; i < offsets[transaction+1]; i++)
+            itemSet.add(dictionary[items[i]]);
+        return itemSet;
+    }
+
+    /*
+     * Builds a TransactionDatabase one item at a time. Items may be added to a
+     * transaction in any order and more than once; each transaction is sorted
+     * and de-duplicated when the database is built, and identical transactions
+     * are merged into one whose weight is their number. A builder should not
+     * be used again after build() has been called.
+     */
+    public static class Builder {
+        private Map<Item, Integer> codes = new HashMap<Item, Integer>(); // the codes of items other than integer items
+        private int[] integerIds = new int[64]; // an open-addressing table of the IDs of integer items
+        private int[] integerCodes = new int[64]; // the code of the integer item in each slot of the table, plus one
+        private int numOfIntegerIds = 0;
+        private Item[] decoded = new Item[64];
+        private int numOfCodes = 0;
+        private int[] items = new int[1024];
+        private int[] offsets = new int[256];
+        private int numOfItems = 0;
+        private int numOfTransactions = 0;
+
+        /** Adds the item to the transaction currently being built. **/
+        public void addItem(Item item) {
+            append(codeOf(item));
+        }
+
+        /** Adds the integer item with the given ID to the transaction currently being built,
+         * without creating an item unless the ID has not been seen before. **/
+        public void addItem(int id) {
+            append(codeOf(id));
+        }
+
+        /** Adds all transactions ended in the given builder, after the transactions of this builder. **/
+        public void addTransactions(Builder other) {
+            int[] newCodes = new int[other.numOfCodes];
+            for (int code = 0; code < other.numOfCodes; code++)
+                newCodes[code] = codeOf(other.decoded[code]);
+
+            for (int t = 0; t < other.numOfTransactions; t++) {
+                for (int i = other.offsets[t]; i < other.offsets[t+1]; i++)
+                    append(newCodes[other.items[i]]);
+                endTransaction();
+            }
+        }
+
+        /** @return The number of transactions ended so far. **/
+        public int size() {
+            return numOfTransactions;
+        }
+
+        /** @return The number of distinct items added so far. **/
+        int getNumberOfItems() {
+            return numOfCodes;
+        }
+
+        /** Appends all transactions ended in this builder to the given spill writer, in their order. **/
+        void writeTo(TransactionSpill.Writer writer) throws IOException {
+            int[] newCodes = new int[numOfCodes];
+            for (int code = 0; code < numOfCodes; code++)
+                newCodes[code] = writer.codeOf(decoded[code]);
+
+            for (int t = 0; t < numOfTransactions; t++) {
+                for (int i = offsets[t]; i < offsets[t+1]; i++)
+                    writer.append(newCodes[items[i]]);
+                writer.endTransaction();
+            }
+        }
+
+        /** @return The code of the given item, which is assigned a new code if it has none yet. **/
+        int codeOf(Item item) {
+            if (item instanceof IntegerItem)
+                return codeOf(((Integer)item.getID()).intValue());
+
+            Integer code = codes.get(item);
+            if (code == null) {
+                code = newCode(item);
+                codes.put(item, code);
+            }
+            return code;
+        }
+
+        /** @return The code of the integer item with the given ID, which is assigned a new code if it has none yet. **/
+        int codeOf(int id) {
+            int mask = integerIds.length-1;
+            int slot = integerSlot(id, mask);
+            while (integerCodes[slot] != 0) {
+                if (integerIds[slot] == id)
+                    return integerCodes[slot]-1;
+                slot = (slot+1) & mask;
+            }
+
+            int code = newCode(new IntegerItem(id));
+            integerIds[slot] = id;
+            integerCodes[slot] = code+1;
+            if (++numOfIntegerIds * 2 > integerIds.length)
+                growIntegerTable();
+            return code;
+        }
+
+        /** @return A new code for the given item, which has none yet. **/
+        private int newCode(Item item) {
+            if (numOfCodes == decoded.length)
+                decoded = Arrays.copyOf(decoded, decoded.length*2);
+            decoded[numOfCodes] = item;
+            return numOfCodes++;
+        }
+
+        /** Doubles the size of the table of integer item IDs, which is kept at most half full. **/
+        private void growIntegerTable() {
+            int[] oldIds = integerIds;
+            int[] oldCodes = integerCodes;
+            integerIds = new int[oldIds.length*2];
+            integerCodes = new int[oldCodes.length*2];
+
+            int mask = integerIds.length-1;
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldCodes[i] != 0) {
+                    int slot = integerSlot(oldIds[i], mask);
+                    while (integerCodes[slot] != 0)
+                        slot = (slot+1) & mask;
+                    integerIds[slot] = oldIds[i];
+                    integerCodes[slot] = oldCodes[i];
+                }
+            }
+        }
+
+        /** @return The slot of the table of integer item IDs to start looking for the given ID in. **/
+        private static int integerSlot(int id, int mask) {
+            int hash = id * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        /** Adds the item with the given code to the transaction currently being built. **/
+        private void append(int code) {
+            if (numOfItems == items.length)
+                items = Arrays.copyOf(items, items.length*2);
+            items[numOfItems++] = code;
+        }
+
+        /** Ends the transaction currently being built. The next item added starts a new transaction. **/
+        public void endTransaction() {
+            if (numOfTransactions+2 > offsets.length)
+                offsets = Arrays.copyOf(offsets, offsets.length*2);
+            offsets[++numOfTransactions] = numOfItems;
+        }
+
+        /** @return A database holding all transactions ended so far. **/
+        public TransactionDatabase build() {
+            EncodedItem[] dictionary = encodeDictionary();
+            int[] resultItems = new int[numOfItems];
+            int[] resultOffsets = new int[numOfTransactions+1];
+            int[] resultWeights = new int[numOfTransactions];
+            int[] firstSeen = new int[Math.max(16, Integer.highestOneBit(Math.max(1, numOfTransactions)) * 4)];
+            int numOfResultTransactions = 0;
+            int numOfResultItems = 0;
+
+            Arrays.fill(firstSeen, -1);
+
+            for (int t = 0; t < numOfTransactions; t++) {
+                int start = numOfResultItems;
+
+                // copy this transaction's (already re-coded) items, then sort and remove repeats
+                System.arraycopy(items, offsets[t], resultItems, start, offsets[t+1]-offsets[t]);
+                Arrays.sort(resultItems, start, start + offsets[t+1]-offsets[t]);
+                int end = start;
+                for (int i = start; i < start + offsets[t+1]-offsets[t]; i++)
+                    if (end == start || resultItems[end-1] != resultItems[i])
+                        resultItems[end++] = resultItems[i];
+
+                // store the transaction only if an identical one has not been stored already; otherwise add to its weight
+                int slot = findSlot(firstSeen, resultItems, resultOffsets, start, end);
+                if (firstSeen[slot] == -1) {
+                    firstSeen[slot] = numOfResultTransactions;
+                    resultWeights[numOfResultTransactions] = 1;
+                    resultOffsets[++numOfResultTransactions] = end;
+                    numOfResultItems = end;
+                } else
+                    resultWeights[firstSeen[slot]]++;
+            }
+
+            return new TransactionDatabase(
+                    Arrays.copyOf(resultItems, numOfResultItems),
+                    Arrays.copyOf(resultOffsets, numOfResultTransactions+1),
+                    Arrays.copyOf(resultWeights, numOfResultTransactions),
+                    dictionary);
+        }
+
+        /** Sorts the distinct items, creates the encoded dictionary in item order, and
+         * rewrites the stored codes (which are in first-seen order) to match it. **/
+        private EncodedItem[] encodeDictionary() {
+            int[] newCodes = new int[numOfCodes];
+            EncodedItem[] dictionary = encodeDictionary(newCodes);
+
+            for (int i = 0; i < numOfItems; i++)
+                items[i] = newCodes[items[i]];
+
+            return dictionary;
+        }
+
+        /** Sorts the distinct items and creates the encoded dictionary in item order.
+         * @param newCodes Filled with the code in the dictionary of each code assigned so far (in first-seen order). **/
+        EncodedItem[] encodeDictionary(int[] newCodes) {
+            Integer[] order = new Integer[numOfCodes];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (Integer a, Integer b) -> decoded[a].compareTo(decoded[b]));
+
+            EncodedItem[] dictionary = new EncodedItem[order.length];
+            for (int rank = 0; rank < order.length; rank++) {
+                dictionary[rank] = new EncodedItem(rank, decoded[order[rank]]);
+                newCodes[order[rank]] = rank;
+            }
+
+            return dictionary;
+        }
+
+        /** Finds the slot of the open-addressing table that either holds a transaction identical to
+         * the items from start to end, or is the empty slot where such a transaction should go. **/
+        private static int findSlot(int[] table, int[] items, int[] offsets, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++)
+                hash = 31*hash + items[i];
+
+            int slot = (hash ^ (hash >>> 16)) & (table.length-1);
+            while (table[slot] != -1) {
+                int other = table[slot];
+                if (sameItems(items, offsets[other], offsets[other+1], start, end))
+                    return slot;
+                slot = (slot+1) & (table.length-1);
+            }
+
+            return slot;
+        }
+
+        /** @return True if the two ranges of the items array hold the same codes. False otherwise. **/
+        private static boolean sameItems(int[] items, int start1, int end1, int start2, int end2) {
+            if (end1-start1 != end2-start2)
+                return false;
+            for (int i = 0; i < end1-start1; i++)
+                if (items[start1+i] != items[start2+i])
+                    return false;
+            return true;
+        }
+    }
+
+}
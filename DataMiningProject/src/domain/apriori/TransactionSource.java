@@ -0,0 +1,29 @@
+package domain.apriori;
+
+import java.util.function.Consumer;
+
+/*
+ * Transactions that can be scanned a block at a time, once for every pass
+ * Apriori makes over them. A TransactionDatabase is held in memory and is
+ * its own single block; a TransactionSpill streams its blocks from disk, so
+ * only one block is in memory at a time.
+ */
+interface TransactionSource {
+    
+    /** @return The total weight of the transactions, i.e. the number of transactions counting repeated ones. **/
+    public int getTotalWeight();
+    
+    /** @return The number of distinct items. Item codes range from 0 to this value (exclusive). **/
+    public int getNumberOfItems();
+    
+    /** @return The encoded item with the given code. **/
+    public EncodedItem getItem(int code);
+    
+    /** @return The number of transactions each item occurs in (counting their weights), indexed by item code. **/
+    public int[] countItems();
+    
+    /** Passes the transactions to the given action in order, a block at a time. A block must not be used once the
+     * action returns. **/
+    public void forEachBlock(Consumer<TransactionDatabase> action);
+
+}
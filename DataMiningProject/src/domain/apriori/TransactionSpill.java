@@ -0,0 +1,252 @@
+package domain.apriori;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+ * This class stores a set of transactions on disk, for out-of-core mining.
+ * Only the item dictionary and the item counts are kept in memory; the
+ * transactions are written once to a binary spill file and streamed back
+ * in bounded blocks, each of which is a small TransactionDatabase, every
+ * time they need to be scanned. Memory use is therefore independent of the
+ * number of transactions.
+ *
+ * Each transaction is stored as its length followed by its item codes, as
+ * ints. The codes in the file are in the order items were first seen,
+ * since the dictionary can only be sorted once every item has been seen;
+ * they are translated to dictionary codes (and sorted) as they are read.
+ *
+ * Unlike a TransactionDatabase, a spill does not merge identical
+ * transactions, since that would take memory for every distinct one, so
+ * every transaction of a block has a weight of 1.
+ */
+public class TransactionSpill implements TransactionSource {
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int ITEMS_PER_BLOCK = 1 << 20; // the most items read at a time when scanning for Apriori
+
+    private final Path file;
+    private final EncodedItem[] dictionary;
+    private final int[] newCodes; // the dictionary code of each code in the file
+    private final int[] itemCounts;
+    private final int numOfTransactions;
+    private final long totalLength;
+    private final int maxLength;
+
+    private TransactionSpill(Path file, EncodedItem[] dictionary, int[] newCodes, int[] itemCounts,
+            int numOfTransactions, long totalLength, int maxLength) {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.newCodes = newCodes;
+        this.itemCounts = itemCounts;
+        this.numOfTransactions = numOfTransactions;
+        this.totalLength = totalLength;
+        this.maxLength = maxLength;
+    }
+
+    /** @return The number of transactions in this spill. **/
+    public int size() {
+        return numOfTransactions;
+    }
+
+    /** @return The number of transactions in this spill, each of which has a weight of 1. **/
+    @Override
+    public int getTotalWeight() {
+        return numOfTransactions;
+    }
+
+    /** @return The total number of items stored, over all transactions. **/
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /** @return The number of items in the longest transaction. **/
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /** @return The number of distinct items in this spill. Item codes range from 0 to this value (exclusive). **/
+    @Override
+    public int getNumberOfItems() {
+        return dictionary.length;
+    }
+
+    /** @return The encoded item with the given code. **/
+    @Override
+    public EncodedItem getItem(int code) {
+        return dictionary[code];
+    }
+
+    /** @return The number of transactions each item occurs in, indexed by item code. **/
+    @Override
+    public int[] countItems() {
+        return Arrays.copyOf(itemCounts, itemCounts.length);
+    }
+
+    /** Reads the transactions back in order, in blocks of a bounded number of items, passing each block to the given
+     * action. The arrays of a block are reused for the next one, so a block must not be used once the action returns. **/
+    @Override
+    public void forEachBlock(Consumer<TransactionDatabase> action) {
+        forEachBlock(ITEMS_PER_BLOCK, action);
+    }
+
+    /** Reads the transactions back in order, in blocks of at most maxItemsPerBlock items (or a single transaction,
+     * if it is longer), passing each block to the given action. The arrays of a block are reused for the next one,
+     * so a block must not be used once the action returns. **/
+    public void forEachBlock(int maxItemsPerBlock, Consumer<TransactionDatabase> action) {
+        int[] items = new int[Math.max(maxItemsPerBlock, maxLength)];
+        int[] offsets = new int[items.length+1]; // a block holds no more transactions than items, plus empty ones
+        int[] weights = new int[offsets.length]; // transactions are not merged, so each weighs 1
+        Arrays.fill(weights, 1);
+        int size = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int t = 0; t < numOfTransactions; t++) {
+                int length = readInt(channel, buffer);
+
+                if (offsets[size] + length > items.length || size == items.length) {
+                    action.accept(new TransactionDatabase(items, offsets, weights, size, dictionary));
+                    size = 0;
+                }
+
+                int start = offsets[size];
+                for (int i = start; i < start + length; i++)
+                    items[i] = newCodes[readInt(channel, buffer)];
+                Arrays.sort(items, start, start + length);
+                offsets[++size] = start + length;
+            }
+
+            if (size > 0)
+                action.accept(new TransactionDatabase(items, offsets, weights, size, dictionary));
+        }
+        catch (IOException e) { throw new RuntimeException("Unable to read the transaction spill \"" + file + "\"", e); }
+    }
+
+    /** Deletes the spill file. The spill cannot be read afterwards. **/
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /** @return The next int of the file, refilling the buffer from the channel if it is used up. **/
+    private static int readInt(FileChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            buffer.compact();
+            while (buffer.position() < Integer.BYTES)
+                if (channel.read(buffer) < 0)
+                    throw new IOException("Unexpected end of transaction spill");
+            buffer.flip();
+        }
+        return buffer.getInt();
+    }
+
+    /*
+     * Writes transactions to a new spill file one item at a time, like a
+     * TransactionDatabase.Builder. Each transaction is de-duplicated (but
+     * not sorted) before it is written. A writer should not be used again
+     * after finish() has been called.
+     */
+    public static class Writer {
+        private final Path file;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private final TransactionDatabase.Builder codes = new TransactionDatabase.Builder(); // only assigns codes
+        private int[] transaction = new int[64];
+        private int length = 0;
+        private int[] itemCounts = new int[64]; // indexed by code in the file
+        private int numOfTransactions = 0;
+        private long totalLength = 0;
+        private int maxLength = 0;
+
+        /** Initializes a writer to a new temporary spill file. **/
+        public Writer() throws IOException {
+            this.file = Files.createTempFile("transactions", ".spill");
+            this.file.toFile().deleteOnExit();
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        }
+
+        /** Adds the item to the transaction currently being written. **/
+        public void addItem(Item item) {
+            append(codeOf(item));
+        }
+
+        /** Adds the integer item with the given ID to the transaction currently being written. **/
+        public void addItem(int id) {
+            append(codes.codeOf(id));
+        }
+
+        /** Writes all transactions ended in the given builder, after those written so far. **/
+        public void addTransactions(TransactionDatabase.Builder builder) throws IOException {
+            builder.writeTo(this);
+        }
+
+        /** Ends the transaction currently being built and writes it. The next item added starts a new transaction. **/
+        public void endTransaction() throws IOException {
+            Arrays.sort(transaction, 0, length);
+            int distinct = 0;
+            for (int i = 0; i < length; i++)
+                if (distinct == 0 || transaction[distinct-1] != transaction[i])
+                    transaction[distinct++] = transaction[i];
+
+            writeInt(distinct);
+            for (int i = 0; i < distinct; i++) {
+                writeInt(transaction[i]);
+                if (transaction[i] >= itemCounts.length)
+                    itemCounts = Arrays.copyOf(itemCounts, Math.max(itemCounts.length*2, transaction[i]+1));
+                itemCounts[transaction[i]]++;
+            }
+
+            numOfTransactions++;
+            totalLength += distinct;
+            maxLength = Math.max(maxLength, distinct);
+            length = 0;
+        }
+
+        /** Flushes and closes the spill file, and sorts the item dictionary.
+         * @return The spill holding all transactions ended so far. **/
+        public TransactionSpill finish() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.close();
+
+            int[] newCodes = new int[codes.getNumberOfItems()];
+            EncodedItem[] dictionary = codes.encodeDictionary(newCodes);
+            int[] counts = new int[dictionary.length];
+            for (int code = 0; code < newCodes.length && code < itemCounts.length; code++)
+                counts[newCodes[code]] = itemCounts[code];
+
+            return new TransactionSpill(file, dictionary, newCodes, counts, numOfTransactions, totalLength, maxLength);
+        }
+
+        /** @return The code of the given item in the file. **/
+        int codeOf(Item item) {
+            return codes.codeOf(item);
+        }
+
+        /** Adds the item with the given code in the file to the transaction currently being written. **/
+        void append(int code) {
+            if (length == transaction.length)
+                transaction = Arrays.copyOf(transaction, transaction.length*2);
+            transaction[length++] = code;
+        }
+
+        /** Writes an int to the buffer, writing the buffer to the file first if it is full. **/
+        private void writeInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                buffer.clear();
+            }
+            buffer.putInt(value);
+        }
+    }
+
+}
@@ -15,13 +15,23 @@ public class CLI {
     private static final String PROGRAM_NAME = "dm-proj";
     
     // general options
-    private static final String OPTIONS_ORDER = "iahdombcltjkv"; // specifies argument order in help/usage messages
+    private static final String OPTIONS_ORDER = "iahdowfqMymbcpsTguSUHnzrexKLWERltjkv"; // specifies argument order in help/usage messages
     private static final String OPT_ALGORITHM_S = "a";
     private static final String OPT_ALGORITHM_L = "algorithm";
     private static final String OPT_INPUT_FILE_S = "i";
     private static final String OPT_INPUT_FILE_L = "input";
     private static final String OPT_OUTPUT_FILE_S = "o";
     private static final String OPT_OUTPUT_FILE_L = "output";
+    private static final String OPT_OUTPUT_FORMAT_S = "w";
+    private static final String OPT_OUTPUT_FORMAT_L = "format";
+    private static final String OPT_PROFILE_FILE_S = "f";
+    private static final String OPT_PROFILE_FILE_L = "profile";
+    private static final String OPT_RULES_FILE_S = "q";
+    private static final String OPT_RULES_FILE_L = "rules";
+    private static final String OPT_MODEL_FILE_S = "M";
+    private static final String OPT_MODEL_FILE_L = "model";
+    private static final String OPT_MIN_CONFIDENCE_S = "y";
+    private static final String OPT_MIN_CONFIDENCE_L = "min-conf";
     private static final String OPT_DELIMITER_S = "d";
     private static final String OPT_DELIMITER_L = "delimiter";
     private static final String OPT_HELP_S = "h";
@@ -34,6 +44,42 @@ public class CLI {
     private static final String OPT_BUCKET_MAX_L= "bucket";
     private static final String OPT_CHILDREN_PER_NODE_S = "c";
     private static final String OPT_CHILDREN_PER_NODE_L = "children";
+    private static final String OPT_THREADS_S = "p";
+    private static final String OPT_THREADS_L = "threads";
+    private static final String OPT_COUNTING_S = "s";
+    private static final String OPT_COUNTING_L = "counting";
+    private static final String OPT_CANDIDATE_STORE_S = "T";
+    private static final String OPT_CANDIDATE_STORE_L = "candidate-store";
+    private static final String OPT_CANDIDATE_MEMORY_S = "g";
+    private static final String OPT_CANDIDATE_MEMORY_L = "candidate-memory";
+    private static final String OPT_OUT_OF_CORE_S = "u";
+    private static final String OPT_OUT_OF_CORE_L = "out-of-core";
+    private static final String OPT_SAVE_STATE_S = "S";
+    private static final String OPT_SAVE_STATE_L = "save-state";
+    private static final String OPT_UPDATE_S = "U";
+    private static final String OPT_UPDATE_L = "update";
+    private static final String OPT_HISTORY_S = "H";
+    private static final String OPT_HISTORY_L = "history";
+    private static final String OPT_PARTITIONS_S = "n";
+    private static final String OPT_PARTITIONS_L = "partitions";
+    private static final String OPT_SAMPLE_SIZE_S = "z";
+    private static final String OPT_SAMPLE_SIZE_L = "sample-size";
+    private static final String OPT_SUPPORT_SLACK_S = "r";
+    private static final String OPT_SUPPORT_SLACK_L = "slack";
+    private static final String OPT_DIFFSETS_S = "e";
+    private static final String OPT_DIFFSETS_L = "diffsets";
+    private static final String OPT_ITEMSETS_S = "x";
+    private static final String OPT_ITEMSETS_L = "itemsets";
+    private static final String OPT_TOP_K_S = "K";
+    private static final String OPT_TOP_K_L = "top-k";
+    private static final String OPT_MAX_LENGTH_S = "L";
+    private static final String OPT_MAX_LENGTH_L = "max-length";
+    private static final String OPT_WINDOW_S = "W";
+    private static final String OPT_WINDOW_L = "window";
+    private static final String OPT_ERROR_S = "E";
+    private static final String OPT_ERROR_L = "error";
+    private static final String OPT_REPORT_S = "R";
+    private static final String OPT_REPORT_L = "report-every";
     
     // id3 options
     private static final String OPT_LABEL_INDEX_S = "l";
@@ -65,7 +111,21 @@ public class CLI {
             
         // parse remaining options according to which algorithm was specified
         if (algorithm.equalsIgnoreCase("apriori") || algorithm.equalsIgnoreCase("a"))
-            apriori();
+            apriori(AprioriSession.ENGINE_APRIORI);
+        else if (algorithm.equalsIgnoreCase("fpgrowth") || algorithm.equalsIgnoreCase("f"))
+            apriori(AprioriSession.ENGINE_FP_GROWTH);
+        else if (algorithm.equalsIgnoreCase("eclat") || algorithm.equalsIgnoreCase("e"))
+            apriori(AprioriSession.ENGINE_ECLAT);
+        else if (algorithm.equalsIgnoreCase("partition") || algorithm.equalsIgnoreCase("p"))
+            apriori(AprioriSession.ENGINE_PARTITION);
+        else if (algorithm.equalsIgnoreCase("sampling") || algorithm.equalsIgnoreCase("s"))
+            apriori(AprioriSession.ENGINE_SAMPLING);
+        else if (algorithm.equalsIgnoreCase("topk") || algorithm.equalsIgnoreCase("t"))
+            apriori(AprioriSession.ENGINE_TOP_K);
+        else if (algorithm.equalsIgnoreCase("stream") || algorithm.equalsIgnoreCase("w"))
+            apriori(AprioriSession.ENGINE_STREAM);
+        else if (algorithm.equalsIgnoreCase("lookup") || algorithm.equalsIgnoreCase("l"))
+            lookUp();
         else if (algorithm.equalsIgnoreCase("id3") || algorithm.equalsIgnoreCase("i"))
             id3();
         else if(algorithm.equalsIgnoreCase("xmeans") || algorithm.equalsIgnoreCase("x"))
@@ -83,7 +143,7 @@ public class CLI {
         helpOptions.addOption(Option.builder(OPT_HELP_S).longOpt(OPT_HELP_L).desc("print this message").build());
         
         // create general options
-        mainOptions.addOption(Option.builder(OPT_INPUT_FILE_S).required().hasArg().argName("infile").longOpt(OPT_INPUT_FILE_L).desc("the file with data to run algorithm on").build());
+        mainOptions.addOption(Option.builder(OPT_INPUT_FILE_S).required().hasArg().argName("infile").longOpt(OPT_INPUT_FILE_L).desc("the file with data to run algorithm on (stream: - for standard input)").build());
         mainOptions.addOption(Option.builder(OPT_ALGORITHM_S).required().hasArg().argName("algorithm").longOpt(OPT_ALGORITHM_L).desc("algorithm to run on input file").build());
         mainOptions.addOption(Option.builder(OPT_OUTPUT_FILE_S).hasArg().argName("outfile").longOpt(OPT_OUTPUT_FILE_L).desc("write output to file").build());
         mainOptions.addOption(Option.builder(OPT_DELIMITER_S).hasArg().argName("delimiter").longOpt(OPT_DELIMITER_L).desc("delimiter separating input attributes").build());        
@@ -93,6 +153,29 @@ public class CLI {
         mainOptions.addOption(Option.builder(OPT_MIN_SUP_S).hasArg().argName("min-sup").longOpt(OPT_MIN_SUP_L).desc("apriori: absolute min support (required)").build());
         mainOptions.addOption(Option.builder(OPT_BUCKET_MAX_S).hasArg().argName("bucket-size").longOpt(OPT_BUCKET_MAX_L).desc("apriori: hash tree max bucket size").build());
         mainOptions.addOption(Option.builder(OPT_CHILDREN_PER_NODE_S).hasArg().argName("#-per-node").longOpt(OPT_CHILDREN_PER_NODE_L).desc("apriori: # of children per node in generated hash trees").build());
+        mainOptions.addOption(Option.builder(OPT_THREADS_S).hasArg().argName("threads").longOpt(OPT_THREADS_L).desc("apriori: # of threads to count candidates on").build());
+        mainOptions.addOption(Option.builder(OPT_COUNTING_S).hasArg().argName("mode").longOpt(OPT_COUNTING_L).desc("apriori: count candidates by scan, tid or hybrid").build());
+        mainOptions.addOption(Option.builder(OPT_CANDIDATE_STORE_S).hasArg().argName("store").longOpt(OPT_CANDIDATE_STORE_L).desc("apriori: keep candidates in a hashtree or trie").build());
+        mainOptions.addOption(Option.builder(OPT_OUTPUT_FORMAT_S).hasArg().argName("format").longOpt(OPT_OUTPUT_FORMAT_L).desc("apriori: write itemsets as a tree, flat (items<TAB>support) or binary").build());
+        mainOptions.addOption(Option.builder(OPT_PROFILE_FILE_S).hasArg().argName("file").longOpt(OPT_PROFILE_FILE_L).desc("apriori: write metrics of each level to a .json or .csv file").build());
+        mainOptions.addOption(Option.builder(OPT_RULES_FILE_S).hasArg().argName("file").longOpt(OPT_RULES_FILE_L).desc("apriori: derive association rules and write them to a file").build());
+        mainOptions.addOption(Option.builder(OPT_MODEL_FILE_S).hasArg().argName("file").longOpt(OPT_MODEL_FILE_L).desc("apriori: write a memory-mappable binary model of the itemsets (lookup: the model to look up the input's itemsets in)").build());
+        mainOptions.addOption(Option.builder(OPT_MIN_CONFIDENCE_S).hasArg().argName("fraction").longOpt(OPT_MIN_CONFIDENCE_L).desc("apriori: min confidence of association rules (implies rules)").build());
+        mainOptions.addOption(Option.builder(OPT_CANDIDATE_MEMORY_S).hasArg().argName("megabytes").longOpt(OPT_CANDIDATE_MEMORY_L).desc("apriori: memory a level's candidates may take before they are counted in chunks").build());
+        mainOptions.addOption(Option.builder(OPT_OUT_OF_CORE_S).longOpt(OPT_OUT_OF_CORE_L).desc("apriori: spill the input to disk and stream it for every level").build());
+        mainOptions.addOption(Option.builder(OPT_SAVE_STATE_S).hasArg().argName("file").longOpt(OPT_SAVE_STATE_L).desc("apriori: save the results to a file for later updates").build());
+        mainOptions.addOption(Option.builder(OPT_UPDATE_S).hasArg().argName("file").longOpt(OPT_UPDATE_L).desc("apriori: update saved results with the input's appended transactions").build());
+        mainOptions.addOption(Option.builder(OPT_HISTORY_S).hasArg().argName("file").longOpt(OPT_HISTORY_L).desc("apriori: transactions the updated results were found in").build());
+        mainOptions.addOption(Option.builder(OPT_PARTITIONS_S).hasArg().argName("partitions").longOpt(OPT_PARTITIONS_L).desc("partition: # of partitions to mine separately").build());
+        mainOptions.addOption(Option.builder(OPT_SAMPLE_SIZE_S).hasArg().argName("transactions").longOpt(OPT_SAMPLE_SIZE_L).desc("sampling: # of transactions to sample").build());
+        mainOptions.addOption(Option.builder(OPT_SUPPORT_SLACK_S).hasArg().argName("fraction").longOpt(OPT_SUPPORT_SLACK_L).desc("sampling: fraction to lower the sample's min support by").build());
+        mainOptions.addOption(Option.builder(OPT_DIFFSETS_S).longOpt(OPT_DIFFSETS_L).desc("eclat: use diffsets instead of tid-lists").build());
+        mainOptions.addOption(Option.builder(OPT_ITEMSETS_S).hasArg().argName("mode").longOpt(OPT_ITEMSETS_L).desc("eclat: mine all, closed or maximal frequent itemsets").build());
+        mainOptions.addOption(Option.builder(OPT_TOP_K_S).hasArg().argName("k").longOpt(OPT_TOP_K_L).desc("topk: # of most frequent itemsets to find (min-sup is optional)").build());
+        mainOptions.addOption(Option.builder(OPT_MAX_LENGTH_S).hasArg().argName("items").longOpt(OPT_MAX_LENGTH_L).desc("topk, stream: max # of items in an itemset").build());
+        mainOptions.addOption(Option.builder(OPT_WINDOW_S).hasArg().argName("baskets").longOpt(OPT_WINDOW_L).desc("stream: # of most recent baskets to find frequent itemsets in").build());
+        mainOptions.addOption(Option.builder(OPT_ERROR_S).hasArg().argName("fraction").longOpt(OPT_ERROR_L).desc("stream: fraction of the window counts may be too low by").build());
+        mainOptions.addOption(Option.builder(OPT_REPORT_S).hasArg().argName("baskets").longOpt(OPT_REPORT_L).desc("stream: rewrite the output file every # of baskets").build());
         
         // create id3-specific options
         mainOptions.addOption(Option.builder(OPT_LABEL_INDEX_S).hasArg().argName("label-index").longOpt(OPT_LABEL_INDEX_L).desc("id3: index of class label attribute (required)").build());
@@ -127,11 +210,33 @@ public class CLI {
             delimiter = cmd.getOptionValue(OPT_DELIMITER_S);
     }
     
-    /** Handles the processing of apriori-specific command line arguments, and sends request to run the algorithm. **/
-    private static void apriori() {
+    /** Handles the processing of apriori-specific command line arguments, and sends request to run the algorithm.
+     * The same arguments are used by every frequent itemset engine; engine specifies which one to run. **/
+    private static void apriori(String engine) {
         String absMinSup = null;
         String maxBucketSize = null;
         String children = null;
+        String threads = null;
+        String counting = null;
+        String candidateStore = null;
+        String candidateMemory = null;
+        String profileFile = null;
+        String outputFormat = null;
+        String rulesFile = null;
+        String modelFile = null;
+        String minConfidence = null;
+        String partitions = null;
+        String sampleSize = null;
+        String slack = null;
+        String itemSetMode = null;
+        String topK = null;
+        String stateFile = null;
+        String updatedStateFile = null;
+        String historyFile = null;
+        String maxLength = null;
+        String windowSize = null;
+        String error = null;
+        String reportInterval = null;
         
         // absolute minimum support
         if (cmd.hasOption(OPT_MIN_SUP_S))
@@ -145,9 +250,111 @@ public class CLI {
         if (cmd.hasOption(OPT_CHILDREN_PER_NODE_S))
             children = cmd.getOptionValue(OPT_CHILDREN_PER_NODE_S);
         
+        // threads used to count candidates
+        if (cmd.hasOption(OPT_THREADS_S))
+            threads = cmd.getOptionValue(OPT_THREADS_S);
+        
+        // how candidates are counted
+        if (cmd.hasOption(OPT_COUNTING_S))
+            counting = cmd.getOptionValue(OPT_COUNTING_S);
+        
+        // the structure candidates are counted in
+        if (cmd.hasOption(OPT_CANDIDATE_STORE_S))
+            candidateStore = cmd.getOptionValue(OPT_CANDIDATE_STORE_S);
+        
+        // memory the candidates of a level may take before they are counted in chunks
+        if (cmd.hasOption(OPT_CANDIDATE_MEMORY_S))
+            candidateMemory = cmd.getOptionValue(OPT_CANDIDATE_MEMORY_S);
+        
+        // format to write the frequent itemsets in
+        if (cmd.hasOption(OPT_OUTPUT_FORMAT_S))
+            outputFormat = cmd.getOptionValue(OPT_OUTPUT_FORMAT_S);
+        
+        // file to write the metrics of each level to
+        if (cmd.hasOption(OPT_PROFILE_FILE_S))
+            profileFile = cmd.getOptionValue(OPT_PROFILE_FILE_S);
+        
+        // association rules derived from the frequent itemsets
+        if (cmd.hasOption(OPT_RULES_FILE_S))
+            rulesFile = cmd.getOptionValue(OPT_RULES_FILE_S);
+        if (cmd.hasOption(OPT_MIN_CONFIDENCE_S))
+            minConfidence = cmd.getOptionValue(OPT_MIN_CONFIDENCE_S);
+        
+        // binary model of the frequent itemsets
+        if (cmd.hasOption(OPT_MODEL_FILE_S))
+            modelFile = cmd.getOptionValue(OPT_MODEL_FILE_S);
+        
+        // partitions mined separately by the partition engine
+        if (cmd.hasOption(OPT_PARTITIONS_S))
+            partitions = cmd.getOptionValue(OPT_PARTITIONS_S);
+        
+        // size of the sample mined by the sampling engine, and how far its min support is lowered
+        if (cmd.hasOption(OPT_SAMPLE_SIZE_S))
+            sampleSize = cmd.getOptionValue(OPT_SAMPLE_SIZE_S);
+        if (cmd.hasOption(OPT_SUPPORT_SLACK_S))
+            slack = cmd.getOptionValue(OPT_SUPPORT_SLACK_S);
+        
+        // results saved for later updates, and saved results updated with the input instead of mining it
+        if (cmd.hasOption(OPT_SAVE_STATE_S))
+            stateFile = cmd.getOptionValue(OPT_SAVE_STATE_S);
+        if (cmd.hasOption(OPT_UPDATE_S))
+            updatedStateFile = cmd.getOptionValue(OPT_UPDATE_S);
+        if (cmd.hasOption(OPT_HISTORY_S))
+            historyFile = cmd.getOptionValue(OPT_HISTORY_S);
+        
+        // which frequent itemsets the Eclat engine mines
+        if (cmd.hasOption(OPT_ITEMSETS_S))
+            itemSetMode = cmd.getOptionValue(OPT_ITEMSETS_S);
+        
+        // how many of the most frequent itemsets the top-k engine finds, and how long they may be
+        if (cmd.hasOption(OPT_TOP_K_S))
+            topK = cmd.getOptionValue(OPT_TOP_K_S);
+        if (cmd.hasOption(OPT_MAX_LENGTH_S))
+            maxLength = cmd.getOptionValue(OPT_MAX_LENGTH_S);
+        
+        // the sliding window of the stream engine, how far its counts may be off, and how often it reports
+        if (cmd.hasOption(OPT_WINDOW_S))
+            windowSize = cmd.getOptionValue(OPT_WINDOW_S);
+        if (cmd.hasOption(OPT_ERROR_S))
+            error = cmd.getOptionValue(OPT_ERROR_S);
+        if (cmd.hasOption(OPT_REPORT_S))
+            reportInterval = cmd.getOptionValue(OPT_REPORT_S);
+        
+        AprioriSession.getSession().setEngine(engine);
+        AprioriSession.getSession().setThreads(threads);
+        AprioriSession.getSession().setCountingMode(counting);
+        AprioriSession.getSession().setCandidateStore(candidateStore);
+        AprioriSession.getSession().setCandidateMemoryBudget(candidateMemory);
+        AprioriSession.getSession().setOutputFormat(outputFormat);
+        AprioriSession.getSession().setProfileFile(profileFile);
+        AprioriSession.getSession().setRules(rulesFile, minConfidence);
+        AprioriSession.getSession().setModelFile(modelFile);
+        AprioriSession.getSession().setPartitions(partitions);
+        AprioriSession.getSession().setSampleSize(sampleSize);
+        AprioriSession.getSession().setSupportSlack(slack);
+        AprioriSession.getSession().setOutOfCore(cmd.hasOption(OPT_OUT_OF_CORE_S));
+        AprioriSession.getSession().setDiffsets(cmd.hasOption(OPT_DIFFSETS_S));
+        AprioriSession.getSession().setItemSetMode(itemSetMode);
+        AprioriSession.getSession().setTopK(topK, maxLength);
+        AprioriSession.getSession().setStream(windowSize, error, reportInterval);
+        AprioriSession.getSession().setStateFile(stateFile);
+        AprioriSession.getSession().setUpdate(updatedStateFile, historyFile);
         AprioriSession.getSession().run(inputFileName, delimiter, outputFileName, absMinSup, maxBucketSize, children);
     }
     
+    /** Handles the processing of lookup-specific command line arguments, and sends request to look up the itemsets of the
+     * input file in a model written by an earlier run. **/
+    private static void lookUp() {
+        String modelFile = null;
+        
+        // model the itemsets are looked up in
+        if (cmd.hasOption(OPT_MODEL_FILE_S))
+            modelFile = cmd.getOptionValue(OPT_MODEL_FILE_S);
+        
+        AprioriSession.getSession().setModelFile(modelFile);
+        AprioriSession.getSession().lookUp(inputFileName, delimiter, outputFileName);
+    }
+    
     /** Handles the processing of id3-specific command line arguments, and sends request to run the algorithm. **/
     private static void id3() {
         String labelIndex = null;